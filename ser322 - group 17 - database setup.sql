@@ -71,4 +71,11 @@ CREATE TABLE adb.createdby (
         PRIMARY KEY (TrackID, CreatorID),
         FOREIGN KEY (TrackID) REFERENCES adb.audiofile(TrackID) ON DELETE CASCADE,
         FOREIGN KEY (CreatorID) REFERENCES adb.creator(CreatorID) ON DELETE CASCADE
+);
+
+
+CREATE TABLE adb.idsequence (
+        TableName            VARCHAR(20)            NOT NULL        UNIQUE,
+        NextID                int                    NOT NULL,
+        PRIMARY KEY(TableName)
 );
\ No newline at end of file
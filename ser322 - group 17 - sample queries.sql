@@ -109,4 +109,18 @@ Where audiofile.AlbumID=album.AlbumID
 SELECT AVG(audiofile.Duration)
 FROM audiofile, album
 Where audiofile.AlbumID=album.AlbumID
-          AND album.AlbumName='Sucker Punch';
\ No newline at end of file
+          AND album.AlbumName='Sucker Punch';
+
+
+/*With schema version 4: track count, total duration and release span of creator 'Kimbra' from its summary row*/
+SELECT creator.Name, TrackCount, sec_to_time(TotalDuration) AS TotalLength, FirstRelease, LastRelease
+FROM creatorsummary, creator
+WHERE creatorsummary.CreatorID=creator.CreatorID
+          AND creator.Name='Kimbra';
+
+
+/*With schema version 4: track count and average track duration for album 'Sucker Punch' from its summary row*/
+SELECT TrackCount, sec_to_time(TotalDuration DIV TrackCount) AS AverageDuration
+FROM albumsummary, album
+Where albumsummary.AlbumID=album.AlbumID
+          AND album.AlbumName='Sucker Punch';
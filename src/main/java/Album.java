@@ -0,0 +1,33 @@
+package main.java;
+
+import java.util.*;
+
+/**
+ * One album as returned by the searches, with its tracks if the search lists them.
+ */
+public final class Album {
+	public final int albumID;
+	public final String name;
+	public final String mediaType;
+	//yyyy-mm-dd
+	public final String releaseDate;
+	//record label name
+	public final String label;
+	//number of distinct tracks, and their summed duration in seconds (null if there are none)
+	public final int trackCount;
+	public final Long totalSeconds;
+	//one entry per track and creator, empty if the search does not list tracks
+	public final List<Track> tracks;
+
+	public Album(int albumID, String name, String mediaType, String releaseDate, String label,
+				 int trackCount, Long totalSeconds, List<Track> tracks) {
+		this.albumID = albumID;
+		this.name = name;
+		this.mediaType = mediaType;
+		this.releaseDate = releaseDate;
+		this.label = label;
+		this.trackCount = trackCount;
+		this.totalSeconds = totalSeconds;
+		this.tracks = Collections.unmodifiableList(tracks);
+	}
+}
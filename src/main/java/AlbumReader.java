@@ -0,0 +1,90 @@
+package main.java;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Groups the rows of a single joined album/track query into Album records, instead of running one track
+ * query per album. The ResultSet must be ordered so all rows of an album are adjacent and must provide the
+ * columns AlbumID, AlbumName, MediaType, ReleaseDate, Label, TrackID, Title, Duration (seconds), Explicit
+ * and Creator. Track count and total duration are accumulated while an album's rows stream past, and each
+ * album is handed to the sink as soon as its last row has been read.
+ * Paged searches pass a limit; the rows of the album after the last one passed tell the sink another page follows.
+ */
+class AlbumReader {
+
+	private AlbumReader() {
+	}
+
+	/**
+	 * Streams the result set into the sink, one album at a time.
+	 * @param rs rows ordered by album, then track
+	 * @return number of albums read
+	 */
+	static int read(ResultSet rs, ResultSink sink) throws SQLException {
+		return read(rs, sink, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Streams at most limit albums into the sink. If the rows hold another album, the sink is given the
+	 * last AlbumID passed as the token of the next page and the rest of the rows are not read.
+	 * @param rs rows ordered by album, then track
+	 * @return number of albums read
+	 */
+	static int read(ResultSet rs, ResultSink sink, int limit) throws SQLException {
+		int albums = 0;
+		Builder current = null;
+		while (rs.next()) {
+			int albumID = rs.getInt("AlbumID");
+			if (current == null || current.albumID != albumID) {
+				if (current != null) sink.album(current.build());
+				if (albums == limit) {
+					sink.next(String.valueOf(current.albumID));
+					return albums;
+				}
+				current = new Builder(rs, albumID);
+				albums++;
+			}
+
+			int trackID = rs.getInt("TrackID");
+			if (rs.wasNull()) continue; //album without any tracks
+			int duration = rs.getInt("Duration");
+			Integer seconds = rs.wasNull() ? null : duration;
+			//a track with several creators spans several rows but only counts once
+			if (current.tracks.isEmpty() || trackID != current.lastTrackID) {
+				current.count++;
+				if (seconds != null) current.totalSeconds += seconds;
+			}
+			current.lastTrackID = trackID;
+			current.tracks.add(new Track(trackID, rs.getString("Title"), seconds, rs.getInt("Explicit") != 0,
+					null, rs.getString("Creator"), albumID, current.name, current.releaseDate));
+		}
+		if (current != null) sink.album(current.build());
+		return albums;
+	}
+
+	//the album whose rows are being read
+	private static class Builder {
+		final int albumID;
+		final String name;
+		final String mediaType;
+		final String releaseDate;
+		final String label;
+		final List<Track> tracks = new ArrayList<>();
+		int count = 0;
+		long totalSeconds = 0;
+		int lastTrackID;
+
+		Builder(ResultSet rs, int albumID) throws SQLException {
+			this.albumID = albumID;
+			this.name = rs.getString("AlbumName");
+			this.mediaType = rs.getString("MediaType");
+			this.releaseDate = rs.getString("ReleaseDate");
+			this.label = rs.getString("Label");
+		}
+
+		Album build() {
+			return new Album(albumID, name, mediaType, releaseDate, label, count, (count == 0) ? null : totalSeconds, tracks);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package main.java;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Runs Queries operations in the background so independent lookups overlap, e.g. resolving a label and a
+ * country at the same time, or running the album and creator searches of one screen together:
+ * <pre>
+ *   CompletableFuture&lt;Integer&gt; label = async.getRecordLabelID("Virgin");
+ *   CompletableFuture&lt;Integer&gt; country = async.getCountryID("France");
+ *   label.thenCombine(country, (l, c) -&gt; ...);
+ * </pre>
+ * Each operation borrows its own connection from the pool, so at most maxConcurrency run at once; set it no
+ * higher than the pool size or the extra workers only wait for connections. Up to maxQueued more wait for a
+ * worker, and submissions beyond that fail with a RejectedExecutionException.
+ * Results are the values the Queries method returns, so errors are still negative counts or null.
+ * Cancelling a future removes it from the queue, or interrupts its worker if it already started, which stops
+ * the wait for a pooled connection; a statement that is already executing runs to completion.
+ * Search results are buffered per thread by ResultPrinter, so concurrent searches print one after the other.
+ * The Queries missing creator policy must not be ASK, a worker cannot answer the prompt.
+ */
+public class AsyncQueries implements AutoCloseable {
+	public static final int DEFAULT_MAX_QUEUED = 1000;
+
+	private final Queries query;
+	private final ThreadPoolExecutor executor;
+
+	/** @param query Queries to run the operations through. maxConcurrency defaults to the pool size. */
+	public AsyncQueries(Queries query, ConnectionPool pool) {
+		this(query, pool.getMaxSize(), DEFAULT_MAX_QUEUED);
+	}
+
+	/**
+	 * @param query Queries to run the operations through.
+	 * @param maxConcurrency Number of operations running at once.
+	 * @param maxQueued Number of operations waiting for a worker before submissions are rejected.
+	 */
+	public AsyncQueries(Queries query, int maxConcurrency, int maxQueued) {
+		if (maxConcurrency < 1) throw new IllegalArgumentException("concurrency must be at least 1");
+		this.query = query;
+		//daemon workers so an unclosed facade never keeps the JVM alive
+		executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, maxQueued)), r -> {
+			Thread t = new Thread(r, "zene-async-query");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Runs any operation, or several that belong together, on a worker.
+	 * @param operation Called with the Queries instance, its result completes the future.
+	 * @return the pending result. Fails with RejectedExecutionException if the queue is full.
+	 */
+	public <T> CompletableFuture<T> submit(Function<Queries, T> operation) {
+		Task<T> task = new Task<>(operation);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			task.result.completeExceptionally(e);
+			return task.result;
+		}
+		task.result.whenComplete((value, error) -> {
+			if (task.result.isCancelled()) {
+				executor.remove(task);
+				task.interrupt();
+			}
+		});
+		return task.result;
+	}
+
+	//one submitted operation and the worker running it, if it started
+	private class Task<T> implements Runnable {
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final Function<Queries, T> operation;
+		private Thread runner;
+
+		Task(Function<Queries, T> operation) {
+			this.operation = operation;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (result.isDone()) return; //cancelled while queued
+				runner = Thread.currentThread();
+			}
+			try {
+				result.complete(operation.apply(query));
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			} finally {
+				//an interrupt meant for this operation must not hit the worker's next one
+				synchronized (this) {
+					runner = null;
+					Thread.interrupted();
+				}
+			}
+		}
+
+		synchronized void interrupt() {
+			if (runner != null) runner.interrupt();
+		}
+	}
+
+	/** @return number of operations running or waiting */
+	public int getPendingCount() {
+		return executor.getActiveCount() + executor.getQueue().size();
+	}
+
+	public CompletableFuture<Integer> queryByCreator(String ctr) {
+		return submit(q -> q.queryByCreator(ctr, false));
+	}
+
+	public CompletableFuture<Integer> queryByAudioTitle(String title) {
+		return submit(q -> q.queryByAudioTitle(title, false));
+	}
+
+	public CompletableFuture<Map<Integer, Integer>> queryByAlbumTitle(String title, boolean printTracks) {
+		return submit(q -> q.queryByAlbumTitle(title, printTracks));
+	}
+
+	public CompletableFuture<Integer> queryByGenre(String gnr) {
+		return submit(q -> q.queryByGenre(gnr));
+	}
+
+	public CompletableFuture<Integer> queryByMediaType(String mediaType) {
+		return submit(q -> q.queryByMediaType(mediaType));
+	}
+
+	public CompletableFuture<Integer> getTracksByCountry(String country) {
+		return submit(q -> q.getTracksByCountry(country));
+	}
+
+	public CompletableFuture<Integer> getTracksLabel(String label) {
+		return submit(q -> q.getTracksLabel(label));
+	}
+
+	public CompletableFuture<Integer> searchCatalog(String text) {
+		return submit(q -> q.searchCatalog(text));
+	}
+
+	public CompletableFuture<Integer> getRecordLabelID(String label) {
+		return submit(q -> q.getRecordLabelID(label));
+	}
+
+	public CompletableFuture<Integer> getCountryID(String country) {
+		return submit(q -> q.getCountryID(country));
+	}
+
+	/**
+	 * Stops accepting operations and waits up to the timeout for the running and queued ones to finish.
+	 * Whatever is still running after that is interrupted.
+	 */
+	public void close(long timeoutMillis) {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) stop();
+		} catch (InterruptedException e) {
+			stop();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	//interrupts running operations and cancels the queued ones so nobody waits on them forever
+	private void stop() {
+		for (Runnable r : executor.shutdownNow()) ((Task<?>) r).result.cancel(false);
+	}
+
+	@Override
+	public void close() {
+		close(10_000);
+	}
+}
@@ -0,0 +1,147 @@
+package main.java;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Hi/lo ID allocator. Blocks of consecutive IDs are reserved per table from the adb.idsequence table and
+ * then handed out from memory, so only one insert in every blockSize pays for a round trip.
+ * Reserving a block locks that table's sequence row, so several Zene instances sharing a database
+ * never receive overlapping blocks. IDs inside a reserved block that are already taken by older,
+ * randomly numbered rows are skipped.
+ * A block is reserved on a connection borrowed from the pool, so callers reserve their IDs before they borrow
+ * the connection the insert runs on; holding one while waiting for another can exhaust the pool.
+ */
+public class BlockIdAllocator implements IdAllocator {
+	public static final int DEFAULT_BLOCK_SIZE = 100;
+
+	//tables that get generated IDs, and their ID column
+	private static final Map<String, String> ID_COLUMNS = Map.of(
+			"album", "AlbumID",
+			"audiofile", "TrackID",
+			"creator", "CreatorID",
+			"recordlabel", "LabelID",
+			"country", "CountryID");
+
+	private final ConnectionPool pool;
+	private final int blockSize;
+	private final Map<String, Block> blocks = new HashMap<>();
+
+	public BlockIdAllocator(ConnectionPool pool) {
+		this(pool, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param pool Pool to borrow a connection from when a new block is needed.
+	 * @param blockSize Number of IDs reserved per round trip.
+	 */
+	public BlockIdAllocator(ConnectionPool pool, int blockSize) {
+		if (blockSize < 1) throw new IllegalArgumentException("block size must be at least 1");
+		this.pool = pool;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	public synchronized int nextID(String table) throws SQLException {
+		Block block = blocks.get(table);
+		//a block can come back empty if older rows already use every ID in it
+		while (block == null || !block.hasNext()) {
+			block = reserve(table);
+			blocks.put(table, block);
+		}
+		return block.next();
+	}
+
+	//reserves the next block for the table in its own short transaction
+	private Block reserve(String table) throws SQLException {
+		String column = ID_COLUMNS.get(table);
+		if (column == null) throw new IllegalArgumentException("No generated IDs for table " + table);
+
+		try (Connection conn = pool.getConnection()) {
+			try {
+				int lo = bumpSequence(conn, table);
+				Block block = new Block(lo, lo + blockSize);
+
+				//skip IDs already used by rows that were inserted with the old random IDs
+				try (PreparedStatement pstmt = conn.prepareStatement(
+						"SELECT " + column + " FROM " + table + " WHERE " + column + " >= ? AND " + column + " < ?;"))
+				{
+					pstmt.setInt(1, block.lo);
+					pstmt.setInt(2, block.hi);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						while (rs.next()) block.used.set(rs.getInt(1) - block.lo);
+					}
+				}
+				conn.commit();
+				return block;
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			}
+		}
+	}
+
+	//moves the table's sequence forward by one block and returns the first ID of the block
+	private int bumpSequence(Connection conn, String table) throws SQLException {
+		while (true) {
+			Integer next = null;
+			try (PreparedStatement pstmt = conn.prepareStatement(
+					"SELECT NextID FROM idsequence WHERE TableName = ? FOR UPDATE;"))
+			{
+				pstmt.setString(1, table);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					if (rs.next()) next = rs.getInt(1);
+				}
+			}
+
+			if (next == null) {
+				//first block ever for this table. if another instance creates the row first, retry the select
+				try (PreparedStatement pstmt = conn.prepareStatement(
+						"INSERT INTO idsequence (TableName, NextID) VALUES (?, ?);"))
+				{
+					pstmt.setString(1, table);
+					pstmt.setInt(2, 1 + blockSize);
+					pstmt.executeUpdate();
+					return 1;
+				} catch (SQLIntegrityConstraintViolationException e) {
+					conn.rollback();
+					continue;
+				}
+			}
+
+			if ((long) next + blockSize > Integer.MAX_VALUE)
+				throw new SQLException("Out of IDs for table " + table);
+			try (PreparedStatement pstmt = conn.prepareStatement(
+					"UPDATE idsequence SET NextID = ? WHERE TableName = ?;"))
+			{
+				pstmt.setInt(1, next + blockSize);
+				pstmt.setString(2, table);
+				pstmt.executeUpdate();
+			}
+			return next;
+		}
+	}
+
+	//range [lo, hi) of reserved IDs, minus the ones already present in the table
+	private static class Block {
+		final int lo;
+		final int hi;
+		final BitSet used = new BitSet();
+		int next;
+
+		Block(int lo, int hi) {
+			this.lo = lo;
+			this.hi = hi;
+			this.next = lo;
+		}
+
+		boolean hasNext() {
+			next = lo + used.nextClearBit(next - lo);
+			return next < hi;
+		}
+
+		int next() {
+			return next++;
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package main.java;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Seeded generator of large synthetic catalogs for load and scale testing.
+ * The same seed and size always produce the same rows. Popularity is skewed the way real catalogs are:
+ * creators, labels, genres and countries are drawn from Zipf distributions, so a few of each own most of the
+ * tracks, album sizes and track durations depend on the media type, and some tracks have several creators
+ * or genres. Rows are streamed in foreign key order to one of three targets:
+ * <pre>
+ *   java main.java.CatalogGenerator --tracks 10000000 [--seed 17] --jdbc url username password driver
+ *   java main.java.CatalogGenerator --tracks 10000000 [--seed 17] --sql catalog.sql
+ *   java main.java.CatalogGenerator --tracks 10000000 [--seed 17] --csv directory
+ * </pre>
+ * The JDBC target must have the empty schema from the setup script; rows are written with batched inserts
+ * and committed every batch. The sql target writes multi-row INSERT statements in the style of the sample data
+ * file, and the csv target writes one file per table with a header row and \N for null, ready for LOAD DATA.
+ * IDs start at 1 in every table, and the idsequence rows are written last so BlockIdAllocator continues after them.
+ */
+public class CatalogGenerator {
+	public static final long DEFAULT_SEED = 17;
+	public static final int BATCH_SIZE = 1000;
+
+	//column lists of every generated table, in the order rows must be written
+	private static final Map<String, String[]> TABLES = new LinkedHashMap<>();
+	static {
+		TABLES.put("country", new String[]{"CountryID", "Name"});
+		TABLES.put("recordlabel", new String[]{"LabelID", "Name", "FoundingDate", "CountryID"});
+		TABLES.put("genre", new String[]{"GenreID", "Description"});
+		TABLES.put("creator", new String[]{"CreatorID", "Name"});
+		TABLES.put("album", new String[]{"AlbumID", "AlbumName", "MediaType", "ReleaseDate", "LabelID"});
+		TABLES.put("audiofile", new String[]{"TrackID", "ReleaseName", "ExplicitRating", "Duration", "CountryID", "AlbumID"});
+		TABLES.put("createdby", new String[]{"TrackID", "CreatorID"});
+		TABLES.put("ingenre", new String[]{"TrackID", "GenreID"});
+		TABLES.put("idsequence", new String[]{"TableName", "NextID"});
+	}
+
+	private static final String[] COUNTRIES = {"USA", "Great Britain", "Canada", "Germany", "Japan", "France", "Sweden",
+			"Australia", "South Korea", "Brazil", "Mexico", "Spain", "Italy", "Netherlands", "Norway", "Ireland",
+			"New Zealand", "Jamaica", "Nigeria", "India", "China", "Argentina", "Colombia", "Puerto Rico", "Iceland",
+			"Finland", "Denmark", "Belgium", "Poland", "South Africa"};
+	private static final String[] GENRES = {"Pop", "Rock", "Hip Hop", "Electronic", "R&B", "Country", "Indie",
+			"Jazz", "Classical", "Metal", "Folk", "Latin", "Soul", "Punk", "Reggae", "Blues", "House", "Techno",
+			"Ambient", "K-Pop", "Alternative", "Funk", "Disco", "Gospel", "Soundtrack", "Synthpop", "Grunge",
+			"Trap", "Comedy", "News", "True Crime", "Education", "Fiction", "Biography", "History"};
+	//syllables for invented names
+	private static final String[] SYLLABLES = {"ka", "lo", "mi", "ra", "ven", "tor", "sa", "bel", "na", "dri",
+			"mo", "zan", "el", "qui", "fa", "ron", "shi", "ta", "lu", "ber", "ix", "ca", "dor", "ny", "vo", "pe"};
+	private static final String[] WORDS = {"Night", "Light", "Dream", "Fire", "Gold", "Blue", "Heart", "River",
+			"Echo", "Wild", "Glass", "Summer", "Ghost", "Neon", "Stone", "Ocean", "Electric", "Silent", "Paper",
+			"Midnight", "City", "Wolf", "Velvet", "Sun", "Rain", "Love", "Storm", "Golden", "Empire", "Signal"};
+
+	//where generated rows go
+	interface Sink extends AutoCloseable {
+		void row(String table, Object... values) throws IOException, SQLException;
+
+		//called once per BATCH_SIZE tracks and at the end
+		void flush() throws IOException, SQLException;
+
+		@Override
+		void close() throws IOException, SQLException;
+	}
+
+	private final Random rand;
+	private final int trackTarget;
+	private final Map<String, Long> rows = new LinkedHashMap<>();
+
+	//ranks drawn from the Zipf distributions are mapped to IDs through a shuffled table,
+	//so the most popular creator is not simply creator 1
+	private int[] creatorOfRank;
+	private Zipf creatorPopularity, labelPopularity, genrePopularity, countryPopularity;
+	private int creatorCount, labelCount;
+
+	/**
+	 * @param trackTarget Number of tracks to generate; the other tables are sized from it.
+	 * @param seed Seed for every random choice.
+	 */
+	public CatalogGenerator(int trackTarget, long seed) {
+		if (trackTarget < 1) throw new IllegalArgumentException("track count must be at least 1");
+		this.trackTarget = trackTarget;
+		this.rand = new Random(seed);
+		for (String table : TABLES.keySet()) rows.put(table, 0L);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int tracks = 0;
+		long seed = DEFAULT_SEED;
+		Sink sink = null;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--tracks": tracks = Integer.parseInt(args[++i]); break;
+					case "--seed": seed = Long.parseLong(args[++i]); break;
+					case "--sql": sink = new SqlSink(Paths.get(args[++i])); break;
+					case "--csv": sink = new CsvSink(Paths.get(args[++i])); break;
+					case "--jdbc":
+						String url = args[++i], user = args[++i], pass = args[++i];
+						Class.forName(args[++i]);
+						Connection conn = DriverManager.getConnection(url, user, pass);
+						conn.setAutoCommit(false);
+						sink = new JdbcSink(conn);
+						break;
+					default: throw new IllegalArgumentException("unrecognized option " + args[i]);
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("missing value for " + args[args.length - 1]);
+		}
+		if (tracks < 1 || sink == null) {
+			System.out.println("usage: CatalogGenerator --tracks <n> [--seed <n>] (--jdbc <url> <username> <password> <driver> | --sql <file> | --csv <directory>)");
+			System.exit(1);
+		}
+		try (Sink s = sink) {
+			new CatalogGenerator(tracks, seed).generate(s);
+		}
+	}
+
+	/**
+	 * Writes the whole catalog to the sink and prints the rows written per table and the rows/sec achieved.
+	 */
+	public void generate(Sink sink) throws IOException, SQLException {
+		long start = System.nanoTime();
+		//roughly one creator per 40 tracks and one label per 50 creators, as in large streaming catalogs
+		creatorCount = Math.max(10, trackTarget / 40);
+		labelCount = Math.max(5, creatorCount / 50);
+		creatorPopularity = new Zipf(creatorCount, 1.07);
+		labelPopularity = new Zipf(labelCount, 1.2);
+		genrePopularity = new Zipf(GENRES.length, 0.9);
+		countryPopularity = new Zipf(COUNTRIES.length, 1.4);
+		creatorOfRank = shuffledIDs(creatorCount);
+
+		for (int c = 0; c < COUNTRIES.length; c++) row(sink, "country", c + 1, COUNTRIES[c]);
+		Set<String> used = new HashSet<>();
+		for (int l = 1; l <= labelCount; l++)
+			row(sink, "recordlabel", l, unique(used, name(2) + " Records"), date(1950, 2020), country());
+		for (String genre : GENRES) row(sink, "genre", genre, genre + " (generated)");
+		used.clear();
+		for (int c = 1; c <= creatorCount; c++) row(sink, "creator", c, unique(used, creatorName()));
+		sink.flush();
+
+		int trackID = 0, albumID = 0;
+		while (trackID < trackTarget) {
+			albumID++;
+			String media = mediaType();
+			int size = Math.min(albumSize(media), trackTarget - trackID);
+			int mainCreator = creatorOfRank[creatorPopularity.next(rand)];
+			Integer label = (rand.nextInt(10) == 0) ? null : labelPopularity.next(rand) + 1;
+			row(sink, "album", albumID, title(3), media, date(1965, 2024), label);
+
+			Integer country = country();
+			String albumGenre = GENRES[genrePopularity.next(rand)];
+			for (int t = 0; t < size; t++) {
+				trackID++;
+				boolean explicit = media.equals("Music") && rand.nextInt(100) < 18;
+				row(sink, "audiofile", trackID, title(4), explicit ? 1 : 0, duration(media), country, albumID);
+
+				//every track has the album's creator, some also feature others
+				row(sink, "createdby", trackID, mainCreator);
+				int features = (rand.nextInt(100) < 15) ? 1 + rand.nextInt(2) : 0;
+				Set<Integer> creators = new HashSet<>();
+				creators.add(mainCreator);
+				for (int f = 0; f < features; f++) {
+					int featured = creatorOfRank[creatorPopularity.next(rand)];
+					if (creators.add(featured)) row(sink, "createdby", trackID, featured);
+				}
+
+				//one genre mostly shared across the album, sometimes one or two more
+				row(sink, "ingenre", trackID, albumGenre);
+				int extra = (rand.nextInt(100) < 30) ? 1 + rand.nextInt(2) : 0;
+				Set<String> genres = new HashSet<>();
+				genres.add(albumGenre);
+				for (int g = 0; g < extra; g++) {
+					String genre = GENRES[genrePopularity.next(rand)];
+					if (genres.add(genre)) row(sink, "ingenre", trackID, genre);
+				}
+				if (trackID % BATCH_SIZE == 0) sink.flush();
+			}
+		}
+
+		row(sink, "idsequence", "country", COUNTRIES.length + 1);
+		row(sink, "idsequence", "recordlabel", labelCount + 1);
+		row(sink, "idsequence", "creator", creatorCount + 1);
+		row(sink, "idsequence", "album", albumID + 1);
+		row(sink, "idsequence", "audiofile", trackID + 1);
+		sink.flush();
+		printSummary(System.nanoTime() - start);
+	}
+
+	private void row(Sink sink, String table, Object... values) throws IOException, SQLException {
+		sink.row(table, values);
+		rows.merge(table, 1L, Long::sum);
+	}
+
+	private void printSummary(long elapsedNanos) {
+		long total = 0;
+		for (long n : rows.values()) total += n;
+		double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+		System.out.printf("Generated %d rows in %.2fs: %.0f rows/sec\n", total, seconds, total / seconds);
+		for (Map.Entry<String, Long> e : rows.entrySet()) System.out.printf("%12s: %d\n", e.getKey(), e.getValue());
+	}
+
+	//mostly music, with a tail of podcasts and audiobooks
+	private String mediaType() {
+		int r = rand.nextInt(100);
+		return (r < 85) ? "Music" : (r < 95) ? "Podcast" : "Audiobook";
+	}
+
+	//singles and EPs are common for music; podcasts run for many episodes
+	private int albumSize(String media) {
+		switch (media) {
+			case "Podcast":
+				return 5 + (int) logNormal(Math.log(40), 0.8);
+			case "Audiobook":
+				return 3 + rand.nextInt(30);
+			default:
+				int r = rand.nextInt(100);
+				if (r < 25) return 1 + rand.nextInt(2);
+				if (r < 40) return 4 + rand.nextInt(3);
+				return 8 + rand.nextInt(9);
+		}
+	}
+
+	//seconds, log-normally distributed around about 3.5 minutes for music and 45 minutes for podcasts
+	private int duration(String media) {
+		switch (media) {
+			case "Podcast": return (int) Math.min(4 * 3600, 60 + logNormal(Math.log(2700), 0.5));
+			case "Audiobook": return (int) Math.min(4 * 3600, 300 + logNormal(Math.log(1500), 0.4));
+			default: return (int) Math.min(1800, 30 + logNormal(Math.log(180), 0.35));
+		}
+	}
+
+	private double logNormal(double mu, double sigma) {
+		return Math.exp(mu + sigma * rand.nextGaussian());
+	}
+
+	//country of a label or album, null for about one in twenty
+	private Integer country() {
+		return (rand.nextInt(20) == 0) ? null : countryPopularity.next(rand) + 1;
+	}
+
+	//yyyymmdd, skewed towards recent years like a real catalog
+	private String date(int fromYear, int toYear) {
+		int span = toYear - fromYear;
+		int year = toYear - (int) Math.min(span, Math.abs(rand.nextGaussian()) * span / 2.5);
+		return String.format("%04d%02d%02d", year, 1 + rand.nextInt(12), 1 + rand.nextInt(28));
+	}
+
+	private String creatorName() {
+		return (rand.nextBoolean()) ? capitalize(name(2)) + " " + capitalize(name(2 + rand.nextInt(2)))
+				: "The " + WORDS[rand.nextInt(WORDS.length)] + "s";
+	}
+
+	private String title(int maxWords) {
+		int words = 1 + rand.nextInt(maxWords);
+		StringBuilder sb = new StringBuilder();
+		for (int w = 0; w < words; w++) {
+			if (w > 0) sb.append(' ');
+			sb.append(WORDS[rand.nextInt(WORDS.length)]);
+		}
+		return sb.toString();
+	}
+
+	private String name(int syllables) {
+		StringBuilder sb = new StringBuilder();
+		for (int s = 0; s < syllables; s++) sb.append(SYLLABLES[rand.nextInt(SYLLABLES.length)]);
+		return capitalize(sb.toString());
+	}
+
+	private static String capitalize(String s) {
+		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+	}
+
+	//appends a number to names already used, keeping them within the 20 character name columns
+	private static String unique(Set<String> used, String name) {
+		if (name.length() > 20) name = name.substring(0, 20).trim();
+		String candidate = name;
+		for (int n = 2; !used.add(candidate); n++) {
+			String suffix = " " + n;
+			candidate = name.substring(0, Math.min(name.length(), 20 - suffix.length())).trim() + suffix;
+		}
+		return candidate;
+	}
+
+	private int[] shuffledIDs(int n) {
+		int[] ids = new int[n];
+		for (int i = 0; i < n; i++) ids[i] = i + 1;
+		for (int i = n - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int tmp = ids[i];
+			ids[i] = ids[j];
+			ids[j] = tmp;
+		}
+		return ids;
+	}
+
+	//draws ranks 0..n-1 with probability proportional to 1/(rank+1)^exponent
+	private static class Zipf {
+		private final double[] cdf;
+
+		Zipf(int n, double exponent) {
+			cdf = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1 / Math.pow(i + 1, exponent);
+				cdf[i] = sum;
+			}
+			for (int i = 0; i < n; i++) cdf[i] /= sum;
+		}
+
+		int next(Random rand) {
+			int i = Arrays.binarySearch(cdf, rand.nextDouble());
+			return Math.min((i >= 0) ? i : -i - 1, cdf.length - 1);
+		}
+	}
+
+	//batched inserts, one prepared statement per table, committed on every flush
+	static class JdbcSink implements Sink {
+		private final Connection conn;
+		private final Map<String, PreparedStatement> inserts = new LinkedHashMap<>();
+
+		JdbcSink(Connection conn) throws SQLException {
+			this.conn = conn;
+			for (Map.Entry<String, String[]> t : TABLES.entrySet()) {
+				String[] columns = t.getValue();
+				inserts.put(t.getKey(), conn.prepareStatement("INSERT INTO adb." + t.getKey() + " (" + String.join(", ", columns)
+						+ ") VALUES (" + String.join(", ", Collections.nCopies(columns.length, "?")) + ");"));
+			}
+		}
+
+		@Override
+		public void row(String table, Object... values) throws SQLException {
+			PreparedStatement insert = inserts.get(table);
+			for (int i = 0; i < values.length; i++) insert.setObject(i + 1, values[i]);
+			insert.addBatch();
+		}
+
+		//batches run in table order, so parents are inserted before the rows referring to them
+		@Override
+		public void flush() throws SQLException {
+			for (PreparedStatement insert : inserts.values()) insert.executeBatch();
+			conn.commit();
+		}
+
+		@Override
+		public void close() throws SQLException {
+			try {
+				for (PreparedStatement insert : inserts.values()) insert.close();
+			} finally {
+				conn.close();
+			}
+		}
+	}
+
+	//multi-row INSERT statements, the rows of each table collected until the next flush
+	static class SqlSink implements Sink {
+		private final Writer out;
+		private final Map<String, StringBuilder> pending = new LinkedHashMap<>();
+
+		SqlSink(Path file) throws IOException {
+			out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+			for (String table : TABLES.keySet()) pending.put(table, new StringBuilder());
+		}
+
+		@Override
+		public void row(String table, Object... values) {
+			StringBuilder sb = pending.get(table);
+			sb.append((sb.length() == 0) ? "\n (" : ",\n (");
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) sb.append(", ");
+				Object v = values[i];
+				if (v == null) sb.append("NULL");
+				else if (v instanceof Number) sb.append(v);
+				else sb.append('\'').append(v.toString().replace("\\", "\\\\").replace("'", "''")).append('\'');
+			}
+			sb.append(')');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			for (Map.Entry<String, StringBuilder> e : pending.entrySet()) {
+				if (e.getValue().length() == 0) continue;
+				out.write("INSERT INTO adb." + e.getKey() + " (" + String.join(", ", TABLES.get(e.getKey())) + ")\nVALUES");
+				out.append(e.getValue()).write(";\n\n");
+				e.getValue().setLength(0);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	//one <table>.csv per table, with a header row
+	static class CsvSink implements Sink {
+		private final Map<String, Writer> files = new LinkedHashMap<>();
+
+		CsvSink(Path directory) throws IOException {
+			Files.createDirectories(directory);
+			for (Map.Entry<String, String[]> t : TABLES.entrySet()) {
+				Writer w = new BufferedWriter(Files.newBufferedWriter(directory.resolve(t.getKey() + ".csv"), StandardCharsets.UTF_8), 1 << 16);
+				w.write(String.join(",", t.getValue()) + "\n");
+				files.put(t.getKey(), w);
+			}
+		}
+
+		@Override
+		public void row(String table, Object... values) throws IOException {
+			Writer w = files.get(table);
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) w.write(',');
+				Object v = values[i];
+				if (v == null) w.write("\\N");
+				else if (v instanceof Number) w.write(v.toString());
+				else w.write(quote(v.toString()));
+			}
+			w.write('\n');
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException first = null;
+			for (Writer w : files.values()) {
+				try {
+					w.close();
+				} catch (IOException e) {
+					if (first == null) first = e;
+				}
+			}
+			if (first != null) throw first;
+		}
+
+		private static String quote(String s) {
+			if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+			return '"' + s.replace("\"", "\"\"") + '"';
+		}
+	}
+}
@@ -0,0 +1,408 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Non-interactive bulk loader for CSV or JSONL catalog feeds.
+ * What a file holds is taken from the start of its name:
+ * <pre>
+ *   creators*  Name
+ *   genres*    Genre, Description
+ *   albums*    AlbumName, MediaType, ReleaseDate (yyyymmdd), Label
+ *   tracks*    Title, Album, Label, AlbumID, Creators (';' separated), Duration (seconds), Explicit (1/0), Country, Genres (';' separated)
+ * </pre>
+ * Files are loaded in the order creators, genres, albums, tracks. Names are resolved against lookup maps
+ * read once at the start, ignoring case like the database's unique keys do, missing creators, labels and
+ * genres are created on the fly, and rows are written with JDBC batches that are committed every chunkSize
+ * records. Album names repeat, so a track names its album by Album and, if that is not enough, the album's
+ * Label, or by the AlbumID of an album already in the database; a track matching several albums is skipped.
+ * Malformed records are skipped like records with missing fields.
+ * If a chunk fails it is rolled back and the import stops; earlier chunks stay committed.
+ */
+public class CatalogImporter {
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private static final List<String> KINDS = List.of("creator", "genre", "album", "track");
+
+	private final ConnectionPool pool;
+	private final IdAllocator ids;
+	private final int chunkSize;
+
+	//name to ID lookups by lower case name, loaded once per import and kept up to date with the rows added
+	private final Map<String, Integer> labels = new HashMap<>();
+	private final Map<String, Integer> countries = new HashMap<>();
+	private final Map<String, Integer> creators = new HashMap<>();
+	//album names are not unique, so every album with the name is kept
+	private final Map<String, List<KnownAlbum>> albums = new HashMap<>();
+	private final Set<Integer> albumIDs = new HashSet<>();
+	//lower case GenreID to GenreID as stored
+	private final Map<String, String> genres = new HashMap<>();
+
+	//rows committed per table, rows batched in the current chunk, and records read/rejected
+	private final Map<String, Integer> inserted = new LinkedHashMap<>();
+	private final Map<String, Integer> chunk = new HashMap<>();
+	private int recordsRead = 0;
+	private int recordsRejected = 0;
+
+	private Connection conn;
+	private PreparedStatement creatorInsert, labelInsert, genreInsert, albumInsert, trackInsert, createdByInsert, inGenreInsert;
+	private int pending = 0;
+
+	private static class KnownAlbum {
+		final int id;
+		final Integer labelID;
+
+		KnownAlbum(int id, Integer labelID) {
+			this.id = id;
+			this.labelID = labelID;
+		}
+	}
+
+	public CatalogImporter(ConnectionPool pool, IdAllocator ids) {
+		this(pool, ids, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param pool Pool to borrow the import connection from.
+	 * @param ids Source of primary keys for new rows.
+	 * @param chunkSize Number of records written per batch and commit.
+	 */
+	public CatalogImporter(ConnectionPool pool, IdAllocator ids, int chunkSize) {
+		if (chunkSize < 1) throw new IllegalArgumentException("chunk size must be at least 1");
+		this.pool = pool;
+		this.ids = ids;
+		this.chunkSize = chunkSize;
+		for (String table : List.of("creator", "recordlabel", "genre", "album", "audiofile", "createdby", "ingenre"))
+			inserted.put(table, 0);
+	}
+
+	/**
+	 * Imports the files and prints a summary with the achieved rows/sec.
+	 * @param files Feed files, named by the kind of record they contain.
+	 * @return true if every file was read to the end without a failed chunk.
+	 */
+	public boolean importFiles(List<Path> files) {
+		List<Path> ordered = new ArrayList<>(files);
+		for (Path file : ordered) {
+			if (kindOf(file) == null) {
+				System.out.println("Error: cannot tell what " + file.getFileName() + " contains. File names must start with one of " + KINDS);
+				return false;
+			}
+		}
+		ordered.sort(Comparator.comparingInt(f -> KINDS.indexOf(kindOf(f))));
+
+		long start = System.nanoTime();
+		boolean success = true;
+		try (Connection c = pool.getConnection()) {
+			conn = c;
+			loadLookups();
+			prepareStatements();
+			for (Path file : ordered) {
+				System.out.println("Importing " + file + "...");
+				importFile(file, kindOf(file));
+				flush();
+			}
+		} catch (SQLException e) {
+			System.out.println("Error during import, the current chunk was rolled back: " + e.getMessage());
+			success = false;
+		} catch (IOException e) {
+			System.out.println("Error reading import file: " + e.getMessage());
+			success = false;
+		} finally {
+			closeStatements();
+			conn = null;
+		}
+		printSummary(System.nanoTime() - start);
+		return success;
+	}
+
+	private void importFile(Path file, String kind) throws IOException, SQLException {
+		try (RecordReader reader = new RecordReader(file)) {
+			while (true) {
+				Map<String, String> record;
+				String problem = null;
+				try {
+					record = reader.next();
+				} catch (RecordReader.MalformedRecordException e) {
+					record = null;
+					problem = e.getMessage();
+				}
+				if (record == null && problem == null) break;
+				recordsRead++;
+				if (problem != null) {
+					recordsRejected++;
+					System.out.println("Skipped " + reader.position() + ": " + problem);
+					continue;
+				}
+				switch (kind) {
+					case "creator": problem = addCreator(record); break;
+					case "genre": problem = addGenre(record); break;
+					case "album": problem = addAlbum(record); break;
+					default: problem = addTrack(record); break;
+				}
+				if (problem != null) {
+					recordsRejected++;
+					System.out.println("Skipped " + reader.position() + ": " + problem);
+				} else if (++pending >= chunkSize) {
+					flush();
+				}
+			}
+		}
+	}
+
+	private String addCreator(Map<String, String> r) throws SQLException {
+		String name = r.get("Name");
+		if (name == null) return "missing Name";
+		creatorID(name);
+		return null;
+	}
+
+	private String addGenre(Map<String, String> r) throws SQLException {
+		String genre = r.get("Genre");
+		if (genre == null) return "missing Genre";
+		if (genres.putIfAbsent(key(genre), genre) == null) {
+			genreInsert.setString(1, genre);
+			genreInsert.setString(2, r.get("Description"));
+			genreInsert.addBatch();
+			count("genre");
+		}
+		return null;
+	}
+
+	private String addAlbum(Map<String, String> r) throws SQLException {
+		String name = r.get("AlbumName");
+		String mediaType = r.get("MediaType");
+		if (name == null || mediaType == null) return "missing AlbumName or MediaType";
+		Integer labelID = (r.get("Label") == null) ? null : labelID(r.get("Label"));
+
+		int albumID = ids.nextID("album");
+		albumInsert.setInt(1, albumID);
+		albumInsert.setString(2, name);
+		albumInsert.setString(3, mediaType);
+		if (r.get("ReleaseDate") != null) albumInsert.setString(4, r.get("ReleaseDate"));
+		else albumInsert.setNull(4, Types.DATE);
+		if (labelID != null) albumInsert.setInt(5, labelID);
+		else albumInsert.setNull(5, Types.INTEGER);
+		albumInsert.addBatch();
+		count("album");
+		albums.computeIfAbsent(key(name), k -> new ArrayList<>()).add(new KnownAlbum(albumID, labelID));
+		albumIDs.add(albumID);
+		return null;
+	}
+
+	private String addTrack(Map<String, String> r) throws SQLException {
+		String title = r.get("Title");
+		if (title == null) return "missing Title";
+		Integer countryID = null;
+		if (r.get("Country") != null) {
+			countryID = countries.get(key(r.get("Country")));
+			if (countryID == null) return "unknown country " + r.get("Country");
+		}
+		int albumID, duration, rating;
+		try {
+			if (r.get("AlbumID") != null) {
+				albumID = Integer.parseInt(r.get("AlbumID"));
+				if (!albumIDs.contains(albumID)) return "unknown album ID " + albumID;
+			} else {
+				List<KnownAlbum> matches = albumsNamed(r.get("Album"), r.get("Label"));
+				if (matches.isEmpty())
+					return "unknown album " + r.get("Album") + ((r.get("Label") == null) ? "" : " on label " + r.get("Label"));
+				if (matches.size() > 1)
+					return matches.size() + " albums match " + r.get("Album") + ", give its Label or AlbumID";
+				albumID = matches.get(0).id;
+			}
+			duration = (r.get("Duration") == null) ? 999 : Integer.parseInt(r.get("Duration"));
+			rating = parseRating(r.get("Explicit"));
+		} catch (NumberFormatException e) {
+			return "bad number: " + e.getMessage();
+		}
+
+		int trackID = ids.nextID("audiofile");
+		trackInsert.setInt(1, trackID);
+		trackInsert.setString(2, title);
+		trackInsert.setInt(3, rating);
+		trackInsert.setInt(4, duration);
+		if (countryID != null) trackInsert.setInt(5, countryID);
+		else trackInsert.setNull(5, Types.INTEGER);
+		trackInsert.setInt(6, albumID);
+		trackInsert.addBatch();
+		count("audiofile");
+
+		//junction rows, ignoring names repeated within one record in any case
+		Set<Integer> creatorIDs = new LinkedHashSet<>();
+		for (String creator : split(r.get("Creators"))) creatorIDs.add(creatorID(creator));
+		for (int creatorID : creatorIDs) {
+			createdByInsert.setInt(1, trackID);
+			createdByInsert.setInt(2, creatorID);
+			createdByInsert.addBatch();
+			count("createdby");
+		}
+		Set<String> trackGenres = new LinkedHashSet<>();
+		for (String name : split(r.get("Genres"))) {
+			String genre = genres.get(key(name));
+			if (genre == null) {
+				genre = name;
+				genres.put(key(name), genre);
+				genreInsert.setString(1, genre);
+				genreInsert.setNull(2, Types.VARCHAR);
+				genreInsert.addBatch();
+				count("genre");
+			}
+			trackGenres.add(genre);
+		}
+		for (String genre : trackGenres) {
+			inGenreInsert.setInt(1, trackID);
+			inGenreInsert.setString(2, genre);
+			inGenreInsert.addBatch();
+			count("ingenre");
+		}
+		return null;
+	}
+
+	//the albums with the name, only those on the label if one is given
+	private List<KnownAlbum> albumsNamed(String name, String label) {
+		if (name == null) return Collections.emptyList();
+		List<KnownAlbum> named = albums.getOrDefault(key(name), Collections.emptyList());
+		if (label == null) return named;
+		Integer labelID = labels.get(key(label));
+		List<KnownAlbum> matches = new ArrayList<>();
+		for (KnownAlbum a : named) if (labelID != null && labelID.equals(a.labelID)) matches.add(a);
+		return matches;
+	}
+
+	//returns the creator's ID, batching an insert for creators not seen before
+	private int creatorID(String name) throws SQLException {
+		Integer id = creators.get(key(name));
+		if (id == null) {
+			id = ids.nextID("creator");
+			creatorInsert.setInt(1, id);
+			creatorInsert.setString(2, name);
+			creatorInsert.addBatch();
+			count("creator");
+			creators.put(key(name), id);
+		}
+		return id;
+	}
+
+	//returns the label's ID, batching an insert for labels not seen before
+	private int labelID(String name) throws SQLException {
+		Integer id = labels.get(key(name));
+		if (id == null) {
+			id = ids.nextID("recordlabel");
+			labelInsert.setInt(1, id);
+			labelInsert.setString(2, name);
+			labelInsert.addBatch();
+			count("recordlabel");
+			labels.put(key(name), id);
+		}
+		return id;
+	}
+
+	//sends every pending batch in foreign key order and commits them as one chunk
+	private void flush() throws SQLException {
+		if (pending == 0) return;
+		try {
+			for (PreparedStatement batch : List.of(creatorInsert, labelInsert, genreInsert, albumInsert, trackInsert, createdByInsert, inGenreInsert))
+				batch.executeBatch();
+			conn.commit();
+			pending = 0;
+			chunk.forEach((table, n) -> inserted.merge(table, n, Integer::sum));
+			chunk.clear();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		}
+	}
+
+	private void loadLookups() throws SQLException {
+		loadNames("SELECT Name, LabelID FROM recordlabel;", labels);
+		loadNames("SELECT Name, CountryID FROM country;", countries);
+		loadNames("SELECT Name, CreatorID FROM creator;", creators);
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT AlbumName, AlbumID, LabelID FROM album;")) {
+			while (rs.next()) {
+				int id = rs.getInt(2);
+				int label = rs.getInt(3);
+				Integer labelID = rs.wasNull() ? null : label;
+				albums.computeIfAbsent(key(rs.getString(1)), k -> new ArrayList<>()).add(new KnownAlbum(id, labelID));
+				albumIDs.add(id);
+			}
+		}
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT GenreID FROM genre;")) {
+			while (rs.next()) genres.putIfAbsent(key(rs.getString(1)), rs.getString(1));
+		}
+	}
+
+	private void loadNames(String sql, Map<String, Integer> into) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			//keep the first ID when a name is not unique
+			while (rs.next()) into.putIfAbsent(key(rs.getString(1)), rs.getInt(2));
+		}
+	}
+
+	private void prepareStatements() throws SQLException {
+		creatorInsert = conn.prepareStatement("INSERT INTO adb.creator (CreatorID, Name) VALUES (?, ?);");
+		labelInsert = conn.prepareStatement("INSERT INTO adb.recordlabel (LabelID, Name, FoundingDate, CountryID) VALUES (?, ?, NULL, NULL);");
+		genreInsert = conn.prepareStatement("INSERT INTO adb.genre (GenreID, Description) VALUES (?, ?);");
+		albumInsert = conn.prepareStatement("INSERT INTO adb.album (AlbumID, AlbumName, MediaType, ReleaseDate, LabelID) VALUES (?, ?, ?, ?, ?);");
+		trackInsert = conn.prepareStatement("INSERT INTO adb.audiofile (TrackID, ReleaseName, ExplicitRating, Duration, CountryID, AlbumID) VALUES (?, ?, ?, ?, ?, ?);");
+		createdByInsert = conn.prepareStatement("INSERT INTO adb.createdby (TrackID, CreatorID) VALUES (?, ?);");
+		inGenreInsert = conn.prepareStatement("INSERT INTO adb.ingenre (TrackID, GenreID) VALUES (?, ?);");
+	}
+
+	private void closeStatements() {
+		for (PreparedStatement p : Arrays.asList(creatorInsert, labelInsert, genreInsert, albumInsert, trackInsert, createdByInsert, inGenreInsert)) {
+			try {
+				if (p != null) p.close();
+			} catch (SQLException ignored) {
+			}
+		}
+	}
+
+	private void printSummary(long elapsedNanos) {
+		int rows = 0;
+		for (int n : inserted.values()) rows += n;
+		double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+		System.out.printf("Read %d records (%d skipped) and wrote %d rows in %.2fs: %.0f rows/sec\n",
+				recordsRead, recordsRejected, rows, seconds, rows / seconds);
+		for (Map.Entry<String, Integer> e : inserted.entrySet())
+			if (e.getValue() > 0) System.out.printf("%12s: %d\n", e.getKey(), e.getValue());
+	}
+
+	private void count(String table) {
+		chunk.merge(table, 1, Integer::sum);
+	}
+
+	private static int parseRating(String s) {
+		if (s == null) return 0;
+		switch (s.toLowerCase()) {
+			case "y": case "yes": case "true": case "explicit": return 1;
+			case "n": case "no": case "false": case "clean": return 0;
+			default: return Integer.parseInt(s);
+		}
+	}
+
+	//lookup key of a name. the unique keys of the schema compare names without case
+	private static String key(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	private static List<String> split(String s) {
+		List<String> parts = new ArrayList<>();
+		if (s == null) return parts;
+		for (String p : s.split(";")) if (!p.trim().isEmpty()) parts.add(p.trim());
+		return parts;
+	}
+
+	//the kind of record a file holds, from the start of its name
+	private static String kindOf(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		for (String kind : KINDS) if (name.startsWith(kind)) return kind;
+		return null;
+	}
+}
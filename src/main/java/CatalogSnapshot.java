@@ -0,0 +1,1015 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A read-only copy of the eight catalog tables in columns, which answers the Queries searches without
+ * a database round trip (see Queries.buildSnapshot()). Every table is loaded in primary key order, so a row is
+ * found by binary search on its ID column. Int columns hold NULL for SQL NULL, and string columns are dictionary
+ * encoded: each distinct value is stored once, in a pool of UTF-8 bytes, and rows hold its code.
+ * createdby and ingenre become adjacency lists in compressed sparse row form, in both directions the searches
+ * follow, and so do the album, label and country of each row.
+ * Columns are int and byte buffers, on the heap after load() and mapped from a snapshot file after open(), where
+ * they take next to no heap. The searches read both the same way.
+ * A snapshot never changes. refresh() returns a new one that reloads the given tables and shares the rest.
+ * Names are compared ignoring case and accents, like the default MySQL collation.
+ */
+class CatalogSnapshot {
+	/** The schema version that adds adb.catalogversion, the change counter every Queries write increments. */
+	static final int SCHEMA_VERSION = 5;
+
+	//SQL NULL in the int columns
+	private static final int NULL = Integer.MIN_VALUE;
+	private static final IntBuffer NONE = IntBuffer.allocate(0);
+	//creatorsOf() a track without creators: one row with NULL creator columns, as a LEFT JOIN returns it
+	private static final int[] NO_CREATOR = {-1};
+	//the tables fingerprint() covers, with the ID column whose maximum it takes, if it is numeric
+	private static final String[][] FINGERPRINT = {{"country", "CountryID"}, {"recordlabel", "LabelID"}, {"album", "AlbumID"},
+			{"audiofile", "TrackID"}, {"creator", "CreatorID"}, {"genre", null}, {"createdby", "TrackID"}, {"ingenre", "TrackID"}};
+
+	private final Countries countries;
+	private final Labels labels;
+	private final Albums albums;
+	private final Tracks tracks;
+	private final Creators creators;
+	private final Genres genres;
+	private final CreatedBy createdBy;
+	private final InGenre inGenre;
+
+	//row of each track's album and each album's label, -1 if there is none
+	private final IntBuffer trackAlbum;
+	private final IntBuffer albumLabel;
+	//track rows -> creator rows and back, genre rows -> track rows, and so on. targets are in ID order
+	private final Links trackCreators, creatorTracks, genreTracks, albumTracks, labelAlbums, countryTracks;
+
+	/**
+	 * Reads every table in one transaction, so the tables agree with each other.
+	 * @param conn Connection to read from, which should not be in autocommit mode.
+	 * @param fetchSize rows per round trip, as in Queries.setFetchSize()
+	 */
+	static CatalogSnapshot load(Connection conn, int fetchSize) throws SQLException {
+		return new CatalogSnapshot(conn, fetchSize, EnumSet.allOf(CatalogTable.class), null);
+	}
+
+	/**
+	 * @return a snapshot with the tables read again from conn and the others taken from this one
+	 */
+	CatalogSnapshot refresh(Connection conn, int fetchSize, EnumSet<CatalogTable> tables) throws SQLException {
+		return new CatalogSnapshot(conn, fetchSize, tables, this);
+	}
+
+	/**
+	 * Maps a snapshot file written by write().
+	 * @throws IOException if the file is missing, unreadable, of another format version or corrupt
+	 */
+	static CatalogSnapshot open(Path file) throws IOException {
+		SnapshotFile.Reader in = SnapshotFile.open(file);
+		CatalogSnapshot snap = new CatalogSnapshot(in);
+		in.finish();
+		return snap;
+	}
+
+	/**
+	 * Writes the snapshot to file, replacing it atomically (see SnapshotFile.write()).
+	 * @param fingerprint fingerprint() of the database the snapshot matches, read by SnapshotFile.fingerprint()
+	 */
+	void write(Path file, long fingerprint) throws IOException {
+		SnapshotFile.Writer out = new SnapshotFile.Writer();
+		countries.write(out);
+		labels.write(out);
+		albums.write(out);
+		tracks.write(out);
+		creators.write(out);
+		genres.write(out);
+		createdBy.write(out);
+		inGenre.write(out);
+		out.ints(trackAlbum);
+		out.ints(albumLabel);
+		for (Links l : Arrays.asList(trackCreators, creatorTracks, genreTracks, albumTracks, labelAlbums, countryTracks)) l.write(out);
+		SnapshotFile.write(file, fingerprint, out);
+	}
+
+	/** @return the change counter in adb.catalogversion (schema version 5) */
+	static long version(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT MAX(Version) FROM adb.catalogversion;")) {
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	//increments the change counter, inside the transaction of the write it counts
+	static void countWrite(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("UPDATE adb.catalogversion SET Version = Version + 1;");
+		}
+	}
+
+	/**
+	 * Row count and highest ID of every table and the change counter, hashed. Inserts and deletes change the
+	 * counts and IDs, and every write through Queries, updates included, changes the counter, so a snapshot file
+	 * with another fingerprint than the database is out of date.
+	 * @param version the change counter from version(), or 0 if the schema has none. Without it, updates made
+	 * after the file was written go unnoticed.
+	 */
+	static long fingerprint(Connection conn, long version) throws SQLException {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for (String[] t : FINGERPRINT) {
+			if (sql.length() > 7) sql.append(", ");
+			sql.append("(SELECT COUNT(*) FROM ").append(t[0]).append("), ");
+			sql.append((t[1] == null) ? "0" : "(SELECT MAX(" + t[1] + ") FROM " + t[0] + ")");
+		}
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql.append(';').toString())) {
+			long hash = 1;
+			if (rs.next())
+				for (int i = 1; i <= FINGERPRINT.length * 2; i++) hash = hash * 1_000_003 + rs.getLong(i);
+			return hash * 1_000_003 + version;
+		}
+	}
+
+	private CatalogSnapshot(Connection conn, int fetchSize, EnumSet<CatalogTable> reload,
+			CatalogSnapshot previous) throws SQLException {
+		Loader db = new Loader(conn, fetchSize);
+		countries = reload.contains(CatalogTable.COUNTRY) ? new Countries(db) : previous.countries;
+		labels = reload.contains(CatalogTable.RECORDLABEL) ? new Labels(db) : previous.labels;
+		albums = reload.contains(CatalogTable.ALBUM) ? new Albums(db) : previous.albums;
+		tracks = reload.contains(CatalogTable.AUDIOFILE) ? new Tracks(db) : previous.tracks;
+		creators = reload.contains(CatalogTable.CREATOR) ? new Creators(db) : previous.creators;
+		genres = reload.contains(CatalogTable.GENRE) ? new Genres(db) : previous.genres;
+		createdBy = reload.contains(CatalogTable.CREATEDBY) ? new CreatedBy(db) : previous.createdBy;
+		inGenre = reload.contains(CatalogTable.INGENRE) ? new InGenre(db) : previous.inGenre;
+
+		//everything below depends on row numbers, so it is rebuilt whichever table changed
+		int[] albumOfTrack = rows(albums.id, tracks.albumID);
+		int[] labelOfAlbum = rows(labels.id, albums.labelID);
+		trackAlbum = IntBuffer.wrap(albumOfTrack);
+		albumLabel = IntBuffer.wrap(labelOfAlbum);
+		int[] byTrack = rows(tracks.id, createdBy.trackID);
+		int[] byCreator = rows(creators.id, createdBy.creatorID);
+		trackCreators = new Links(tracks.id.limit(), byTrack, byCreator);
+		creatorTracks = new Links(creators.id.limit(), byCreator, byTrack);
+		//genre row of each distinct GenreID in ingenre, looked up once
+		int[] genreOfCode = new int[inGenre.genreID.values.size()];
+		for (int code = 0; code < genreOfCode.length; code++) genreOfCode[code] = first(genres.id.rows(inGenre.genreID.values.get(code)));
+		int[] genreRows = new int[inGenre.trackID.limit()];
+		for (int i = 0; i < genreRows.length; i++) {
+			int code = inGenre.genreID.codes.get(i);
+			genreRows[i] = (code < 0) ? -1 : genreOfCode[code];
+		}
+		genreTracks = new Links(genres.id.size(), genreRows, rows(tracks.id, inGenre.trackID));
+		albumTracks = new Links(albums.id.limit(), albumOfTrack, all(tracks.id.limit()));
+		labelAlbums = new Links(labels.id.limit(), labelOfAlbum, all(albums.id.limit()));
+		countryTracks = new Links(countries.id.limit(), rows(countries.id, tracks.countryID), all(tracks.id.limit()));
+	}
+
+	//reads the sections in the order write() wrote them
+	private CatalogSnapshot(SnapshotFile.Reader in) throws IOException {
+		countries = new Countries(in);
+		labels = new Labels(in);
+		albums = new Albums(in);
+		tracks = new Tracks(in);
+		creators = new Creators(in);
+		genres = new Genres(in);
+		createdBy = new CreatedBy(in);
+		inGenre = new InGenre(in);
+		trackAlbum = in.ints();
+		albumLabel = in.ints();
+		trackCreators = new Links(in);
+		creatorTracks = new Links(in);
+		genreTracks = new Links(in);
+		albumTracks = new Links(in);
+		labelAlbums = new Links(in);
+		countryTracks = new Links(in);
+	}
+
+	/** @return number of rows held, over all tables */
+	int size() {
+		return countries.id.limit() + labels.id.limit() + albums.id.limit() + tracks.id.limit() + creators.id.limit()
+				+ genres.id.size() + createdBy.trackID.limit() + inGenre.trackID.limit();
+	}
+
+	/** Queries.queryByCreator: the creator's tracks, oldest album first. */
+	int queryByCreator(String ctr, ResultSink sink) {
+		List<int[]> rows = new ArrayList<>();
+		IntBuffer matches = creators.name.rows(ctr);
+		for (int m = 0; m < matches.limit(); m++) {
+			int c = matches.get(m);
+			for (int i = creatorTracks.from(c); i < creatorTracks.to(c); i++) {
+				int t = creatorTracks.target(i);
+				if (trackAlbum.get(t) >= 0) rows.add(new int[]{t, c});
+			}
+		}
+		rows.sort(Comparator.comparingInt(this::released));
+		for (int[] r : rows) sink.track(track(r[0], r[1]));
+		return rows.size();
+	}
+
+	/** Queries.queryByAudioTitle: the tracks with the title, once per creator, oldest album first. */
+	int queryByAudioTitle(String title, ResultSink sink) {
+		List<int[]> rows = new ArrayList<>();
+		IntBuffer matches = tracks.title.rows(title);
+		for (int m = 0; m < matches.limit(); m++) {
+			int t = matches.get(m);
+			if (trackAlbum.get(t) >= 0)
+				for (int c : creatorsOf(t)) rows.add(new int[]{t, c});
+		}
+		rows.sort(Comparator.comparingInt(this::released));
+		for (int[] r : rows) sink.track(track(r[0], r[1]));
+		return rows.size();
+	}
+
+	/** Queries.queryByAlbumTitle: the albums with the title, newest first, with or without their tracks. */
+	int queryByAlbumTitle(String title, boolean listTracks, ResultSink sink) {
+		List<Integer> rows = new ArrayList<>();
+		IntBuffer matches = albums.name.rows(title);
+		for (int m = 0; m < matches.limit(); m++) rows.add(matches.get(m));
+		rows.sort(Comparator.comparingInt((Integer a) -> albums.released.key(a)).reversed());
+		for (int a : rows) sink.album(album(a, listTracks));
+		return rows.size();
+	}
+
+	/** Queries.queryByGenre: the genre, then its tracks with a creator, oldest album first. */
+	int queryByGenre(String gnr, ResultSink sink) {
+		List<int[]> rows = new ArrayList<>();
+		IntBuffer genre = genres.id.rows(gnr);
+		for (int m = 0; m < genre.limit(); m++) {
+			int g = genre.get(m);
+			for (int i = genreTracks.from(g); i < genreTracks.to(g); i++) {
+				int t = genreTracks.target(i);
+				if (trackAlbum.get(t) < 0) continue;
+				for (int j = trackCreators.from(t); j < trackCreators.to(t); j++)
+					rows.add(new int[]{t, trackCreators.target(j)});
+			}
+		}
+		rows.sort(Comparator.comparingInt(this::released));
+		if (!rows.isEmpty()) sink.genre(gnr, genres.description.get(genre.get(0)));
+		for (int[] r : rows) sink.track(track(r[0], r[1]));
+		return rows.size();
+	}
+
+	/** One page of Queries.queryByGenre, tracks after the TrackID start. */
+	int queryByGenre(String gnr, int pageSize, int start, ResultSink sink) {
+		int g = first(genres.id.rows(gnr));
+		if (g < 0) return 0;
+		int from = after(genreTracks.targets, genreTracks.from(g), genreTracks.to(g), start);
+		IntStream rows = IntStream.range(from, genreTracks.to(g)).map(genreTracks::target)
+				.filter(t -> trackAlbum.get(t) >= 0 && credited(t));
+		return trackPage(rows, pageSize, gnr, genres.description.get(g), false, sink);
+	}
+
+	/** Queries.queryByMediaType: the albums of the media type with their tracks, in AlbumID order. */
+	int queryByMediaType(String mediaType, ResultSink sink) {
+		IntBuffer rows = albums.mediaType.rows(mediaType);
+		for (int i = 0; i < rows.limit(); i++) sink.album(album(rows.get(i), true));
+		return rows.limit();
+	}
+
+	/** One page of Queries.queryByMediaType, albums after the AlbumID start. */
+	int queryByMediaType(String mediaType, int pageSize, int start, ResultSink sink) {
+		IntBuffer rows = albums.mediaType.rows(mediaType);
+		//rows are ascending, so the page starts at the first one past the album start
+		int pos = search(rows, 0, rows.limit(), after(albums.id, start));
+		int count = 0;
+		for (int i = (pos >= 0) ? pos : -pos - 1; i < rows.limit(); i++) {
+			if (count == pageSize) {
+				sink.next(String.valueOf(albums.id.get(rows.get(i - 1))));
+				break;
+			}
+			sink.album(album(rows.get(i), true));
+			count++;
+		}
+		return count;
+	}
+
+	/** Queries.getTracksByRating: the tracks with the rating, once per creator, by creator name. */
+	int getTracksByRating(int exp_num, ResultSink sink) {
+		List<int[]> rows = new ArrayList<>();
+		for (int t = 0; t < tracks.id.limit(); t++)
+			if (tracks.explicit.get(t) == exp_num)
+				for (int j = trackCreators.from(t); j < trackCreators.to(t); j++)
+					rows.add(new int[]{t, trackCreators.target(j)});
+		rows.sort(Comparator.comparingInt(r -> creators.name.key(r[1])));
+		for (int[] r : rows) sink.track(sampleTrack(r[0], r[1]));
+		return rows.size();
+	}
+
+	/** One page of Queries.getTracksByRating, tracks after the TrackID start. */
+	int getTracksByRating(int exp_num, int pageSize, int start, ResultSink sink) {
+		IntStream rows = IntStream.range(after(tracks.id, start), tracks.id.limit()).filter(t -> tracks.explicit.get(t) == exp_num && credited(t));
+		return trackPage(rows, pageSize, null, null, true, sink);
+	}
+
+	/** Queries.getTracksByCountry: the country's tracks, once per creator, by creator then album name, descending. */
+	int getTracksByCountry(String country, ResultSink sink) {
+		List<int[]> rows = new ArrayList<>();
+		IntBuffer matches = countries.name.rows(country);
+		for (int m = 0; m < matches.limit(); m++) {
+			int co = matches.get(m);
+			for (int i = countryTracks.from(co); i < countryTracks.to(co); i++) {
+				int t = countryTracks.target(i);
+				for (int c : creatorsOf(t)) rows.add(new int[]{t, c});
+			}
+		}
+		//NULL has key -1, so it sorts last when descending
+		rows.sort(Comparator.comparingInt((int[] r) -> (r[1] < 0) ? -1 : creators.name.key(r[1])).reversed()
+				.thenComparing(Comparator.comparingInt((int[] r) -> (trackAlbum.get(r[0]) < 0) ? -1 : albums.name.key(trackAlbum.get(r[0]))).reversed()));
+		for (int[] r : rows) sink.track(track(r[0], r[1]));
+		return rows.size();
+	}
+
+	/** One page of Queries.getTracksByCountry, tracks after the TrackID start. */
+	int getTracksByCountry(String country, int pageSize, int start, ResultSink sink) {
+		int co = first(countries.name.rows(country));
+		if (co < 0) return 0;
+		int from = after(countryTracks.targets, countryTracks.from(co), countryTracks.to(co), start);
+		IntStream rows = IntStream.range(from, countryTracks.to(co)).map(countryTracks::target);
+		return trackPage(rows, pageSize, null, null, false, sink);
+	}
+
+	/** Queries.getTracksLabel: the label's albums with their tracks, in AlbumID order. */
+	int getTracksLabel(String label_name, ResultSink sink) {
+		List<Integer> rows = new ArrayList<>();
+		IntBuffer matches = labels.name.rows(label_name);
+		for (int m = 0; m < matches.limit(); m++) {
+			int l = matches.get(m);
+			for (int i = labelAlbums.from(l); i < labelAlbums.to(l); i++) rows.add(labelAlbums.target(i));
+		}
+		Collections.sort(rows);
+		for (int a : rows) sink.album(album(a, true));
+		return rows.size();
+	}
+
+	/** Queries.printCountryCodes: every country, in CountryID order. */
+	int printCountryCodes(ResultSink sink) {
+		for (int co = 0; co < countries.id.limit(); co++) sink.country(countries.id.get(co), countries.name.get(co));
+		return countries.id.limit();
+	}
+
+	/** @return the CountryID of the country name, or -1 if there is none */
+	int getCountryID(String c_name) {
+		int co = first(countries.name.rows(c_name));
+		return (co < 0) ? -1 : countries.id.get(co);
+	}
+
+	/** Keyword search creator row, or null if the creator is gone. */
+	Creator creator(int creatorID) {
+		int c = row(creators.id, creatorID);
+		return (c < 0) ? null : new Creator(creatorID, creators.name.get(c));
+	}
+
+	/** Keyword search album row, without label or tracks, or null if the album is gone. */
+	Album album(int albumID) {
+		int a = row(albums.id, albumID);
+		return (a < 0) ? null : new Album(albumID, albums.name.get(a), albums.mediaType.get(a), albums.releaseDate.get(a),
+				null, 0, null, Collections.<Track>emptyList());
+	}
+
+	/** Keyword search track row, with its first creator's name only, or null if the track is gone. */
+	Track track(int trackID) {
+		int t = row(tracks.id, trackID);
+		if (t < 0 || trackAlbum.get(t) < 0) return null;
+		int a = trackAlbum.get(t);
+		int first = trackCreators.from(t);
+		String creator = (first < trackCreators.to(t)) ? creators.name.get(trackCreators.target(first)) : null;
+		return new Track(trackID, tracks.title.get(t), tracks.duration.get(t), tracks.explicit.get(t) != 0, null, creator,
+				albums.id.get(a), albums.name.get(a), albums.releaseDate.get(a));
+	}
+
+	/** getRandomTracks rows of a drawn track, once per creator, or null if the track is gone. */
+	List<Track> sampleTracks(int trackID) {
+		int t = row(tracks.id, trackID);
+		if (t < 0) return null;
+		List<Track> rows = new ArrayList<>();
+		for (int c : creatorsOf(t)) rows.add(sampleTrack(t, c));
+		return rows;
+	}
+
+	//Queries.trackPage(): the first pageSize tracks of rows, each once per creator, and the next page token if rows has more
+	private int trackPage(IntStream rows, int pageSize, String gnr, String description, boolean sample, ResultSink sink) {
+		int count = 0;
+		int passed = 0;
+		int last = -1;
+		PrimitiveIterator.OfInt it = rows.iterator();
+		while (it.hasNext()) {
+			int t = it.nextInt();
+			if (passed == pageSize) {
+				sink.next(String.valueOf(tracks.id.get(last)));
+				break;
+			}
+			passed++;
+			last = t;
+			for (int c : creatorsOf(t)) {
+				if (count == 0 && gnr != null) sink.genre(gnr, description);
+				sink.track(sample ? sampleTrack(t, c) : track(t, c));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	//a track as the searches selecting Queries.TRACK_COLUMNS read it. c is -1 for no creator
+	private Track track(int t, int c) {
+		int a = trackAlbum.get(t);
+		return new Track(tracks.id.get(t), tracks.title.get(t), tracks.duration.get(t), tracks.explicit.get(t) != 0,
+				(c < 0) ? null : creators.id.get(c), (c < 0) ? null : creators.name.get(c),
+				(a < 0) ? null : albums.id.get(a), (a < 0) ? null : albums.name.get(a), (a < 0) ? null : albums.releaseDate.get(a));
+	}
+
+	//the same for SAMPLE_COLUMNS, which leave out the album name and date
+	private Track sampleTrack(int t, int c) {
+		return new Track(tracks.id.get(t), tracks.title.get(t), tracks.duration.get(t), tracks.explicit.get(t) != 0,
+				(c < 0) ? null : creators.id.get(c), (c < 0) ? null : creators.name.get(c), tracks.albumID.get(t), null, null);
+	}
+
+	//an album as AlbumReader builds it, or with no track listing as the album title search reads it
+	private Album album(int a, boolean listTracks) {
+		List<Track> listed = new ArrayList<>();
+		int count = 0;
+		long seconds = 0;
+		for (int i = albumTracks.from(a); i < albumTracks.to(a); i++) {
+			int t = albumTracks.target(i);
+			count++;
+			seconds += tracks.duration.get(t);
+			if (!listTracks) continue;
+			for (int c : creatorsOf(t))
+				listed.add(new Track(tracks.id.get(t), tracks.title.get(t), tracks.duration.get(t), tracks.explicit.get(t) != 0,
+						null, (c < 0) ? null : creators.name.get(c), albums.id.get(a), albums.name.get(a), albums.releaseDate.get(a)));
+		}
+		int l = albumLabel.get(a);
+		return new Album(albums.id.get(a), albums.name.get(a), albums.mediaType.get(a), albums.releaseDate.get(a),
+				(l < 0) ? null : labels.name.get(l), count, (count == 0) ? null : seconds, listed);
+	}
+
+	//whether the track has a creator. The genre and rating searches leave out tracks that have none
+	private boolean credited(int t) {
+		return trackCreators.from(t) < trackCreators.to(t);
+	}
+
+	//the creator rows of a track, or NO_CREATOR
+	private int[] creatorsOf(int t) {
+		int first = trackCreators.from(t), last = trackCreators.to(t);
+		if (first == last) return NO_CREATOR;
+		int[] rows = new int[last - first];
+		for (int i = first; i < last; i++) rows[i - first] = trackCreators.target(i);
+		return rows;
+	}
+
+	//release date and time of the album of a {track, creator} pair as a sort key, -1 if there is none
+	private int released(int[] pair) {
+		int a = trackAlbum.get(pair[0]);
+		return (a < 0) ? -1 : albums.released.key(a);
+	}
+
+	//first index in targets[from, to), which holds ascending track rows, of a track after the TrackID start
+	private int after(IntBuffer targets, int from, int to, int start) {
+		int pos = search(targets, from, to, after(tracks.id, start));
+		return (pos >= 0) ? pos : -pos - 1;
+	}
+
+	//first row of the ascending ID column with an ID over start
+	private static int after(IntBuffer ids, int start) {
+		int pos = search(ids, 0, ids.limit(), start);
+		return (pos >= 0) ? pos + 1 : -pos - 1;
+	}
+
+	//Arrays.binarySearch() over buf[from, to)
+	private static int search(IntBuffer buf, int from, int to, int key) {
+		int lo = from, hi = to - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int value = buf.get(mid);
+			if (value < key) lo = mid + 1;
+			else if (value > key) hi = mid - 1;
+			else return mid;
+		}
+		return -(lo + 1);
+	}
+
+	private static int first(IntBuffer rows) {
+		return (rows.limit() == 0) ? -1 : rows.get(0);
+	}
+
+	//row of the ID in the ascending ID column, -1 if absent
+	private static int row(IntBuffer ids, int id) {
+		int pos = (id == NULL) ? -1 : search(ids, 0, ids.limit(), id);
+		return (pos < 0) ? -1 : pos;
+	}
+
+	//row() of every key
+	private static int[] rows(IntBuffer ids, IntBuffer keys) {
+		int[] rows = new int[keys.limit()];
+		for (int i = 0; i < rows.length; i++) rows[i] = row(ids, keys.get(i));
+		return rows;
+	}
+
+	//0 to n - 1, for links from a column of row numbers
+	private static int[] all(int n) {
+		int[] rows = new int[n];
+		for (int i = 0; i < n; i++) rows[i] = i;
+		return rows;
+	}
+
+	/**
+	 * Adjacency lists in compressed sparse row form: the targets of row r are targets[offsets[r]] up to
+	 * targets[offsets[r + 1]], in the order the edges were given.
+	 */
+	private static final class Links {
+		final IntBuffer offsets;
+		final IntBuffer targets;
+
+		//edge i goes from row from[i] to row to[i]. edges with a -1 end are left out
+		Links(int rows, int[] from, int[] to) {
+			int[] offsets = new int[rows + 1];
+			for (int i = 0; i < from.length; i++) if (from[i] >= 0 && to[i] >= 0) offsets[from[i] + 1]++;
+			for (int r = 0; r < rows; r++) offsets[r + 1] += offsets[r];
+			int[] targets = new int[offsets[rows]];
+			int[] next = Arrays.copyOf(offsets, rows);
+			for (int i = 0; i < from.length; i++) if (from[i] >= 0 && to[i] >= 0) targets[next[from[i]]++] = to[i];
+			this.offsets = IntBuffer.wrap(offsets);
+			this.targets = IntBuffer.wrap(targets);
+		}
+
+		Links(SnapshotFile.Reader in) throws IOException {
+			offsets = in.ints();
+			targets = in.ints();
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(offsets);
+			out.ints(targets);
+		}
+
+		int from(int row) {
+			return offsets.get(row);
+		}
+
+		int to(int row) {
+			return offsets.get(row + 1);
+		}
+
+		int target(int i) {
+			return targets.get(i);
+		}
+
+		//the targets of row, as a view
+		IntBuffer of(int row) {
+			IntBuffer view = targets.duplicate();
+			view.limit(to(row)).position(from(row));
+			return view.slice();
+		}
+	}
+
+	//strings stored back to back as UTF-8, string i in bytes[offsets[i], offsets[i + 1])
+	private static final class Pool {
+		final IntBuffer offsets;
+		final ByteBuffer bytes;
+
+		Pool(List<String> strings) {
+			byte[][] encoded = new byte[strings.size()][];
+			int[] offsets = new int[strings.size() + 1];
+			for (int i = 0; i < encoded.length; i++) {
+				encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+				offsets[i + 1] = offsets[i] + encoded[i].length;
+			}
+			ByteBuffer bytes = ByteBuffer.allocate(offsets[encoded.length]);
+			for (byte[] b : encoded) bytes.put(b);
+			bytes.flip();
+			this.offsets = IntBuffer.wrap(offsets);
+			this.bytes = bytes;
+		}
+
+		Pool(SnapshotFile.Reader in) throws IOException {
+			offsets = in.ints();
+			bytes = in.bytes();
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(offsets);
+			out.bytes(bytes);
+		}
+
+		int size() {
+			return offsets.limit() - 1;
+		}
+
+		String get(int i) {
+			ByteBuffer b = bytes.duplicate();
+			b.limit(offsets.get(i + 1)).position(offsets.get(i));
+			return StandardCharsets.UTF_8.decode(b).toString();
+		}
+
+		//index of s in a sorted pool, -1 if absent
+		int find(String s) {
+			int lo = 0, hi = size() - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				int cmp = get(mid).compareTo(s);
+				if (cmp < 0) lo = mid + 1;
+				else if (cmp > 0) hi = mid - 1;
+				else return mid;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * A dictionary encoded string column. The folded values (see SearchIndex.fold()) are pooled too, sorted, so
+	 * the rank of a row's folded value orders rows like the database collation does, and a binary search of the
+	 * folded pool finds the rows holding a name.
+	 */
+	private static final class Strings {
+		//code of each row's value, -1 for NULL
+		final IntBuffer codes;
+		final Pool values;
+		//rank of each code's folded value in keys
+		final IntBuffer codeKeys;
+		final Pool keys;
+		//rank -> rows whose value folds to that key, ascending
+		final Links keyRows;
+
+		private Strings(List<String> values, int[] codes) {
+			this.codes = IntBuffer.wrap(codes);
+			this.values = new Pool(values);
+			String[] folded = new String[values.size()];
+			for (int i = 0; i < folded.length; i++) folded[i] = SearchIndex.fold(values.get(i));
+			String[] sorted = new TreeSet<>(Arrays.asList(folded)).toArray(new String[0]);
+			keys = new Pool(Arrays.asList(sorted));
+			int[] ranks = new int[folded.length];
+			for (int i = 0; i < ranks.length; i++) ranks[i] = Arrays.binarySearch(sorted, folded[i]);
+			codeKeys = IntBuffer.wrap(ranks);
+			int[] rowKeys = new int[codes.length];
+			for (int row = 0; row < codes.length; row++) rowKeys[row] = (codes[row] < 0) ? -1 : ranks[codes[row]];
+			keyRows = new Links(sorted.length, rowKeys, all(codes.length));
+		}
+
+		Strings(SnapshotFile.Reader in) throws IOException {
+			codes = in.ints();
+			values = new Pool(in);
+			codeKeys = in.ints();
+			keys = new Pool(in);
+			keyRows = new Links(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(codes);
+			values.write(out);
+			out.ints(codeKeys);
+			keys.write(out);
+			keyRows.write(out);
+		}
+
+		int size() {
+			return codes.limit();
+		}
+
+		String get(int row) {
+			int code = codes.get(row);
+			return (code < 0) ? null : values.get(code);
+		}
+
+		//rank of the row's folded value, which sorts rows like the database does, -1 for NULL
+		int key(int row) {
+			int code = codes.get(row);
+			return (code < 0) ? -1 : codeKeys.get(code);
+		}
+
+		//rows whose value matches name, ascending
+		IntBuffer rows(String name) {
+			int rank = (name == null) ? -1 : keys.find(SearchIndex.fold(name));
+			return (rank < 0) ? NONE : keyRows.of(rank);
+		}
+	}
+
+	//builds a Strings column while a table is read
+	private static final class StringsBuilder {
+		private final Map<String, Integer> dictionary = new HashMap<>();
+		private final List<String> values = new ArrayList<>();
+		private final Ints codes = new Ints();
+
+		void add(String value) {
+			if (value == null) {
+				codes.add(-1);
+				return;
+			}
+			Integer code = dictionary.get(value);
+			if (code == null) {
+				code = values.size();
+				dictionary.put(value, code);
+				values.add(value);
+			}
+			codes.add(code);
+		}
+
+		Strings build() {
+			return new Strings(values, codes.toArray());
+		}
+	}
+
+	//growable int column
+	private static final class Ints {
+		private int[] values = new int[16];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+
+		IntBuffer build() {
+			return IntBuffer.wrap(toArray());
+		}
+	}
+
+	//reads one table row
+	private interface RowReader {
+		void read(ResultSet rs) throws SQLException;
+	}
+
+	//streams whole tables into the column builders
+	private static final class Loader {
+		final Connection conn;
+		final int fetchSize;
+
+		Loader(Connection conn, int fetchSize) {
+			this.conn = conn;
+			this.fetchSize = fetchSize;
+		}
+
+		void read(String sql, RowReader reader) throws SQLException {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.setFetchSize(fetchSize);
+				try (ResultSet rs = stmt.executeQuery(sql)) {
+					while (rs.next()) reader.read(rs);
+				}
+			}
+		}
+	}
+
+	//getInt that keeps SQL NULL as NULL
+	private static int nullable(ResultSet rs, int column) throws SQLException {
+		int value = rs.getInt(column);
+		return rs.wasNull() ? NULL : value;
+	}
+
+	private static final class Countries {
+		final IntBuffer id;
+		final Strings name;
+
+		Countries(Loader db) throws SQLException {
+			Ints ids = new Ints();
+			StringsBuilder names = new StringsBuilder();
+			db.read("SELECT CountryID, Name FROM country ORDER BY CountryID;", rs -> {
+				ids.add(rs.getInt(1));
+				names.add(rs.getString(2));
+			});
+			id = ids.build();
+			name = names.build();
+		}
+
+		Countries(SnapshotFile.Reader in) throws IOException {
+			id = in.ints();
+			name = new Strings(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(id);
+			name.write(out);
+		}
+	}
+
+	private static final class Labels {
+		final IntBuffer id;
+		final Strings name;
+
+		Labels(Loader db) throws SQLException {
+			Ints ids = new Ints();
+			StringsBuilder names = new StringsBuilder();
+			db.read("SELECT LabelID, Name FROM recordlabel ORDER BY LabelID;", rs -> {
+				ids.add(rs.getInt(1));
+				names.add(rs.getString(2));
+			});
+			id = ids.build();
+			name = names.build();
+		}
+
+		Labels(SnapshotFile.Reader in) throws IOException {
+			id = in.ints();
+			name = new Strings(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(id);
+			name.write(out);
+		}
+	}
+
+	private static final class Albums {
+		final IntBuffer id;
+		final Strings name;
+		final Strings mediaType;
+		//yyyy-mm-dd, as the searches return it
+		final Strings releaseDate;
+		//the full datetime, which the searches sort by
+		final Strings released;
+		final IntBuffer labelID;
+
+		Albums(Loader db) throws SQLException {
+			Ints ids = new Ints(), labelIDs = new Ints();
+			StringsBuilder names = new StringsBuilder(), mediaTypes = new StringsBuilder(),
+					releaseDates = new StringsBuilder(), releasedAt = new StringsBuilder();
+			db.read("SELECT AlbumID, AlbumName, MediaType, date(ReleaseDate), date_format(ReleaseDate, '%Y-%m-%d %H:%i:%s'), LabelID"
+					+ " FROM album ORDER BY AlbumID;", rs -> {
+				ids.add(rs.getInt(1));
+				names.add(rs.getString(2));
+				mediaTypes.add(rs.getString(3));
+				releaseDates.add(rs.getString(4));
+				releasedAt.add(rs.getString(5));
+				labelIDs.add(nullable(rs, 6));
+			});
+			id = ids.build();
+			name = names.build();
+			mediaType = mediaTypes.build();
+			releaseDate = releaseDates.build();
+			released = releasedAt.build();
+			labelID = labelIDs.build();
+		}
+
+		Albums(SnapshotFile.Reader in) throws IOException {
+			id = in.ints();
+			name = new Strings(in);
+			mediaType = new Strings(in);
+			releaseDate = new Strings(in);
+			released = new Strings(in);
+			labelID = in.ints();
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(id);
+			name.write(out);
+			mediaType.write(out);
+			releaseDate.write(out);
+			released.write(out);
+			out.ints(labelID);
+		}
+	}
+
+	private static final class Tracks {
+		final IntBuffer id;
+		final Strings title;
+		//ExplicitRating read as a number, like the searches compare it
+		final IntBuffer explicit;
+		//seconds
+		final IntBuffer duration;
+		final IntBuffer countryID;
+		final IntBuffer albumID;
+
+		Tracks(Loader db) throws SQLException {
+			Ints ids = new Ints(), ratings = new Ints(), durations = new Ints(), countryIDs = new Ints(), albumIDs = new Ints();
+			StringsBuilder titles = new StringsBuilder();
+			db.read("SELECT TrackID, ReleaseName, ExplicitRating, Duration, CountryID, AlbumID FROM audiofile ORDER BY TrackID;", rs -> {
+				ids.add(rs.getInt(1));
+				titles.add(rs.getString(2));
+				ratings.add(rs.getInt(3));
+				durations.add(rs.getInt(4));
+				countryIDs.add(nullable(rs, 5));
+				albumIDs.add(rs.getInt(6));
+			});
+			id = ids.build();
+			title = titles.build();
+			explicit = ratings.build();
+			duration = durations.build();
+			countryID = countryIDs.build();
+			albumID = albumIDs.build();
+		}
+
+		Tracks(SnapshotFile.Reader in) throws IOException {
+			id = in.ints();
+			title = new Strings(in);
+			explicit = in.ints();
+			duration = in.ints();
+			countryID = in.ints();
+			albumID = in.ints();
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(id);
+			title.write(out);
+			out.ints(explicit);
+			out.ints(duration);
+			out.ints(countryID);
+			out.ints(albumID);
+		}
+	}
+
+	private static final class Creators {
+		final IntBuffer id;
+		final Strings name;
+
+		Creators(Loader db) throws SQLException {
+			Ints ids = new Ints();
+			StringsBuilder names = new StringsBuilder();
+			db.read("SELECT CreatorID, Name FROM creator ORDER BY CreatorID;", rs -> {
+				ids.add(rs.getInt(1));
+				names.add(rs.getString(2));
+			});
+			id = ids.build();
+			name = names.build();
+		}
+
+		Creators(SnapshotFile.Reader in) throws IOException {
+			id = in.ints();
+			name = new Strings(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(id);
+			name.write(out);
+		}
+	}
+
+	private static final class Genres {
+		final Strings id;
+		final Strings description;
+
+		Genres(Loader db) throws SQLException {
+			StringsBuilder ids = new StringsBuilder(), descriptions = new StringsBuilder();
+			db.read("SELECT GenreID, Description FROM genre ORDER BY GenreID;", rs -> {
+				ids.add(rs.getString(1));
+				descriptions.add(rs.getString(2));
+			});
+			id = ids.build();
+			description = descriptions.build();
+		}
+
+		Genres(SnapshotFile.Reader in) throws IOException {
+			id = new Strings(in);
+			description = new Strings(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			id.write(out);
+			description.write(out);
+		}
+	}
+
+	private static final class CreatedBy {
+		final IntBuffer trackID;
+		final IntBuffer creatorID;
+
+		CreatedBy(Loader db) throws SQLException {
+			Ints trackIDs = new Ints(), creatorIDs = new Ints();
+			db.read("SELECT TrackID, CreatorID FROM createdby ORDER BY TrackID, CreatorID;", rs -> {
+				trackIDs.add(rs.getInt(1));
+				creatorIDs.add(rs.getInt(2));
+			});
+			trackID = trackIDs.build();
+			creatorID = creatorIDs.build();
+		}
+
+		CreatedBy(SnapshotFile.Reader in) throws IOException {
+			trackID = in.ints();
+			creatorID = in.ints();
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(trackID);
+			out.ints(creatorID);
+		}
+	}
+
+	private static final class InGenre {
+		final IntBuffer trackID;
+		final Strings genreID;
+
+		InGenre(Loader db) throws SQLException {
+			Ints trackIDs = new Ints();
+			StringsBuilder genreIDs = new StringsBuilder();
+			db.read("SELECT TrackID, GenreID FROM ingenre ORDER BY TrackID, GenreID;", rs -> {
+				trackIDs.add(rs.getInt(1));
+				genreIDs.add(rs.getString(2));
+			});
+			trackID = trackIDs.build();
+			genreID = genreIDs.build();
+		}
+
+		InGenre(SnapshotFile.Reader in) throws IOException {
+			trackID = in.ints();
+			genreID = new Strings(in);
+		}
+
+		void write(SnapshotFile.Writer out) {
+			out.ints(trackID);
+			genreID.write(out);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package main.java;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Track count and total duration of every album and creator, and the first and last release date a creator has
+ * a track on, kept in adb.albumsummary and adb.creatorsummary (schema version 4) so album and creator statistics
+ * are read from one row instead of being aggregated over audiofile on every view. Averages are total / count.
+ * Queries keeps the rows up to date inside the transaction of each write (see Queries.setCatalogSummary()):
+ * a new track is added to its album's and creators' rows, deletes and release date changes recompute the rows
+ * of the albums and creators they touch, and deleting an album or creator drops its row by cascade.
+ * Writes that bypass Queries, like CatalogImporter and CatalogGenerator, need a rebuild() afterwards.
+ * verify() reports the rows that disagree with the catalog.
+ */
+public class CatalogSummary {
+	/** The schema version that creates the summary tables. */
+	public static final int SCHEMA_VERSION = 4;
+
+	//differences verify() prints before it only counts them
+	private static final int REPORT_LIMIT = 20;
+
+	//summary rows computed from the catalog, completed with a WHERE clause or none and a GROUP BY
+	private static final String ALBUM_ROWS = "SELECT album.AlbumID AS ID, COUNT(audiofile.TrackID) AS Tracks,"
+			+ " COALESCE(SUM(audiofile.Duration), 0) AS Seconds"
+			+ " FROM album LEFT JOIN audiofile ON audiofile.AlbumID = album.AlbumID";
+	private static final String CREATOR_ROWS = "SELECT creator.CreatorID AS ID, COUNT(audiofile.TrackID) AS Tracks,"
+			+ " COALESCE(SUM(audiofile.Duration), 0) AS Seconds, MIN(album.ReleaseDate) AS FirstRelease, MAX(album.ReleaseDate) AS LastRelease"
+			+ " FROM creator LEFT JOIN createdby ON createdby.CreatorID = creator.CreatorID"
+			+ " LEFT JOIN audiofile ON audiofile.TrackID = createdby.TrackID"
+			+ " LEFT JOIN album ON album.AlbumID = audiofile.AlbumID";
+
+	private final ConnectionPool pool;
+
+	/** What one track adds to the summaries. */
+	static final class TrackRow {
+		final int albumID;
+		//seconds
+		final int duration;
+		final Collection<Integer> creatorIDs;
+
+		TrackRow(int albumID, int duration, Collection<Integer> creatorIDs) {
+			this.albumID = albumID;
+			this.duration = duration;
+			this.creatorIDs = creatorIDs;
+		}
+	}
+
+	public CatalogSummary(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Recomputes every summary row from the catalog, in one transaction.
+	 * @return number of album and creator rows written, or -1 on error
+	 */
+	public int rebuild() {
+		try (Connection conn = pool.getConnection()) {
+			int rows = rebuild(conn);
+			conn.commit();
+			return rows;
+		} catch (SQLException e) {
+			System.out.println("Error rebuilding the catalog summaries: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	//rebuild() on a connection the caller commits
+	static int rebuild(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("DELETE FROM adb.albumsummary;");
+			stmt.executeUpdate("DELETE FROM adb.creatorsummary;");
+			return stmt.executeUpdate(insertAlbums("")) + stmt.executeUpdate(insertCreators(""));
+		}
+	}
+
+	/**
+	 * Compares every summary row with the catalog and prints the first differences.
+	 * @return number of album and creator rows that are missing or wrong, or -1 on error
+	 */
+	public int verify() {
+		int wrong = 0;
+		try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery("SELECT fresh.ID, fresh.Tracks, fresh.Seconds, s.AlbumID, s.TrackCount, s.TotalDuration"
+					+ " FROM (" + ALBUM_ROWS + " GROUP BY album.AlbumID) fresh"
+					+ " LEFT JOIN adb.albumsummary s ON s.AlbumID = fresh.ID"
+					+ " WHERE s.AlbumID IS NULL OR s.TrackCount <> fresh.Tracks OR s.TotalDuration <> fresh.Seconds"
+					+ " ORDER BY fresh.ID;")) {
+				while (rs.next()) {
+					if (wrong++ < REPORT_LIMIT) report("album", rs, 0);
+				}
+			}
+			try (ResultSet rs = stmt.executeQuery("SELECT fresh.ID, fresh.Tracks, fresh.Seconds, s.CreatorID, s.TrackCount, s.TotalDuration,"
+					+ " fresh.FirstRelease, fresh.LastRelease, s.FirstRelease, s.LastRelease"
+					+ " FROM (" + CREATOR_ROWS + " GROUP BY creator.CreatorID) fresh"
+					+ " LEFT JOIN adb.creatorsummary s ON s.CreatorID = fresh.ID"
+					+ " WHERE s.CreatorID IS NULL OR s.TrackCount <> fresh.Tracks OR s.TotalDuration <> fresh.Seconds"
+					+ " OR NOT (s.FirstRelease <=> fresh.FirstRelease) OR NOT (s.LastRelease <=> fresh.LastRelease)"
+					+ " ORDER BY fresh.ID;")) {
+				while (rs.next()) {
+					if (wrong++ < REPORT_LIMIT) report("creator", rs, 2);
+				}
+			}
+		} catch (SQLException e) {
+			System.out.println("Error verifying the catalog summaries: " + e.getMessage());
+			return -1;
+		}
+		if (wrong > REPORT_LIMIT) System.out.println("... " + (wrong - REPORT_LIMIT) + " more");
+		System.out.println((wrong == 0) ? "Album and creator summaries match the catalog." : wrong + " summary row(s) out of date, run --rebuild-summaries.");
+		return wrong;
+	}
+
+	//one verify() difference. dates is the number of release date columns after the six common ones
+	private static void report(String kind, ResultSet rs, int dates) throws SQLException {
+		String counted = rs.getInt(2) + " tracks, " + rs.getLong(3) + " s";
+		String stored = rs.getInt(5) + " tracks, " + rs.getLong(6) + " s";
+		if (dates > 0) {
+			counted += ", " + rs.getString(7) + " to " + rs.getString(8);
+			stored += ", " + rs.getString(9) + " to " + rs.getString(10);
+		}
+		if (rs.getObject(4) == null) System.out.println(kind + " " + rs.getInt(1) + ": " + counted + ", summary row missing");
+		else System.out.println(kind + " " + rs.getInt(1) + ": " + counted + ", summary has " + stored);
+	}
+
+	/** @return what the track adds to the summaries, or null if there is no such track */
+	TrackRow track(Connection conn, int trackID) throws SQLException {
+		int albumID, duration;
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT AlbumID, Duration FROM audiofile WHERE TrackID = ?;")) {
+			pstmt.setInt(1, trackID);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				if (!rs.next()) return null;
+				albumID = rs.getInt(1);
+				duration = rs.getInt(2);
+			}
+		}
+		List<Integer> creatorIDs = new ArrayList<>();
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT CreatorID FROM createdby WHERE TrackID = ?;")) {
+			pstmt.setInt(1, trackID);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) creatorIDs.add(rs.getInt(1));
+			}
+		}
+		return new TrackRow(albumID, duration, creatorIDs);
+	}
+
+	/** @return the creators with a track on the album */
+	Set<Integer> creatorsOfAlbum(Connection conn, int albumID) throws SQLException {
+		Set<Integer> creatorIDs = new HashSet<>();
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT DISTINCT createdby.CreatorID"
+				+ " FROM audiofile, createdby WHERE createdby.TrackID = audiofile.TrackID AND audiofile.AlbumID = ?;")) {
+			pstmt.setInt(1, albumID);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) creatorIDs.add(rs.getInt(1));
+			}
+		}
+		return creatorIDs;
+	}
+
+	/**
+	 * Adds a track that was just inserted to its album's and creators' rows. Rows that do not exist yet,
+	 * like those of creators inserted with the track, are computed from the catalog instead.
+	 */
+	void trackAdded(Connection conn, TrackRow track) throws SQLException {
+		try (PreparedStatement pstmt = conn.prepareStatement("UPDATE adb.albumsummary"
+				+ " SET TrackCount = TrackCount + 1, TotalDuration = TotalDuration + ? WHERE AlbumID = ?;")) {
+			pstmt.setInt(1, track.duration);
+			pstmt.setInt(2, track.albumID);
+			if (pstmt.executeUpdate() == 0) refreshAlbums(conn, Collections.singleton(track.albumID));
+		}
+		if (track.creatorIDs.isEmpty()) return;
+		List<Integer> creatorIDs = new ArrayList<>(track.creatorIDs);
+		List<Integer> missing = new ArrayList<>();
+		try (PreparedStatement pstmt = conn.prepareStatement("UPDATE adb.creatorsummary, adb.album"
+				+ " SET creatorsummary.TrackCount = creatorsummary.TrackCount + 1, creatorsummary.TotalDuration = creatorsummary.TotalDuration + ?,"
+				+ " creatorsummary.FirstRelease = CASE WHEN creatorsummary.FirstRelease IS NULL OR album.ReleaseDate < creatorsummary.FirstRelease"
+				+ " THEN album.ReleaseDate ELSE creatorsummary.FirstRelease END,"
+				+ " creatorsummary.LastRelease = CASE WHEN creatorsummary.LastRelease IS NULL OR album.ReleaseDate > creatorsummary.LastRelease"
+				+ " THEN album.ReleaseDate ELSE creatorsummary.LastRelease END"
+				+ " WHERE creatorsummary.CreatorID = ? AND album.AlbumID = ?;")) {
+			for (int creatorID : creatorIDs) {
+				pstmt.setInt(1, track.duration);
+				pstmt.setInt(2, creatorID);
+				pstmt.setInt(3, track.albumID);
+				pstmt.addBatch();
+			}
+			int[] updated = pstmt.executeBatch();
+			for (int i = 0; i < updated.length; i++) if (updated[i] == 0) missing.add(creatorIDs.get(i));
+		}
+		if (!missing.isEmpty()) refreshCreators(conn, missing);
+	}
+
+	/**
+	 * Takes a track that was just deleted off its album's row, and recomputes its creators' rows, whose first
+	 * or last release date it may have been.
+	 * @param track track() of the track, read before it was deleted
+	 */
+	void trackRemoved(Connection conn, TrackRow track) throws SQLException {
+		try (PreparedStatement pstmt = conn.prepareStatement("UPDATE adb.albumsummary"
+				+ " SET TrackCount = TrackCount - 1, TotalDuration = TotalDuration - ? WHERE AlbumID = ?;")) {
+			pstmt.setInt(1, track.duration);
+			pstmt.setInt(2, track.albumID);
+			pstmt.executeUpdate();
+		}
+		refreshCreators(conn, track.creatorIDs);
+	}
+
+	/** Recomputes the rows of the albums from the catalog. */
+	void refreshAlbums(Connection conn, Collection<Integer> albumIDs) throws SQLException {
+		refresh(conn, albumIDs, "DELETE FROM adb.albumsummary WHERE AlbumID IN ", insertAlbums(" WHERE album.AlbumID IN "));
+	}
+
+	/** Recomputes the rows of the creators from the catalog. */
+	void refreshCreators(Connection conn, Collection<Integer> creatorIDs) throws SQLException {
+		refresh(conn, creatorIDs, "DELETE FROM adb.creatorsummary WHERE CreatorID IN ", insertCreators(" WHERE creator.CreatorID IN "));
+	}
+
+	//deletes the rows of the IDs and inserts them again. both statements end in an IN list, completed here
+	private static void refresh(Connection conn, Collection<Integer> ids, String delete, String insert) throws SQLException {
+		if (ids.isEmpty()) return;
+		String in = "(" + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")";
+		try (PreparedStatement deleteRows = conn.prepareStatement(delete + in + ";");
+			 PreparedStatement insertRows = conn.prepareStatement(insert.replace("{ids}", in))) {
+			int i = 1;
+			for (int id : ids) {
+				deleteRows.setInt(i, id);
+				insertRows.setInt(i++, id);
+			}
+			deleteRows.executeUpdate();
+			insertRows.executeUpdate();
+		}
+	}
+
+	//the INSERT filling adb.albumsummary from ALBUM_ROWS. a where clause ending in IN gets the {ids} placeholder
+	private static String insertAlbums(String where) {
+		return "INSERT INTO adb.albumsummary (AlbumID, TrackCount, TotalDuration) " + ALBUM_ROWS
+				+ where + (where.isEmpty() ? "" : "{ids}") + " GROUP BY album.AlbumID;";
+	}
+
+	private static String insertCreators(String where) {
+		return "INSERT INTO adb.creatorsummary (CreatorID, TrackCount, TotalDuration, FirstRelease, LastRelease) " + CREATOR_ROWS
+				+ where + (where.isEmpty() ? "" : "{ids}") + " GROUP BY creator.CreatorID;";
+	}
+}
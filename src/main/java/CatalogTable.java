@@ -0,0 +1,7 @@
+package main.java;
+
+/**
+ * The catalog tables, for keeping track of which ones a search reads and a write changes
+ * (see ResultCache and CatalogSnapshot).
+ */
+enum CatalogTable { ALBUM, AUDIOFILE, CREATEDBY, CREATOR, INGENRE, GENRE, RECORDLABEL, COUNTRY }
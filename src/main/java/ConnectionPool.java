@@ -0,0 +1,306 @@
+package main.java;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Small bounded JDBC connection pool used by Queries in place of a single long lived connection.
+ * Connections handed out are proxies; calling close() on one returns the physical connection to the pool.
+ * Each physical connection keeps a StatementCache, so prepareStatement(sql) on a handle reuses
+ * statements prepared by earlier borrowers.
+ */
+public class ConnectionPool implements AutoCloseable {
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_MAX_WAIT_MILLIS = 10_000;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60_000;
+	public static final long DEFAULT_LEAK_THRESHOLD_MILLIS = 60_000;
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+	//seconds passed to Connection.isValid() when validating on borrow
+	private static final int VALIDATION_TIMEOUT = 2;
+
+	private final String url;
+	private final String username;
+	private final String password;
+	private final int maxSize;
+	private final long maxWaitMillis;
+	private final long idleTimeoutMillis;
+	private final long leakThresholdMillis;
+	private final int statementCacheSize;
+	private final StatementCache.Stats statementStats = new StatementCache.Stats();
+
+	//permits bound the number of physical connections, idle or borrowed
+	private final Semaphore permits;
+	private final Deque<PooledConnection> idle = new ArrayDeque<>();
+	private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+	private final ScheduledExecutorService housekeeper;
+	private volatile boolean closed = false;
+
+	public ConnectionPool(String url, String username, String password) {
+		this(url, username, password, DEFAULT_MAX_SIZE, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_LEAK_THRESHOLD_MILLIS, DEFAULT_STATEMENT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param url JDBC url of the database
+	 * @param username database login
+	 * @param password database password
+	 * @param maxSize maximum number of physical connections open at once
+	 * @param maxWaitMillis how long getConnection() blocks for a free connection before failing
+	 * @param idleTimeoutMillis idle connections older than this are closed. 0 disables eviction.
+	 * @param leakThresholdMillis borrowed connections held longer than this are reported as leaks. 0 disables detection.
+	 * @param statementCacheSize prepared statements kept open per connection. 0 disables statement caching.
+	 */
+	public ConnectionPool(String url, String username, String password, int maxSize, long maxWaitMillis,
+						  long idleTimeoutMillis, long leakThresholdMillis, int statementCacheSize) {
+		if (maxSize < 1) throw new IllegalArgumentException("pool size must be at least 1");
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.maxSize = maxSize;
+		this.maxWaitMillis = maxWaitMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		//daemon thread so an unclosed pool never keeps the JVM alive
+		housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zene-pool-housekeeper");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, Math.min(nonZero(idleTimeoutMillis), nonZero(leakThresholdMillis)) / 2);
+		housekeeper.scheduleAtFixedRate(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection, blocking up to maxWait for one to become free.
+	 * The returned connection has autocommit off; close it to give it back to the pool.
+	 * @return a validated connection
+	 * @throws SQLException if the pool is closed, the wait timed out, or a new connection could not be opened
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed) throw new SQLException("Connection pool is closed");
+		try {
+			if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS))
+				throw new SQLTimeoutException("Timed out after " + maxWaitMillis + "ms waiting for a database connection");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+
+		try {
+			PooledConnection pc;
+			//reuse the most recently returned idle connection that still validates
+			while ((pc = pollIdle()) != null) {
+				if (isUsable(pc.physical)) break;
+				pc.discard();
+			}
+			if (pc == null) pc = open();
+			pc.borrowedAt = System.currentTimeMillis();
+			pc.borrowTrace = (leakThresholdMillis > 0) ? new Throwable("connection borrowed here") : null;
+			pc.leakReported = false;
+			borrowed.add(pc);
+			return pc.newHandle();
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/** @return number of connections currently borrowed */
+	public int getActiveCount() {
+		return borrowed.size();
+	}
+
+	/** @return number of open connections waiting in the pool */
+	public int getIdleCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** @return number of prepareStatement calls served from a statement cache */
+	public long getStatementCacheHits() {
+		return statementStats.hits.get();
+	}
+
+	/** @return number of prepareStatement calls that had to prepare a new cached statement */
+	public long getStatementCacheMisses() {
+		return statementStats.misses.get();
+	}
+
+	/** @return number of cached statements closed to stay within the cache size */
+	public long getStatementCacheEvictions() {
+		return statementStats.evictions.get();
+	}
+
+	/**
+	 * Closes all idle connections and stops handing out new ones.
+	 * Borrowed connections are closed as they are returned.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		housekeeper.shutdownNow();
+		synchronized (idle) {
+			for (PooledConnection pc : idle) pc.discard();
+			idle.clear();
+		}
+	}
+
+	//called by the connection proxy when the borrower closes its handle
+	private void release(PooledConnection pc) {
+		borrowed.remove(pc);
+		try {
+			boolean reusable = !closed && !pc.physical.isClosed();
+			if (reusable) {
+				//discard whatever the borrower left uncommitted so the next borrower starts clean
+				pc.physical.rollback();
+				pc.physical.setAutoCommit(false);
+				pc.lastReturned = System.currentTimeMillis();
+				synchronized (idle) {
+					idle.push(pc);
+				}
+			} else {
+				pc.discard();
+			}
+		} catch (SQLException e) {
+			pc.discard();
+		} finally {
+			permits.release();
+		}
+	}
+
+	private PooledConnection pollIdle() {
+		synchronized (idle) {
+			return idle.poll();
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection c = DriverManager.getConnection(url, username, password);
+		c.setAutoCommit(false);
+		return new PooledConnection(c);
+	}
+
+	private boolean isUsable(Connection c) {
+		try {
+			return !c.isClosed() && c.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	//evicts stale idle connections and reports connections that have been borrowed too long
+	private void housekeep() {
+		long now = System.currentTimeMillis();
+		if (idleTimeoutMillis > 0) {
+			List<PooledConnection> expired = new ArrayList<>();
+			synchronized (idle) {
+				Iterator<PooledConnection> it = idle.iterator();
+				while (it.hasNext()) {
+					PooledConnection pc = it.next();
+					if (now - pc.lastReturned > idleTimeoutMillis) {
+						it.remove();
+						expired.add(pc);
+					}
+				}
+			}
+			for (PooledConnection pc : expired) pc.discard();
+		}
+		if (leakThresholdMillis > 0) {
+			for (PooledConnection pc : borrowed) {
+				if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+					pc.leakReported = true;
+					System.err.println("Warning: database connection held for " + (now - pc.borrowedAt) + "ms, possible leak");
+					if (pc.borrowTrace != null) pc.borrowTrace.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static long nonZero(long millis) {
+		return (millis > 0) ? millis : Long.MAX_VALUE;
+	}
+
+	private static void closeQuietly(Connection c) {
+		try {
+			c.close();
+		} catch (SQLException ignored) {
+		}
+	}
+
+	//bookkeeping for one physical connection owned by the pool
+	private class PooledConnection {
+		final Connection physical;
+		final StatementCache statements;
+		volatile long borrowedAt;
+		volatile long lastReturned;
+		volatile Throwable borrowTrace;
+		volatile boolean leakReported;
+
+		PooledConnection(Connection physical) {
+			this.physical = physical;
+			this.statements = new StatementCache(physical, statementCacheSize, statementStats);
+			this.lastReturned = System.currentTimeMillis();
+		}
+
+		void discard() {
+			statements.close();
+			closeQuietly(physical);
+		}
+
+		//each borrow gets its own handle so a stale handle cannot touch a connection that was lent out again
+		Connection newHandle() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class}, new Handle(this));
+		}
+	}
+
+	private class Handle implements InvocationHandler {
+		private final PooledConnection pc;
+		private boolean returned = false;
+
+		Handle(PooledConnection pc) {
+			this.pc = pc;
+		}
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (!returned) {
+						returned = true;
+						release(pc);
+					}
+					return null;
+				case "isClosed":
+					return returned || pc.physical.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "pooled " + pc.physical;
+			}
+			if (returned) throw new SQLException("Connection has already been returned to the pool");
+			if (method.getName().equals("prepareStatement") && args.length == 1)
+				return pc.statements.prepare((Connection) proxy, (String) args[0]);
+			try {
+				return method.invoke(pc.physical, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
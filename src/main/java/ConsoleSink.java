@@ -0,0 +1,263 @@
+package main.java;
+
+import java.util.*;
+
+/**
+ * Prints search results in the terminal layouts of the menu: a header before the first record, one
+ * abbreviated line per record, and the album track listings in box-drawn form.
+ * A new sink is used for every search; it flushes the printer when the search ends.
+ */
+class ConsoleSink implements ResultSink {
+	private final ResultPrinter out;
+	//also print the creator or track ID after each row of a creator or title search
+	private final boolean printIDs;
+
+	private Search search;
+	private String text;
+	private boolean headerPrinted = false;
+	//keyword search section being printed: 'c'reators, 'a'lbums or 't'racks
+	private char section = 0;
+	//IDs of the albums printed, in order, for menus that let the user pick one
+	private final List<Integer> albumIDs = new ArrayList<>();
+	//continuation token of a paged search, null on its last page
+	private String nextPage;
+
+	ConsoleSink(ResultPrinter out, boolean printIDs) {
+		this.out = out;
+		this.printIDs = printIDs;
+	}
+
+	List<Integer> albumIDs() {
+		return albumIDs;
+	}
+
+	String nextPage() {
+		return nextPage;
+	}
+
+	@Override
+	public void begin(Search search, String text) {
+		this.search = search;
+		this.text = text;
+	}
+
+	@Override
+	public void genre(String genreID, String description) {
+		out.println("From Genre: " + genreID + "\t-" + description);
+		out.println("\n\t---------------------------------------");
+		out.printf("%-23s   %-20s   %-5s   %-20s   %s\n", "Audio File Name", "Creator", "Drtn.", "Album Name", "Release Date");
+		out.println("\t---------------------------------------");
+		headerPrinted = true;
+	}
+
+	@Override
+	public void track(Track t) {
+		switch (search) {
+			case CREATOR:
+				if (!headerPrinted) {
+					out.println("From Creator: " + text + " (cid " + t.creatorID + ")");
+					out.printf("%4s   %-20s   %5s   %-64s\n", "Year", "Album Name", "Drtn.", "Audio File Name");
+					out.println("----------------------------------------------------------");
+				}
+				out.printf("%4s │ %-20s │ %5s │ %-20s",
+						abbreviate(nullable(t.releaseDate), 4),
+						abbreviate(t.album, 20),
+						duration(t.duration),
+						abbreviate(t.title, 20));
+				if (printIDs) out.printf(" | ID: %s\n", t.creatorID);
+				else out.println();
+				break;
+			case TITLE:
+				if (!headerPrinted) {
+					out.printf("%-22s   %-18s   %-5s   %-20s   %-8s   %10s\n", "Audio File Name:", "Creator:", "Drtn.", "Album Name:", "Explicit:", "Released:");
+					out.println("\t---------------------------------------");
+				}
+				out.printf("%-22s │ %-18s │ %-5s │ %-20s │ %-9s │ %10s",
+						abbreviate(t.title, 22),
+						abbreviate(nullable(t.creator), 18),
+						duration(t.duration),
+						abbreviate(t.album, 20),
+						rating(t),
+						nullable(t.releaseDate));
+				if (printIDs) out.printf(" | ID: %s\n", t.trackID);
+				else out.println();
+				break;
+			case GENRE:
+				out.printf("%-23s │ %-20s │ %-5s │ %-20s │ %s\n",
+						abbreviate(t.title, 23),
+						abbreviate(nullable(t.creator), 20),
+						duration(t.duration),
+						abbreviate(nullable(t.album), 20),
+						nullable(t.releaseDate));
+				break;
+			case COUNTRY:
+				if (!headerPrinted)
+					out.printf("%4s   %-20s   %5s   %-20s   %-20s\n", "Year", "Track Name", "Drtn.", "Creator", "Album");
+				out.printf("%4s | %-20s | %5s | %-20s | %-20s\n",
+						abbreviate(nullable(t.releaseDate), 4),
+						abbreviate(t.title, 20),
+						duration(t.duration),
+						abbreviate(nullable(t.creator), 20),
+						abbreviate(nullable(t.album), 20));
+				break;
+			case RATING:
+			case RANDOM:
+				//the rating list right-aligns its track name header, the random list does not
+				if (!headerPrinted)
+					out.printf((search == Search.RATING) ? "%15s   %41s   %5s   %-20s   %15s\n" : "%15s   %-41s   %5s   %-20s   %15s\n",
+							"TrackID", "Track Name", "Drtn.", "Artist", "ArtistID");
+				out.printf("%15s │ %-41s │ %5s │ %-20s │ %15s\n",
+						t.trackID,
+						abbreviate(t.title, 40),
+						t.duration,
+						abbreviate(nullable(t.creator), 19),
+						nullable(t.creatorID));
+				break;
+			case KEYWORD:
+				section('t', "%-22s   %-18s   %-5s   %-20s   %15s\n", "Audio File Name", "Creator", "Drtn.", "Album Name", "TrackID");
+				out.printf("%-22s │ %-18s │ %-5s │ %-20s │ %15s\n",
+						abbreviate(t.title, 22),
+						abbreviate(nullable(t.creator), 18),
+						duration(t.duration),
+						abbreviate(t.album, 20),
+						t.trackID);
+				break;
+		}
+		headerPrinted = true;
+	}
+
+	@Override
+	public void album(Album a) {
+		albumIDs.add(a.albumID);
+		String box = (a.trackCount > 0) ? "┌─" : "  ";
+		switch (search) {
+			case ALBUM:
+				out.printf("%-7s  %-20s │ %7s │ %8s │ %10s | %s\n",
+						"  " + albumIDs.size() + ": ",
+						a.name,
+						nullable(duration(a.totalSeconds)),
+						a.mediaType,
+						nullable(a.releaseDate),
+						nullable(a.label));
+				return;
+			case ALBUM_TRACKS:
+				out.printf("%-7s" + box + "%-20s │ %7s │ %8s │ %10s | %s\n",
+						"Album: ", a.name, nullable(duration(a.totalSeconds)), a.mediaType, nullable(a.releaseDate), nullable(a.label));
+				break;
+			case MEDIA:
+				out.printf("%-5s: " + box + "%-20s │ %7s │ %s │ %s\n",
+						"Album", a.name, nullable(duration(a.totalSeconds)), nullable(a.label), nullable(a.releaseDate));
+				break;
+			case LABEL:
+				out.printf("Album: %2s%-20s | %7s | %8s | %10s\n",
+						box, a.name, nullable(duration(a.totalSeconds)), a.mediaType, nullable(a.releaseDate));
+				break;
+			case KEYWORD:
+				section('a', "%-20s   %8s   %10s   %15s\n", "Album", "Type", "Released", "AlbumID");
+				out.printf("%-20s │ %8s │ %10s │ %15s\n",
+						abbreviate(a.name, 20), a.mediaType, nullable(a.releaseDate), a.albumID);
+				return;
+		}
+		trackListing(a);
+	}
+
+	@Override
+	public void creator(Creator c) {
+		section('c', "%-20s   %15s\n", "Creator", "CreatorID");
+		out.printf("%-20s │ %15s\n", abbreviate(c.name, 20), c.creatorID);
+	}
+
+	@Override
+	public void country(int countryID, String name) {
+		if (!headerPrinted) out.print("ID# | Country\n");
+		out.printf("%3d | %s\n", countryID, name);
+		headerPrinted = true;
+	}
+
+	@Override
+	public void empty(String message) {
+		out.println(message);
+	}
+
+	@Override
+	public void error(String message) {
+		out.println(message);
+	}
+
+	@Override
+	public void next(String token) {
+		nextPage = token;
+	}
+
+	@Override
+	public void end(int count) {
+		if (search == Search.CREATOR && count > 0) out.println(); //newline to separate results from next menu
+		if (section != 0) out.println();
+		out.flush();
+	}
+
+	//starts a keyword search section with its column header, after a blank line ending the previous one
+	private void section(char next, String header, String... columns) {
+		if (section == next) return;
+		if (section != 0) out.println();
+		section = next;
+		out.printf(header, (Object[]) columns);
+	}
+
+	//the tracks of an album below its header line
+	private void trackListing(Album album) {
+		if (album.tracks.isEmpty()) {
+			out.println ("         No tracks found for album ID: " + album.albumID + "\n");
+			return;
+		}
+		String boxShape = "├─";
+		out.printf("       │ %-20s   %7s   %8s   %s\n", "      -Title-", "-Drtn-", "-Rating-", "-Creator-");
+		int c = 0;
+		for (Track t : album.tracks) {
+			if (++c == album.trackCount) boxShape = "└─";
+			out.printf("       %2s%-20s │ %7s │ %8s │ %-20s\n", boxShape,
+					abbreviate(t.title, 20),
+					duration(t.duration),
+					rating(t),
+					abbreviate(nullable(t.creator), 20));
+		}
+		out.println();
+	}
+
+	private static String rating(Track t) {
+		return Boolean.TRUE.equals(t.explicit) ? "Explicit" : "Clean";
+	}
+
+	private static String duration(Integer seconds) {
+		return (seconds == null) ? null : formatDuration(seconds);
+	}
+
+	private static String duration(Long seconds) {
+		return (seconds == null) ? null : formatDuration(seconds);
+	}
+
+	/**
+	 * Java equivalent of trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(seconds))),
+	 * e.g. 245 -> "04:05" and 3725 -> "1:02:05".
+	 */
+	static String formatDuration(long seconds) {
+		String s = String.format("%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+		int i = 0;
+		while (i < s.length() && s.charAt(i) == '0') i++;
+		while (i < s.length() && s.charAt(i) == ':') i++;
+		return s.substring(i);
+	}
+
+	//helper method for abbreviating strings
+	static String abbreviate(String s, int len) {
+		String result = s.substring(0, Math.min(s.length(), len));
+		if (s.length() > len && len > 4) result = result.substring(0, len - 3) + "...";
+		return result;
+	}
+
+	//helper method for casting null values as blank
+	static String nullable(Object o) {
+		if (o == null) return "-";
+		return o.toString();
+	}
+}
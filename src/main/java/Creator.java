@@ -0,0 +1,14 @@
+package main.java;
+
+/**
+ * One creator as returned by the keyword search.
+ */
+public final class Creator {
+	public final int creatorID;
+	public final String name;
+
+	public Creator(int creatorID, String name) {
+		this.creatorID = creatorID;
+		this.name = name;
+	}
+}
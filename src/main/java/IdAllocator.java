@@ -0,0 +1,15 @@
+package main.java;
+
+import java.sql.SQLException;
+
+/**
+ * Source of primary keys for rows Queries inserts into album, audiofile, creator, recordlabel and country.
+ */
+public interface IdAllocator {
+	/**
+	 * @param table Name of the table the ID will be used in, e.g. "audiofile".
+	 * @return An ID that is not yet used in that table.
+	 * @throws SQLException if an ID could not be reserved.
+	 */
+	int nextID(String table) throws SQLException;
+}
@@ -0,0 +1,345 @@
+package main.java;
+
+import java.util.*;
+
+/**
+ * Queries that records calls, errors, rows and latency of every public operation in a Metrics registry.
+ * Searches are recorded in their ResultSink overloads, which the console overloads call.
+ * Each operation's return value tells it apart: counts are rows, negative values and null are errors,
+ * and inserts and lookups count one row when they return an ID. Operations that call other public operations
+ * (e.g. insertAlbum creating a missing label) record the inner call under its own name as well.
+ * Recording allocates nothing, so the wrapper can stay on in production.
+ */
+class InstrumentedQueries extends Queries {
+	private final Metrics metrics;
+
+	private final OperationMetrics queryByCreator, queryByAudioTitle, queryByAlbumTitle, queryByGenre, queryByMediaType,
+			getTracksByRating, getTracksByCountry, getTracksLabel, printCountryCodes, getAvgTrackDurationAlbum,
+			numTracksInAlbum, getCreatorSummary, getRandomTracks, buildTrackSampler, getRandomTracksOrderByRand, insertAlbum,
+			insertRecordLabel, getRecordLabelID, insertAudiofile, insertTrack, addGenreToTrack, insertCreator, insertGenre,
+			insertCountry, updateGenre, updateLabelCountry, updateLabelDate, updateAlbumRD, updateAlbumRL,
+			updateCountryIDaf, getCountryID, deleteCreator, deleteAlbum, deleteTrack, deleteGenre, deleteLabel,
+			buildSearchIndex, searchCatalog, buildSnapshot, saveSnapshotFile;
+
+	/**
+	 * @param pool Pool that each operation borrows its own connection from.
+	 * @param in Scanner used for the few prompts that happen mid-operation.
+	 * @param ids Source of primary keys for inserted rows.
+	 * @param metrics Registry the operations are recorded in.
+	 */
+	InstrumentedQueries(ConnectionPool pool, Scanner in, IdAllocator ids, Metrics metrics) {
+		super(pool, in, ids);
+		this.metrics = metrics;
+		queryByCreator = metrics.operation("queryByCreator");
+		queryByAudioTitle = metrics.operation("queryByAudioTitle");
+		queryByAlbumTitle = metrics.operation("queryByAlbumTitle");
+		queryByGenre = metrics.operation("queryByGenre");
+		queryByMediaType = metrics.operation("queryByMediaType");
+		getTracksByRating = metrics.operation("getTracksByRating");
+		getTracksByCountry = metrics.operation("getTracksByCountry");
+		getTracksLabel = metrics.operation("getTracksLabel");
+		printCountryCodes = metrics.operation("printCountryCodes");
+		getAvgTrackDurationAlbum = metrics.operation("getAvgTrackDurationAlbum");
+		numTracksInAlbum = metrics.operation("numTracksInAlbum");
+		getCreatorSummary = metrics.operation("getCreatorSummary");
+		getRandomTracks = metrics.operation("getRandomTracks");
+		buildTrackSampler = metrics.operation("buildTrackSampler");
+		getRandomTracksOrderByRand = metrics.operation("getRandomTracksOrderByRand");
+		insertAlbum = metrics.operation("insertAlbum");
+		insertRecordLabel = metrics.operation("insertRecordLabel");
+		getRecordLabelID = metrics.operation("getRecordLabelID");
+		insertAudiofile = metrics.operation("insertAudiofile");
+		insertTrack = metrics.operation("insertTrack");
+		addGenreToTrack = metrics.operation("addGenreToTrack");
+		insertCreator = metrics.operation("insertCreator");
+		insertGenre = metrics.operation("insertGenre");
+		insertCountry = metrics.operation("insertCountry");
+		updateGenre = metrics.operation("updateGenre");
+		updateLabelCountry = metrics.operation("updateLabelCountry");
+		updateLabelDate = metrics.operation("updateLabelDate");
+		updateAlbumRD = metrics.operation("updateAlbumRD");
+		updateAlbumRL = metrics.operation("updateAlbumRL");
+		updateCountryIDaf = metrics.operation("updateCountryIDaf");
+		getCountryID = metrics.operation("getCountryID");
+		deleteCreator = metrics.operation("deleteCreator");
+		deleteAlbum = metrics.operation("deleteAlbum");
+		deleteTrack = metrics.operation("deleteTrack");
+		deleteGenre = metrics.operation("deleteGenre");
+		deleteLabel = metrics.operation("deleteLabel");
+		buildSearchIndex = metrics.operation("buildSearchIndex");
+		searchCatalog = metrics.operation("searchCatalog");
+		buildSnapshot = metrics.operation("buildSnapshot");
+		saveSnapshotFile = metrics.operation("saveSnapshotFile");
+	}
+
+	Metrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public int queryByCreator(String ctr, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByCreator.count(start, super.queryByCreator(ctr, sink));
+	}
+
+	@Override
+	public int queryByAudioTitle(String title, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByAudioTitle.count(start, super.queryByAudioTitle(title, sink));
+	}
+
+	@Override
+	public int queryByAlbumTitle(String title, boolean tracks, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByAlbumTitle.count(start, super.queryByAlbumTitle(title, tracks, sink));
+	}
+
+	@Override
+	public int queryByGenre(String gnr, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByGenre.count(start, super.queryByGenre(gnr, sink));
+	}
+
+	@Override
+	public int queryByGenre(String gnr, int pageSize, String after, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByGenre.count(start, super.queryByGenre(gnr, pageSize, after, sink));
+	}
+
+	@Override
+	public int queryByMediaType(String mediaType, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByMediaType.count(start, super.queryByMediaType(mediaType, sink));
+	}
+
+	@Override
+	public int queryByMediaType(String mediaType, int pageSize, String after, ResultSink sink) {
+		long start = System.nanoTime();
+		return queryByMediaType.count(start, super.queryByMediaType(mediaType, pageSize, after, sink));
+	}
+
+	@Override
+	public int getTracksByRating(int exp_num, ResultSink sink) {
+		long start = System.nanoTime();
+		return getTracksByRating.count(start, super.getTracksByRating(exp_num, sink));
+	}
+
+	@Override
+	public int getTracksByRating(int exp_num, int pageSize, String after, ResultSink sink) {
+		long start = System.nanoTime();
+		return getTracksByRating.count(start, super.getTracksByRating(exp_num, pageSize, after, sink));
+	}
+
+	@Override
+	public int getTracksByCountry(String country, ResultSink sink) {
+		long start = System.nanoTime();
+		return getTracksByCountry.count(start, super.getTracksByCountry(country, sink));
+	}
+
+	@Override
+	public int getTracksByCountry(String country, int pageSize, String after, ResultSink sink) {
+		long start = System.nanoTime();
+		return getTracksByCountry.count(start, super.getTracksByCountry(country, pageSize, after, sink));
+	}
+
+	@Override
+	public int getTracksLabel(String label_name, ResultSink sink) {
+		long start = System.nanoTime();
+		return getTracksLabel.count(start, super.getTracksLabel(label_name, sink));
+	}
+
+	@Override
+	public int printCountryCodes(ResultSink sink) {
+		long start = System.nanoTime();
+		return printCountryCodes.count(start, super.printCountryCodes(sink));
+	}
+
+	@Override
+	public int getAvgTrackDurationAlbum(String alb) {
+		long start = System.nanoTime();
+		return getAvgTrackDurationAlbum.count(start, super.getAvgTrackDurationAlbum(alb));
+	}
+
+	@Override
+	public int numTracksInAlbum(String alb) {
+		long start = System.nanoTime();
+		return numTracksInAlbum.count(start, super.numTracksInAlbum(alb));
+	}
+
+	@Override
+	public int getCreatorSummary(String creator) {
+		long start = System.nanoTime();
+		return getCreatorSummary.count(start, super.getCreatorSummary(creator));
+	}
+
+	//the other overloads delegate to this one, overriding them too would count their calls twice
+	@Override
+	public int getRandomTracks(int list_size, String genre, String country, ResultSink sink) {
+		long start = System.nanoTime();
+		return getRandomTracks.count(start, super.getRandomTracks(list_size, genre, country, sink));
+	}
+
+	@Override
+	public int buildTrackSampler() {
+		long start = System.nanoTime();
+		return buildTrackSampler.count(start, super.buildTrackSampler());
+	}
+
+	@Override
+	public int getRandomTracksOrderByRand(int list_size, ResultSink sink) {
+		long start = System.nanoTime();
+		return getRandomTracksOrderByRand.count(start, super.getRandomTracksOrderByRand(list_size, sink));
+	}
+
+	@Override
+	public int insertAlbum(String albumName, String date, String label, String mediaType) {
+		long start = System.nanoTime();
+		return insertAlbum.id(start, super.insertAlbum(albumName, date, label, mediaType));
+	}
+
+	@Override
+	public int insertRecordLabel(String label, String date, int countryID) {
+		long start = System.nanoTime();
+		return insertRecordLabel.id(start, super.insertRecordLabel(label, date, countryID));
+	}
+
+	@Override
+	public int getRecordLabelID(String label) {
+		long start = System.nanoTime();
+		return getRecordLabelID.id(start, super.getRecordLabelID(label));
+	}
+
+	@Override
+	public int insertAudiofile(String name, Integer rating, Integer duration, Integer countryID, Integer albID, String creator) {
+		long start = System.nanoTime();
+		return insertAudiofile.id(start, super.insertAudiofile(name, rating, duration, countryID, albID, creator));
+	}
+
+	@Override
+	public int insertTrack(TrackSpec track) {
+		long start = System.nanoTime();
+		return insertTrack.id(start, super.insertTrack(track));
+	}
+
+	@Override
+	public boolean addGenreToTrack(int trackID, String genre) {
+		long start = System.nanoTime();
+		boolean added = super.addGenreToTrack(trackID, genre);
+		addGenreToTrack.count(start, added ? 1 : -1);
+		return added;
+	}
+
+	@Override
+	public int insertCreator(String name) {
+		long start = System.nanoTime();
+		return insertCreator.id(start, super.insertCreator(name));
+	}
+
+	@Override
+	public int insertGenre(String genreID, String descrip) {
+		long start = System.nanoTime();
+		return insertGenre.count(start, super.insertGenre(genreID, descrip));
+	}
+
+	@Override
+	public int insertCountry(String name) {
+		long start = System.nanoTime();
+		return insertCountry.id(start, super.insertCountry(name));
+	}
+
+	@Override
+	public int updateGenre(String genre, String descrip) {
+		long start = System.nanoTime();
+		return updateGenre.count(start, super.updateGenre(genre, descrip));
+	}
+
+	@Override
+	public int updateLabelCountry(String label, Integer country) {
+		long start = System.nanoTime();
+		return updateLabelCountry.count(start, super.updateLabelCountry(label, country));
+	}
+
+	@Override
+	public int updateLabelDate(String label, String date) {
+		long start = System.nanoTime();
+		return updateLabelDate.count(start, super.updateLabelDate(label, date));
+	}
+
+	@Override
+	public int updateAlbumRD(int albumID, String date) {
+		long start = System.nanoTime();
+		return updateAlbumRD.count(start, super.updateAlbumRD(albumID, date));
+	}
+
+	@Override
+	public int updateAlbumRL(String album, String label) {
+		long start = System.nanoTime();
+		return updateAlbumRL.count(start, super.updateAlbumRL(album, label));
+	}
+
+	@Override
+	public int updateCountryIDaf(String track_name, String c_name) {
+		long start = System.nanoTime();
+		return updateCountryIDaf.count(start, super.updateCountryIDaf(track_name, c_name));
+	}
+
+	@Override
+	public int getCountryID(String c_name) {
+		long start = System.nanoTime();
+		return getCountryID.id(start, super.getCountryID(c_name));
+	}
+
+	@Override
+	public int deleteCreator(int creatorID) {
+		long start = System.nanoTime();
+		return deleteCreator.count(start, super.deleteCreator(creatorID));
+	}
+
+	@Override
+	public int deleteAlbum(int albumID) {
+		long start = System.nanoTime();
+		return deleteAlbum.count(start, super.deleteAlbum(albumID));
+	}
+
+	@Override
+	public int deleteTrack(int trackID) {
+		long start = System.nanoTime();
+		return deleteTrack.count(start, super.deleteTrack(trackID));
+	}
+
+	@Override
+	public int deleteGenre(String genre) {
+		long start = System.nanoTime();
+		return deleteGenre.count(start, super.deleteGenre(genre));
+	}
+
+	@Override
+	public int deleteLabel(String label) {
+		long start = System.nanoTime();
+		return deleteLabel.count(start, super.deleteLabel(label));
+	}
+
+	@Override
+	public int buildSearchIndex() {
+		long start = System.nanoTime();
+		return buildSearchIndex.count(start, super.buildSearchIndex());
+	}
+
+	@Override
+	public int buildSnapshot() {
+		long start = System.nanoTime();
+		return buildSnapshot.count(start, super.buildSnapshot());
+	}
+
+	@Override
+	public int saveSnapshotFile() {
+		long start = System.nanoTime();
+		return saveSnapshotFile.count(start, super.saveSnapshotFile());
+	}
+
+	@Override
+	public int searchCatalog(String text, ResultSink sink) {
+		long start = System.nanoTime();
+		return searchCatalog.count(start, super.searchCatalog(text, sink));
+	}
+}
@@ -0,0 +1,108 @@
+package main.java;
+
+import java.util.Locale;
+
+/**
+ * Writes the records of one search as a JSON object for SearchServer:
+ * {"search", "text", "genre"?, "tracks": [...], "albums": [...], "creators": [...], "count", "next"?, "message"?, "error"?}
+ * Albums carry their own "tracks" array. Absent values are written as null.
+ */
+class JsonSink implements ResultSink {
+	private final StringBuilder tracks = new StringBuilder();
+	private final StringBuilder albums = new StringBuilder();
+	private final StringBuilder creators = new StringBuilder();
+	private final StringBuilder head = new StringBuilder();
+	private String message;
+	private String next;
+	private String error;
+	private int count;
+
+	@Override
+	public void begin(Search search, String text) {
+		head.append("\"search\": ").append(json(search.name().toLowerCase(Locale.ROOT))).append(", \"text\": ").append(json(text));
+	}
+
+	@Override
+	public void genre(String genreID, String description) {
+		head.append(", \"genre\": {\"id\": ").append(json(genreID)).append(", \"description\": ").append(json(description)).append('}');
+	}
+
+	@Override
+	public void track(Track t) {
+		append(tracks, t);
+	}
+
+	@Override
+	public void album(Album a) {
+		if (albums.length() > 0) albums.append(", ");
+		albums.append("{\"albumID\": ").append(a.albumID)
+				.append(", \"name\": ").append(json(a.name))
+				.append(", \"mediaType\": ").append(json(a.mediaType))
+				.append(", \"releaseDate\": ").append(json(a.releaseDate))
+				.append(", \"label\": ").append(json(a.label))
+				.append(", \"trackCount\": ").append(a.trackCount)
+				.append(", \"seconds\": ").append(a.totalSeconds)
+				.append(", \"tracks\": [");
+		StringBuilder listed = new StringBuilder();
+		for (Track t : a.tracks) append(listed, t);
+		albums.append(listed).append("]}");
+	}
+
+	@Override
+	public void creator(Creator c) {
+		if (creators.length() > 0) creators.append(", ");
+		creators.append("{\"creatorID\": ").append(c.creatorID).append(", \"name\": ").append(json(c.name)).append('}');
+	}
+
+	@Override
+	public void next(String token) {
+		this.next = token;
+	}
+
+	@Override
+	public void empty(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public void error(String message) {
+		this.error = message;
+	}
+
+	@Override
+	public void end(int count) {
+		this.count = count;
+	}
+
+	/** @return the whole object, once the search has ended */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(head.length() + tracks.length() + albums.length() + creators.length() + 128);
+		sb.append('{').append(head).append(", \"count\": ").append(count)
+				.append(", \"tracks\": [").append(tracks)
+				.append("], \"albums\": [").append(albums)
+				.append("], \"creators\": [").append(creators).append(']');
+		if (next != null) sb.append(", \"next\": ").append(json(next));
+		if (message != null) sb.append(", \"message\": ").append(json(message));
+		if (error != null) sb.append(", \"error\": ").append(json(error));
+		return sb.append('}').toString();
+	}
+
+	private static void append(StringBuilder sb, Track t) {
+		if (sb.length() > 0) sb.append(", ");
+		sb.append("{\"trackID\": ").append(t.trackID)
+				.append(", \"title\": ").append(json(t.title))
+				.append(", \"seconds\": ").append(t.duration)
+				.append(", \"explicit\": ").append(t.explicit)
+				.append(", \"creatorID\": ").append(t.creatorID)
+				.append(", \"creator\": ").append(json(t.creator))
+				.append(", \"albumID\": ").append(t.albumID)
+				.append(", \"album\": ").append(json(t.album))
+				.append(", \"releaseDate\": ").append(json(t.releaseDate))
+				.append('}');
+	}
+
+	private static String json(String s) {
+		return SearchServer.json(s);
+	}
+}
@@ -0,0 +1,74 @@
+package main.java;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with log-linear buckets in the style of HdrHistogram.
+ * Values below 128 get a bucket each; above that every power of two is split into 64 buckets, so a
+ * recorded value is off by at most 1/64 (about 1.6%) of itself. All buckets are allocated up front and
+ * record() is a single atomic increment, so recording allocates nothing and needs no lock.
+ * Percentiles read the buckets without stopping writers and may miss values recorded meanwhile.
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKETS = 64;
+	private static final int DIRECT = 2 * SUB_BUCKETS;
+	//a value of 2^63 - 1 has its top bit at 62 and lands in the last bucket
+	private static final int BUCKETS = DIRECT + (62 - 6) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLongArray summary = new AtomicLongArray(2); //total count, max value
+
+	/** @param value a non-negative value, e.g. nanoseconds. Negative values are recorded as 0. */
+	void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(bucket(value));
+		summary.incrementAndGet(0);
+		long max = summary.get(1);
+		while (value > max && !summary.compareAndSet(1, max, value)) max = summary.get(1);
+	}
+
+	long count() {
+		return summary.get(0);
+	}
+
+	long max() {
+		return summary.get(1);
+	}
+
+	/**
+	 * @param percentile e.g. 99.9
+	 * @return the highest value of the bucket the percentile falls in, at most max(). 0 if nothing was recorded.
+	 */
+	long percentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) total += counts.get(i);
+		if (total == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100.0) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(upperBound(i), max());
+		}
+		return max();
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+		summary.set(0, 0);
+		summary.set(1, 0);
+	}
+
+	//values below 128 map to themselves, larger ones keep their top 7 bits
+	static int bucket(long value) {
+		if (value < DIRECT) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+		return DIRECT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < DIRECT) return bucket;
+		int shift = (bucket - DIRECT) / SUB_BUCKETS + 1;
+		long sub = (bucket - DIRECT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,129 @@
+package main.java;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
+
+/**
+ * The OperationMetrics of every instrumented operation, registered as MBeans on the platform MBean server
+ * and optionally printed as a table every few seconds.
+ */
+class Metrics implements AutoCloseable {
+	private final Map<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+	private final List<ObjectName> registered = new ArrayList<>();
+	//printed below the operations by dump(), if registered
+	private volatile ResultCache resultCache;
+	//calls per operation at the last dump, for the calls/sec column
+	private final Map<String, Long> lastCalls = new HashMap<>();
+	private long lastDump = System.nanoTime();
+	private ScheduledExecutorService dumper;
+	private PrintStream dumpOut;
+
+	/**
+	 * @param name Operation name, also the name property of its MBean.
+	 * @return the metrics of the operation, created and registered on first use
+	 */
+	OperationMetrics operation(String name) {
+		return operations.computeIfAbsent(name, n -> {
+			OperationMetrics m = new OperationMetrics(n);
+			register(m);
+			return m;
+		});
+	}
+
+	//a failed registration (e.g. a second Metrics in the same JVM) only loses the JMX view
+	private void register(OperationMetrics m) {
+		try {
+			ObjectName name = new ObjectName("main.java:type=Queries,name=" + ObjectName.quote(m.name()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(m, name);
+			synchronized (registered) {
+				registered.add(name);
+			}
+		} catch (JMException e) {
+			System.out.println("Error registering MBean for " + m.name() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Registers the search result cache as an MBean and adds its hit ratio and size to the table.
+	 */
+	void resultCache(ResultCache cache) {
+		resultCache = cache;
+		try {
+			ObjectName name = new ObjectName("main.java:type=ResultCache");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(cache, name);
+			synchronized (registered) {
+				registered.add(name);
+			}
+		} catch (JMException e) {
+			System.out.println("Error registering MBean for the result cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Prints the table every intervalSeconds on a daemon thread, and once more when close() is called.
+	 */
+	synchronized void startDump(PrintStream out, long intervalSeconds) {
+		if (dumper != null) return;
+		dumpOut = out;
+		dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "metrics-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		dumper.scheduleAtFixedRate(() -> dump(out), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Prints one line per operation that was called at least once. Totals are since start (or the last reset),
+	 * calls/sec is since the previous dump.
+	 */
+	synchronized void dump(PrintStream out) {
+		long now = System.nanoTime();
+		double seconds = Math.max((now - lastDump) / 1e9, 1e-9);
+		lastDump = now;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-26s %9s %7s %10s %9s %9s %9s %9s %9s\n",
+				"operation", "calls", "errors", "rows", "calls/s", "p50 us", "p99 us", "p999 us", "max us"));
+		for (OperationMetrics m : operations.values()) {
+			long calls = m.getCalls();
+			if (calls == 0) continue;
+			Long before = lastCalls.put(m.name(), calls);
+			long recent = calls - ((before == null || before > calls) ? 0 : before);
+			sb.append(String.format("%-26s %9d %7d %10d %9.1f %9d %9d %9d %9d\n", m.name(), calls, m.getErrors(),
+					m.getRows(), recent / seconds, m.getP50Micros(), m.getP99Micros(), m.getP999Micros(), m.getMaxMicros()));
+		}
+		ResultCache cache = resultCache;
+		if (cache != null)
+			sb.append(String.format("result cache: %.1f%% hits (%d of %d), %d entries, %d KB, %d evicted, %d invalidated\n",
+					cache.getHitRatio() * 100, cache.getHits(), cache.getHits() + cache.getMisses(), cache.getEntries(),
+					cache.getEstimatedBytes() / 1024, cache.getEvictions(), cache.getInvalidations()));
+		out.print(sb);
+		out.flush();
+	}
+
+	/** Stops the periodic dump after printing a last table, and unregisters the MBeans. */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (dumper != null) {
+				dumper.shutdownNow();
+				dumper = null;
+				dump(dumpOut);
+			}
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		synchronized (registered) {
+			for (ObjectName name : registered) {
+				try {
+					server.unregisterMBean(name);
+				} catch (JMException e) {
+					//already gone
+				}
+			}
+			registered.clear();
+		}
+	}
+}
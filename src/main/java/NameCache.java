@@ -0,0 +1,62 @@
+package main.java;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of name to ID lookups for the small reference tables (record labels, countries, creators).
+ * Only names that were found are cached. Queries invalidates entries whenever it deletes the row behind them.
+ */
+class NameCache {
+	enum Kind { LABEL, COUNTRY, CREATOR }
+
+	public static final int DEFAULT_SIZE = 1024;
+
+	private final Map<Kind, LinkedHashMap<String, Integer>> maps = new EnumMap<>(Kind.class);
+	private long hits = 0;
+	private long misses = 0;
+
+	NameCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/** @param maxPerKind number of names kept per table before the least recently used one is dropped */
+	NameCache(int maxPerKind) {
+		for (Kind kind : Kind.values()) {
+			maps.put(kind, new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+					return size() > maxPerKind;
+				}
+			});
+		}
+	}
+
+	/** @return the cached ID, or null if the name has to be looked up */
+	synchronized Integer get(Kind kind, String name) {
+		Integer id = maps.get(kind).get(name);
+		if (id == null) misses++;
+		else hits++;
+		return id;
+	}
+
+	synchronized void put(Kind kind, String name, int id) {
+		if (name != null && id > 0) maps.get(kind).put(name, id);
+	}
+
+	//drops every name mapped to the ID, since lookups may have cached it under differently cased names
+	synchronized void invalidateID(Kind kind, int id) {
+		maps.get(kind).values().removeIf(v -> v == id);
+	}
+
+	synchronized void clear(Kind kind) {
+		maps.get(kind).clear();
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+}
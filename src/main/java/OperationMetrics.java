@@ -0,0 +1,90 @@
+package main.java;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Calls, errors, rows and latency of one Queries operation.
+ */
+class OperationMetrics implements OperationMetricsMBean {
+	private final String name;
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	//nanoseconds
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	OperationMetrics(String name) {
+		this.name = name;
+	}
+
+	String name() {
+		return name;
+	}
+
+	/**
+	 * Records one call that returned a row count.
+	 * @param startNanos System.nanoTime() before the call
+	 * @param result rows returned or changed, negative on error
+	 * @return result, so calls can be wrapped in place
+	 */
+	int count(long startNanos, int result) {
+		latency.record(System.nanoTime() - startNanos);
+		calls.increment();
+		if (result < 0) errors.increment();
+		else rows.add(result);
+		return result;
+	}
+
+	/**
+	 * Records one call that returned a generated or looked up ID.
+	 * @param id ID found or created, 0 if none, negative on error
+	 * @return id
+	 */
+	int id(long startNanos, int id) {
+		count(startNanos, (id > 0) ? 1 : id);
+		return id;
+	}
+
+	@Override
+	public long getCalls() {
+		return calls.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getRows() {
+		return rows.sum();
+	}
+
+	@Override
+	public long getP50Micros() {
+		return latency.percentile(50) / 1000;
+	}
+
+	@Override
+	public long getP99Micros() {
+		return latency.percentile(99) / 1000;
+	}
+
+	@Override
+	public long getP999Micros() {
+		return latency.percentile(99.9) / 1000;
+	}
+
+	@Override
+	public long getMaxMicros() {
+		return latency.max() / 1000;
+	}
+
+	@Override
+	public void reset() {
+		calls.reset();
+		errors.reset();
+		rows.reset();
+		latency.reset();
+	}
+}
@@ -0,0 +1,25 @@
+package main.java;
+
+/**
+ * JMX view of one Queries operation, registered as main.java:type=Queries,name=&lt;operation&gt;.
+ * Latencies are in microseconds.
+ */
+public interface OperationMetricsMBean {
+	long getCalls();
+
+	long getErrors();
+
+	/** rows returned by searches, or inserted/updated/deleted by the other operations */
+	long getRows();
+
+	long getP50Micros();
+
+	long getP99Micros();
+
+	long getP999Micros();
+
+	long getMaxMicros();
+
+	/** clears every counter and the latency histogram */
+	void reset();
+}
@@ -1,115 +1,379 @@
 
 package main.java;
 
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 
 public class Queries {
-	private Connection conn;
-	private Random rand;
+	private ConnectionPool pool;
+	private IdAllocator ids;
 	private Scanner in;
+	//name to ID lookups for labels, countries and creators
+	private NameCache names = new NameCache();
+	//keyword index over track, album and creator names, see buildSearchIndex()
+	private SearchIndex index = new SearchIndex();
+	//TrackID lists for getRandomTracks, filled on first use
+	private TrackSampler sampler = new TrackSampler();
+	//search results are printed through this buffer instead of straight to System.out
+	private ResultPrinter out = new ResultPrinter(System.out);
+	//rows fetched per round trip by the search methods, see setFetchSize()
+	private int fetchSize = DEFAULT_FETCH_SIZE;
+	//what insertAudiofile does about unknown creators, see setMissingCreator()
+	private MissingCreator missingCreator = MissingCreator.ASK;
+	//connection a script runs all of its operations on, see pin(), and the tables written on it so far
+	private final ThreadLocal<Connection> pinned = new ThreadLocal<>();
+	private final ThreadLocal<EnumSet<CatalogTable>> pinnedWrites = ThreadLocal.withInitial(() -> EnumSet.noneOf(CatalogTable.class));
+	//statements over its threshold are logged with their plan, see setSlowQueryLog()
+	private SlowQueryLog slowLog;
+	//read replicas for the searches and lookups, see setReplicas()
+	private ReplicaRouter replicas;
+	//recent search results, see setResultCache()
+	private ResultCache results;
+	//in-memory copy of the catalog the searches are answered from, see buildSnapshot(), and the tables
+	//written since it was loaded
+	private volatile CatalogSnapshot snapshot;
+	private final EnumSet<CatalogTable> staleTables = EnumSet.noneOf(CatalogTable.class);
+	private final Object snapshotRefresh = new Object();
+	//stale tables are read again on this thread, see snapshot(). the tables it is reading and whether a refresh
+	//is waiting to run are guarded by staleTables
+	private final ExecutorService snapshotRefresher = Executors.newSingleThreadExecutor(r -> {
+		//daemon thread so a pending refresh never keeps the JVM alive
+		Thread t = new Thread(r, "zene-snapshot-refresh");
+		t.setDaemon(true);
+		return t;
+	});
+	private final EnumSet<CatalogTable> refreshingTables = EnumSet.noneOf(CatalogTable.class);
+	private boolean refreshQueued = false;
+	//file the snapshot is kept in between runs, see setSnapshotFile(), and whether the snapshot has been refreshed
+	//since it was last written there
+	private Path snapshotFile;
+	private boolean snapshotUnsaved = false;
+	//whether writes increment adb.catalogversion, see setCatalogVersion(), its value when the snapshot was loaded,
+	//and the increments committed through here since
+	private volatile boolean catalogVersion = false;
+	private long snapshotVersion = 0;
+	private final AtomicLong versionsWritten = new AtomicLong();
+	//album and creator aggregates kept up to date by the writes, see setCatalogSummary()
+	private CatalogSummary summaries;
 
-	public Queries(Connection c, Scanner in) {
-		this.conn = c;
+	/** What insertAudiofile does when the track's creator is not in the database yet. */
+	public enum MissingCreator {
+		//prompt on the Scanner, the interactive default
+		ASK,
+		//add the creator without asking
+		CREATE,
+		//fail the insert
+		REJECT
+	}
+
+	public static final int DEFAULT_FETCH_SIZE = 1000;
+	//tracks or albums per page of the paged searches in the menu and the HTTP mode
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	//largest page size the paged searches accept
+	public static final int MAX_PAGE_SIZE = 10000;
+
+	//most rows shown per section by searchCatalog, also the number of ? in SEARCH_IDS
+	static final int SEARCH_LIMIT = 25;
+	//fixed size IN list so detail lookups always use the same cached statement. unused slots get ID -1
+	private static final String SEARCH_IDS = "(" + String.join(", ", Collections.nCopies(SEARCH_LIMIT, "?")) + ")";
+	//the statements kept in package-private constants are the ones SchemaMigrator.verify() runs EXPLAIN on
+	//track columns of the searches joining audiofile, creator and album, read back by track()
+	private static final String TRACK_COLUMNS = "audiofile.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit,"
+			+ " creator.CreatorID, creator.Name AS Creator, album.AlbumID, AlbumName AS Album, date(ReleaseDate) AS ReleaseDate";
+	//the same for the track lists that do not join album
+	private static final String SAMPLE_COLUMNS = "audiofile.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit,"
+			+ " creator.CreatorID, creator.Name AS Creator, audiofile.AlbumID, NULL AS Album, NULL AS ReleaseDate";
+
+	//tables read by the cached searches, their results are dropped when one of them is written
+	private static final EnumSet<CatalogTable> TRACK_TABLES = EnumSet.of(CatalogTable.ALBUM,
+			CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.CREATOR);
+	private static final EnumSet<CatalogTable> ALBUM_TABLES = EnumSet.of(CatalogTable.ALBUM,
+			CatalogTable.RECORDLABEL, CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.CREATOR);
+	private static final EnumSet<CatalogTable> GENRE_TABLES = EnumSet.of(CatalogTable.ALBUM,
+			CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.CREATOR,
+			CatalogTable.INGENRE, CatalogTable.GENRE);
+	private static final EnumSet<CatalogTable> RATING_TABLES = EnumSet.of(CatalogTable.AUDIOFILE,
+			CatalogTable.CREATEDBY, CatalogTable.CREATOR);
+	private static final EnumSet<CatalogTable> COUNTRY_TABLES = EnumSet.of(CatalogTable.ALBUM,
+			CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.CREATOR, CatalogTable.COUNTRY);
+	private static final EnumSet<CatalogTable> COUNTRY_CODE_TABLES = EnumSet.of(CatalogTable.COUNTRY);
+
+	/**
+	 * @param pool Pool that each operation borrows its own connection from.
+	 * @param in Scanner used for the few prompts that happen mid-operation.
+	 */
+	public Queries(ConnectionPool pool, Scanner in) {
+		this(pool, in, new BlockIdAllocator(pool));
+	}
+
+	/**
+	 * @param pool Pool that each operation borrows its own connection from.
+	 * @param in Scanner used for the few prompts that happen mid-operation.
+	 * @param ids Source of primary keys for inserted rows.
+	 */
+	public Queries(ConnectionPool pool, Scanner in, IdAllocator ids) {
+		this.pool = pool;
 		this.in = in;
-		this.rand = new Random();
+		this.ids = ids;
 	}
 	
+	/**
+	 * Sets how many rows the search methods ask the driver to fetch per round trip, so large results are
+	 * streamed through a forward-only cursor instead of being loaded into memory before the first row prints.
+	 * MySQL Connector/J only honours positive sizes when the url has useCursorFetch=true;
+	 * Integer.MIN_VALUE selects its row-by-row streaming mode instead.
+	 * @param fetchSize rows per fetch, 0 for the driver default
+	 */
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Sets how insertAudiofile handles a creator name that is not in the database,
+	 * so non-interactive callers never block on the Scanner.
+	 * @param policy ASK (default), CREATE or REJECT
+	 */
+	public void setMissingCreator(MissingCreator policy) {
+		this.missingCreator = policy;
+	}
+
+	/**
+	 * Logs statements that run longer than the log's threshold, with their parameters and EXPLAIN plan.
+	 * @param slowLog Log to write to, or null to stop logging.
+	 */
+	public void setSlowQueryLog(SlowQueryLog slowLog) {
+		this.slowLog = slowLog;
+	}
+
+	/**
+	 * Runs searches and lookups on read replicas. Inserts, updates and deletes keep using the pool
+	 * given to the constructor, which must be the router's primary.
+	 * @param replicas Router to borrow read connections from, or null to read from the primary again.
+	 */
+	public void setReplicas(ReplicaRouter replicas) {
+		this.replicas = replicas;
+	}
+
+	/**
+	 * Answers repeated searches from the cache instead of the database. Inserts, updates and deletes
+	 * drop the cached results of the tables they change; random track lists and the album statistics are never cached.
+	 * @param results Cache to use, or null to always search the database.
+	 */
+	public void setResultCache(ResultCache results) {
+		this.results = results;
+	}
+
+	/**
+	 * Keeps the catalog snapshot in a file, which buildSnapshot() maps instead of reading the tables when it still
+	 * matches the database. The file is written when buildSnapshot() loads the tables and by saveSnapshotFile();
+	 * refreshes after writes only change the snapshot in memory.
+	 * @param file Snapshot file, or null to load the snapshot from the database every time.
+	 */
+	public void setSnapshotFile(Path file) {
+		this.snapshotFile = file;
+	}
+
+	/**
+	 * Increments the change counter in adb.catalogversion in the transaction of every write, so the fingerprint of a
+	 * snapshot file also changes when rows are only updated, and saveSnapshotFile() can tell if another program or
+	 * another Zene wrote since the snapshot was loaded. Only set this once the counter exists (schema version
+	 * CatalogSnapshot.SCHEMA_VERSION); every program writing the catalog through Queries should set it.
+	 */
+	public void setCatalogVersion(boolean enabled) {
+		this.catalogVersion = enabled;
+	}
+
+	/**
+	 * Maintains the album and creator summary tables in the same transaction as every track, album and creator
+	 * write, and reads the album statistics and creator summaries from them instead of aggregating the tracks.
+	 * Only set this once the summary tables exist (schema version CatalogSummary.SCHEMA_VERSION).
+	 * @param summaries Summaries to maintain, or null to compute the statistics from the tracks.
+	 */
+	public void setCatalogSummary(CatalogSummary summaries) {
+		this.summaries = summaries;
+	}
+
+	/**
+	 * Runs every following operation of the calling thread on conn instead of a connection borrowed from the pool.
+	 * Operations still call commit() and close() on it, so conn should ignore both and leave
+	 * committing to the caller; ScriptRunner uses this to commit many commands at once.
+	 */
+	void pin(Connection conn) {
+		pinned.set(conn);
+	}
+
+	void unpin() {
+		pinned.remove();
+	}
+
+	//commits the calling thread's pinned connection, counting the script's writes in the change counter first,
+	//and reports the tables they touched
+	void commitPinned(Connection conn) throws SQLException {
+		boolean counted = catalogVersion && !pinnedWrites.get().isEmpty();
+		if (counted) CatalogSnapshot.countWrite(conn);
+		conn.commit();
+		if (counted) versionsWritten.incrementAndGet();
+		flushWrites();
+	}
+
+	//console output for searches the caller runs with its own sink, e.g. a page at a time
+	ConsoleSink consoleSink() {
+		return new ConsoleSink(out, false);
+	}
+
+	//drops cached name lookups, e.g. after rows they point to were rolled back
+	void clearNameCache() {
+		for (NameCache.Kind kind : NameCache.Kind.values()) names.clear(kind);
+	}
+
+	//reports the tables written on the calling thread's pinned connection since the last call,
+	//once the script has committed or rolled back its commands
+	void flushWrites() {
+		EnumSet<CatalogTable> tables = pinnedWrites.get();
+		if (tables.isEmpty()) return;
+		written(EnumSet.copyOf(tables));
+		tables.clear();
+	}
+
+	static final String CREATOR_SQL = "SELECT " + TRACK_COLUMNS
+			+ " FROM album, audiofile, createdby, creator "
+			+ "WHERE album.AlbumID = audioFile.AlbumID "
+			+ "AND audiofile.TrackID = createdby.TrackID "
+			+ "AND createdby.CreatorID = creator.CreatorID "
+			+ "AND creator.Name = ? "
+			+ "ORDER BY ReleaseDate ASC;"; //order results by release date of album
+
 	/**
 	 * queryByCreator prints the track name, track duration, album name, and release date of all audio files by creator queried
 	 * @param ctr -creator name
 	 */
 	public int queryByCreator(String ctr, boolean printIDs) {
+		return queryByCreator(ctr, new ConsoleSink(out, printIDs));
+	}
+
+	/**
+	 * Passes every track by the creator to the sink, oldest album first.
+	 * @param ctr -creator name
+	 * @return number of tracks passed, or -1 on error
+	 */
+	public int queryByCreator(String ctr, ResultSink sink) {
+		Integer cached = replay(sink, "queryByCreator", ctr);
+		if (cached != null) return cached;
+		sink = record(sink, TRACK_TABLES, "queryByCreator", ctr);
+		sink.begin(ResultSink.Search.CREATOR, ctr);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByCreator(ctr, sink), "No results found for " + ctr);
 		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT ReleaseName, trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(Duration))) AS Duration, AlbumName, date(ReleaseDate) AS ReleaseDate, creator.CreatorID "
-				+ "FROM album, audiofile, createdby, creator "
-				+ "WHERE album.AlbumID = audioFile.AlbumID "
-				+ "AND audiofile.TrackID = createdby.TrackID "
-				+ "AND createdby.CreatorID = creator.CreatorID "
-				+ "AND creator.Name = ? "
-				+ "ORDER BY ReleaseDate ASC;")) //order results by release date of album
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(CREATOR_SQL))
 		{
 			pstmt.setString(1, ctr);
 			//make query
-			try (ResultSet rs = pstmt.executeQuery()) {
-				//check if results were found
-				if(!rs.next()) {
-					System.out.println ("No results found for " + ctr);
-				} else {
-					//display results
-					System.out.println("From Creator: " + ctr + " (cid " + rs.getString("CreatorID") + ")");
-					System.out.printf("%4s   %-20s   %5s   %-64s\n", "Year", "Album Name", "Drtn.", "Audio File Name");
-					System.out.println("----------------------------------------------------------");
-					 do {
-					 	count++;
-						String duration = rs.getString("Duration");
-						String aName = abbreviate(rs.getString("AlbumName"), 20);
-						String releaseDate = abbreviate(nullable(rs.getString("ReleaseDate")), 4);
-						String title = abbreviate(rs.getString("ReleaseName"), 20);
-						System.out.printf("%4s │ %-20s │ %5s │ %-20s", releaseDate, aName, duration, title);
-						if (printIDs) System.out.printf(" | ID: %s\n", rs.getInt("creator.CreatorID"));
-						else System.out.println();
-					} while(rs.next());
-					System.out.println(); //newline to separate results from next menu
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				while (rs.next()) {
+					sink.track(track(rs));
+					count++;
 				}
 			}
 		} catch (Exception exc){
-			System.out.println("Error when searching for artist \"" + ctr + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for artist \"" + ctr + "\": " + exc.getMessage());
 		}
-		return count;
+		return finish(sink, count, "No results found for " + ctr);
 	}
 
+	static final String TITLE_SQL = "SELECT " + TRACK_COLUMNS +
+			" FROM album, audiofile" +
+			" LEFT JOIN createdby" +
+			" ON audiofile.TrackID = createdby.TrackID" +
+			" LEFT JOIN creator" +
+			" ON creator.CreatorID = createdby.CreatorID" +
+			" WHERE album.AlbumID = audioFile.AlbumID" +
+			" AND audiofile.ReleaseName = ?" +
+			" ORDER BY ReleaseDate ASC;"; //if two songs have name order by release date
+
 	/**
 	 * querybyAudioTitle take in track name and prints track name, duration of track, creator name, album name, and release date
 	 * @param title - title of audio file queried
 	 */
 	public int queryByAudioTitle(String title, boolean printIDs) {
+		return queryByAudioTitle(title, new ConsoleSink(out, printIDs));
+	}
+
+	/**
+	 * Passes every track with the title to the sink, once per creator.
+	 * @param title - title of audio file queried
+	 * @return number of tracks passed, or -1 on error
+	 */
+	public int queryByAudioTitle(String title, ResultSink sink) {
+		Integer cached = replay(sink, "queryByAudioTitle", title);
+		if (cached != null) return cached;
+		sink = record(sink, TRACK_TABLES, "queryByAudioTitle", title);
+		sink.begin(ResultSink.Search.TITLE, title);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByAudioTitle(title, sink), "No results found for " + title);
 		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT ReleaseName, creator.Name, trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(Duration))) AS Duration, AlbumName, date(ReleaseDate) AS ReleaseDate, ExplicitRating, audiofile.TrackID" +
-				" FROM album, audiofile" +
-				" LEFT JOIN createdby" +
-				" ON audiofile.TrackID = createdby.TrackID" +
-				" LEFT JOIN creator" +
-				" ON creator.CreatorID = createdby.CreatorID" +
-				" WHERE album.AlbumID = audioFile.AlbumID" +
-				" AND audiofile.ReleaseName = ?" +
-				" ORDER BY ReleaseDate ASC;")) //if two songs have name order by release date
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(TITLE_SQL))
 		{
 			pstmt.setString(1, title);
 			//make query
-			try (ResultSet rs = pstmt.executeQuery()) {
-				//check if results were found
-				if(!rs.next()) {
-					System.out.println ("No results found for " + title);
-				} else {
-					//display results
-					System.out.printf("%-22s   %-18s   %-5s   %-20s   %-8s   %10s\n", "Audio File Name:", "Creator:", "Drtn.", "Album Name:", "Explicit:", "Released:");
-					System.out.println("\t---------------------------------------");
-					do {
-						count++;
-						System.out.printf("%-22s │ %-18s │ %-5s │ %-20s │ %-9s │ %10s",
-								abbreviate(rs.getString("ReleaseName"), 22),
-								abbreviate(nullable(rs.getString("creator.Name")), 18),
-								rs.getString("Duration"),
-								abbreviate(rs.getString("AlbumName"), 20),
-								(rs.getInt("ExplicitRating") == 0) ? "Clean" : "Explicit", //replace 0/1 rating with words
-								nullable(rs.getString("ReleaseDate")));
-						if (printIDs) System.out.printf(" | ID: %s\n", rs.getInt("audiofile.TrackID"));
-						else System.out.println();
-					} while(rs.next());
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				while (rs.next()) {
+					sink.track(track(rs));
+					count++;
 				}
 			}
 		} catch (Exception exc){
-			System.out.println("Error when searching for track \"" + title + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for track \"" + title + "\": " + exc.getMessage());
 		}
-		return count;
+		return finish(sink, count, "No results found for " + title);
 	}
 
+	static final String ALBUM_SQL = "SELECT album.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, recordlabel.Name AS Label, SUM(Duration) AS Seconds, count(audiofile.TrackID) AS Count" +
+			" FROM album" +
+			" LEFT JOIN recordlabel" +
+			" ON album.LabelID = recordlabel.LabelID" +
+			" LEFT JOIN audiofile" +
+			" ON audiofile.AlbumID = album.AlbumID" +
+			" WHERE album.AlbumName = ?" +
+			" GROUP BY album.AlbumID" +
+			" ORDER BY ReleaseDate DESC;";
+	//the summary row replaces counting the album's tracks
+	static final String ALBUM_SUMMARY_SQL = "SELECT album.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, recordlabel.Name AS Label, s.TotalDuration AS Seconds, COALESCE(s.TrackCount, 0) AS Count" +
+			" FROM album" +
+			" LEFT JOIN recordlabel" +
+			" ON album.LabelID = recordlabel.LabelID" +
+			" LEFT JOIN albumsummary AS s" +
+			" ON s.AlbumID = album.AlbumID" +
+			" WHERE album.AlbumName = ?" +
+			" ORDER BY ReleaseDate DESC;";
+	static final String ALBUM_TRACKS_SQL = "SELECT album.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, recordlabel.Name AS Label," +
+			" audiofile.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit, creator.Name AS Creator" +
+			" FROM album" +
+			" LEFT JOIN recordlabel" +
+			" ON album.LabelID = recordlabel.LabelID" +
+			" LEFT JOIN audiofile" +
+			" ON audiofile.AlbumID = album.AlbumID" +
+			" LEFT JOIN createdby" +
+			" ON createdby.TrackID = audiofile.TrackID" +
+			" LEFT JOIN creator" +
+			" ON createdby.CreatorID = creator.CreatorID" +
+			" WHERE album.AlbumName = ?" +
+			" ORDER BY ReleaseDate DESC, album.AlbumID, audiofile.TrackID;";
+
 	/**
 	 * queryByAlbumTitle prints the album name, creator name, total duration of album, release date, label if applicable and
 	 * country if applicable. It then prints track info for tracks in album
@@ -118,351 +382,572 @@ public class Queries {
 	 * @return A map of index+albumID pairs
 	 */
 	public Map<Integer, Integer> queryByAlbumTitle(String title, boolean printTracks) {
-		Map<Integer, Integer> results = null;
+		ConsoleSink sink = new ConsoleSink(out, false);
+		if (queryByAlbumTitle(title, printTracks, sink) <= 0) return null;
+		Map<Integer, Integer> results = new HashMap<>();
+		List<Integer> albumIDs = sink.albumIDs();
+		for (int i = 0; i < albumIDs.size(); i++) results.put(i + 1, albumIDs.get(i));
+		return results;
+	}
+
+	/**
+	 * Passes every album with the title to the sink, newest first.
+	 * @param title - title of album queried
+	 * @param tracks Whether the albums should include their tracks.
+	 * @return number of albums passed, or -1 on error
+	 */
+	public int queryByAlbumTitle(String title, boolean tracks, ResultSink sink) {
+		Integer cached = replay(sink, "queryByAlbumTitle", title, tracks);
+		if (cached != null) return cached;
+		sink = record(sink, ALBUM_TABLES, "queryByAlbumTitle", title, tracks);
+		if (tracks) return queryAlbumTracksByTitle(title, sink);
+		sink.begin(ResultSink.Search.ALBUM, title);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByAlbumTitle(title, false, sink), "No results found for " + title);
+		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT album.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, recordlabel.Name AS Label, trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(SUM(Duration)))) AS Duration, count(audiofile.TrackID) AS Count" +
-				" FROM album" +
-				" LEFT JOIN recordlabel" +
-				" ON album.LabelID = recordlabel.LabelID" +
-				" LEFT JOIN audiofile" +
-				" ON audiofile.AlbumID = album.AlbumID" +
-				" WHERE album.AlbumName = ?" +
-				" GROUP BY album.AlbumID" +
-				" ORDER BY ReleaseDate DESC;"))
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement((summaries != null) ? ALBUM_SUMMARY_SQL : ALBUM_SQL))
 		{
 			pstmt.setString(1, title);
 			//make query
-			try (ResultSet rs = pstmt.executeQuery()) {
-				//check if results were found
-				if(!rs.next()) {
-					System.out.println ("No results found for " + title);
-				} else {
-					//print album info
-					results = new HashMap<>();
-					int i = 0;
-					do {
-						i++;
-
-						int albumCount = rs.getInt("Count");
-						int albumID = rs.getInt("album.AlbumID");
-						results.put(i, albumID);
-						String prefix = (printTracks) ? "Album: " : "  " + i + ": ";
-						String boxString = "  ";
-						if (albumCount > 0 && printTracks) boxString = "┌─";
-
-						System.out.printf("%-7s" + boxString + "%-20s │ %7s │ %8s │ %10s | %s\n",
-								prefix,
-								rs.getString("AlbumName"),
-								nullable(rs.getString("Duration")),
-								rs.getString("MediaType"),
-								nullable(rs.getString("ReleaseDate")),
-								nullable(rs.getString("Label"))
-						);
-
-						//print tracks for each album, if any are present
-						if (printTracks) queryTracksByAlbumID(rs.getInt("AlbumID"), albumCount);
-					} while(rs.next());
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				while (rs.next()) {
+					int tracksFound = rs.getInt("Count");
+					long seconds = rs.getLong("Seconds");
+					sink.album(new Album(rs.getInt("AlbumID"), rs.getString("AlbumName"), rs.getString("MediaType"),
+							rs.getString("ReleaseDate"), rs.getString("Label"), tracksFound,
+							(tracksFound == 0) ? null : seconds, Collections.<Track>emptyList()));
+					count++;
 				}
 			}
 		} catch (Exception exc){
-			System.out.println("Error when searching for album \"" + title + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for album \"" + title + "\": " + exc.getMessage());
 		}
-		return results;
+		return finish(sink, count, "No results found for " + title);
 	}
 
-	//called from any query that needs to print track info per album.
-	private void queryTracksByAlbumID(int albumID, int count) {
+	//queryByAlbumTitle with track listing. Albums and their tracks come back from one joined query
+	//and are grouped by AlbumReader, rather than running a track query per album
+	private int queryAlbumTracksByTitle(String title, ResultSink sink) {
+		sink.begin(ResultSink.Search.ALBUM_TRACKS, title);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByAlbumTitle(title, true, sink), "No results found for " + title);
+		int count;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT ReleaseName AS Title, trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(Duration))) AS Duration, ExplicitRating AS Explicit, creator.Name AS Creator" +
-				" FROM audiofile" +
-				" LEFT JOIN createdby" +
-				" ON createdby.TrackID = audiofile.TrackID" +
-				" LEFT JOIN creator" +
-				" ON createdby.CreatorID = creator.CreatorID" +
-				" WHERE AlbumID = ?;"))
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(ALBUM_TRACKS_SQL))
 		{
-			pstmt.setInt(1, albumID);
-			try (ResultSet rs = pstmt.executeQuery()){
-				if(!rs.next()) {
-					System.out.println ("         No tracks found for album ID: " + albumID + "\n");
-				} else {
-					String boxShape = "├─";
-					System.out.printf("       │ %-20s   %7s   %8s   %s\n", "      -Title-", "-Drtn-", "-Rating-", "-Creator-");
-					int c = 0;
-					do {
-						if (++c == count) boxShape = "└─";
-						String creator = abbreviate(nullable(rs.getString("Creator")), 20);
-						String rating = (rs.getInt("Explicit") == 0) ? "Clean" : "Explicit"; //convert 0/1 to string
-						String duration = rs.getString("Duration");
-						String title = abbreviate(rs.getString("Title"), 20);
-						System.out.printf("       %2s%-20s │ %7s │ %8s │ %-20s\n", boxShape, title, duration, rating, creator);
-					} while (rs.next());
-					System.out.println();
-				}
+			pstmt.setString(1, title);
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				count = AlbumReader.read(rs, sink);
 			}
-		} catch (SQLException e) {
-			System.out.println("Error when searching for albumID \"" + albumID + "\": " + e.getMessage());
+		} catch (Exception exc){
+			return fail(sink, "Error when searching for album \"" + title + "\": " + exc.getMessage());
 		}
+		return finish(sink, count, "No results found for " + title);
 	}
 
-	public void queryByGenre(String gnr) {
+	static final String GENRE_SQL = "SELECT Description, " + TRACK_COLUMNS
+			+ " FROM album, audiofile, createdby, creator, ingenre, genre "
+			+ "WHERE album.AlbumID = audioFile.AlbumID "
+			+ "AND audiofile.TrackID = createdby.TrackID "
+			+ "AND createdby.CreatorID = creator.CreatorID "
+			+ "AND ingenre.TrackID = audiofile.TrackID "
+			+ "AND genre.GenreID = ingenre.GenreID "
+			+ "AND genre.GenreID = ? "
+			+ "ORDER BY ReleaseDate ASC;"; //order results by release date of album
+	//only tracks with a creator, as in GENRE_SQL. They are picked that way, so a page is not cut short by the joins
+	static final String GENRE_PAGE_SQL = "SELECT Description, " + TRACK_COLUMNS
+			+ " FROM (SELECT TrackID FROM ingenre WHERE GenreID = ? AND TrackID > ?"
+			+ " AND EXISTS (SELECT * FROM createdby WHERE createdby.TrackID = ingenre.TrackID) ORDER BY TrackID LIMIT ?) page"
+			+ " JOIN audiofile ON audiofile.TrackID = page.TrackID"
+			+ " JOIN genre ON genre.GenreID = ?"
+			+ " JOIN album ON album.AlbumID = audiofile.AlbumID"
+			+ " JOIN createdby ON createdby.TrackID = audiofile.TrackID"
+			+ " JOIN creator ON creator.CreatorID = createdby.CreatorID"
+			+ " ORDER BY audiofile.TrackID, creator.CreatorID;";
+
+	/**
+	 * Prints every track in the genre
+	 * @param gnr Name of the genre
+	 * @return number of rows printed, or -1 on error
+	 */
+	public int queryByGenre(String gnr) {
+		return queryByGenre(gnr, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Passes the genre's description, then every track in the genre, to the sink
+	 * @param gnr Name of the genre
+	 * @return number of tracks passed, or -1 on error
+	 */
+	public int queryByGenre(String gnr, ResultSink sink) {
+		Integer cached = replay(sink, "queryByGenre", gnr);
+		if (cached != null) return cached;
+		sink = record(sink, GENRE_TABLES, "queryByGenre", gnr);
+		sink.begin(ResultSink.Search.GENRE, gnr);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByGenre(gnr, sink), "No results found for " + gnr);
+		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT Description, ReleaseName, creator.Name,  trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(Duration))) AS Duration, AlbumName, date(ReleaseDate) AS ReleaseDate "
-				+ "FROM album, audiofile, createdby, creator, ingenre, genre "
-				+ "WHERE album.AlbumID = audioFile.AlbumID "
-				+ "AND audiofile.TrackID = createdby.TrackID "
-				+ "AND createdby.CreatorID = creator.CreatorID "
-				+ "AND ingenre.TrackID = audiofile.TrackID "
-				+ "AND genre.GenreID = ingenre.GenreID "
-				+ "AND genre.GenreID = ? "
-				+ "ORDER BY ReleaseDate ASC;")) //order results by release date of album
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(GENRE_SQL))
 			{
 			pstmt.setString(1, gnr);
 			//make query
-			try (ResultSet rs = pstmt.executeQuery()) {
-				//check if results were found
-				if(!rs.next()) {
-					System.out.println ("No results found for " + gnr);
-				} else {
-					//display results
-					System.out.println("From Genre: " + gnr + "\t-" + rs.getString("Description"));
-					System.out.println("\n\t---------------------------------------");
-					System.out.printf("%-23s   %-20s   %-5s   %-20s   %s\n", "Audio File Name", "Creator", "Drtn.", "Album Name", "Release Date");
-					//System.out.println("\nAudio File Name:\tCreator:\tDuration:\tAlbum Name:\tRelease Date:");
-					System.out.println("\t---------------------------------------");
-					do {
-						System.out.printf("%-23s │ %-20s │ %-5s │ %-20s │ %s\n",
-								abbreviate(rs.getString("ReleaseName"), 23),
-								abbreviate(rs.getString("creator.Name"), 20),
-								rs.getString("Duration"),
-								abbreviate(rs.getString("AlbumName"), 20),
-								nullable(rs.getString("ReleaseDate")));
-					} while(rs.next());
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				while (rs.next()) {
+					if (count == 0) sink.genre(gnr, rs.getString("Description"));
+					sink.track(track(rs));
+					count++;
 				}
 			}
 		}
 		catch (Exception exc){
-			System.out.println("Error when searching for genre \"" + gnr + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for genre \"" + gnr + "\": " + exc.getMessage());
 		}
+		return finish(sink, count, "No results found for " + gnr);
 	}
 
-	public void queryByMediaType(String mediaType) {
+	/**
+	 * One page of queryByGenre, in TrackID order. Each page is read with an index seek past the last track of
+	 * the previous one, so deep pages cost the same as the first.
+	 * @param gnr Name of the genre
+	 * @param pageSize Most tracks per page, from 1 to MAX_PAGE_SIZE. A track with several creators counts once.
+	 * @param after Token the sink was given by the previous page, or null for the first page.
+	 * @throws NumberFormatException if after is not a token of a paged search
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int queryByGenre(String gnr, int pageSize, String after, ResultSink sink) {
+		int start = pageStart(after);
+		int limit = checkPageSize(pageSize) + 1;
+		Integer cached = replay(sink, "queryByGenre", gnr, pageSize, start);
+		if (cached != null) return cached;
+		sink = record(sink, GENRE_TABLES, "queryByGenre", gnr, pageSize, start);
+		sink.begin(ResultSink.Search.GENRE, gnr);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByGenre(gnr, pageSize, start, sink), "No results found for " + gnr);
+		int count;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-					"SELECT a.AlbumID, AlbumName, date(ReleaseDate) AS ReleaseDate, r.Name AS Label, trim(LEADING ':' FROM trim(LEADING '0' FROM sec_to_time(SUM(Duration)))) AS Duration, count(af.TrackID) AS Count" +
-					" FROM album a " +
-					" LEFT JOIN recordlabel r" +
-					" ON a.LabelID = r.LabelID" +
-					" LEFT JOIN audiofile af" +
-					" ON a.AlbumID = af.AlbumID" +
-					" WHERE MediaType = ?" +
-					" GROUP BY a.AlbumID;"))
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(GENRE_PAGE_SQL))
+		{
+			pstmt.setString(1, gnr);
+			pstmt.setInt(2, start);
+			pstmt.setInt(3, limit);
+			pstmt.setString(4, gnr);
+			count = trackPage(pstmt, pageSize, gnr, sink);
+		}
+		catch (Exception exc){
+			return fail(sink, "Error when searching for genre \"" + gnr + "\": " + exc.getMessage());
+		}
+		return finish(sink, count, "No results found for " + gnr);
+	}
+
+	static final String MEDIA_SQL = "SELECT a.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, r.Name AS Label," +
+			" af.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit, cr.Name AS Creator" +
+			" FROM album a " +
+			" LEFT JOIN recordlabel r" +
+			" ON a.LabelID = r.LabelID" +
+			" LEFT JOIN audiofile af" +
+			" ON a.AlbumID = af.AlbumID" +
+			" LEFT JOIN createdby cb" +
+			" ON cb.TrackID = af.TrackID" +
+			" LEFT JOIN creator cr" +
+			" ON cb.CreatorID = cr.CreatorID" +
+			" WHERE MediaType = ?" +
+			" ORDER BY a.AlbumID, af.TrackID;";
+	static final String MEDIA_PAGE_SQL = "SELECT a.AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, r.Name AS Label," +
+			" af.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit, cr.Name AS Creator" +
+			" FROM (SELECT AlbumID FROM album WHERE MediaType = ? AND AlbumID > ? ORDER BY AlbumID LIMIT ?) page" +
+			" JOIN album a" +
+			" ON a.AlbumID = page.AlbumID" +
+			" LEFT JOIN recordlabel r" +
+			" ON a.LabelID = r.LabelID" +
+			" LEFT JOIN audiofile af" +
+			" ON a.AlbumID = af.AlbumID" +
+			" LEFT JOIN createdby cb" +
+			" ON cb.TrackID = af.TrackID" +
+			" LEFT JOIN creator cr" +
+			" ON cb.CreatorID = cr.CreatorID" +
+			" ORDER BY a.AlbumID, af.TrackID;";
+
+	/**
+	 * Prints every album of the media type with its tracks
+	 * @param mediaType e.g. Music or Podcast
+	 * @return number of albums printed, or -1 on error
+	 */
+	public int queryByMediaType(String mediaType) {
+		return queryByMediaType(mediaType, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Passes every album of the media type, with its tracks, to the sink
+	 * @param mediaType e.g. Music or Podcast
+	 * @return number of albums passed, or -1 on error
+	 */
+	public int queryByMediaType(String mediaType, ResultSink sink) {
+		Integer cached = replay(sink, "queryByMediaType", mediaType);
+		if (cached != null) return cached;
+		sink = record(sink, ALBUM_TABLES, "queryByMediaType", mediaType);
+		sink.begin(ResultSink.Search.MEDIA, mediaType);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByMediaType(mediaType, sink), "No results found for media type: " + mediaType);
+		int count;
+		//create statement using try-with-resources block to ensure close regardless of success
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(MEDIA_SQL))
 		{
 			pstmt.setString(1, mediaType);
-			//make query
-			try (ResultSet rs = pstmt.executeQuery()) {
-				//check if results were found
-				if(!rs.next()) {
-					System.out.println ("No results found for media type: " + mediaType);
-				} else {
-					//print album info
-					do {
-						int count = rs.getInt("Count");
-						String boxString = "  ";
-						if (count > 0) boxString = "┌─";
-						System.out.printf("%-5s: "+ boxString +"%-20s │ %7s │ %s │ %s\n",
-								"Album",
-								rs.getString("AlbumName"),
-								nullable(rs.getString("Duration")),
-								nullable(rs.getString("Label")),
-								nullable(rs.getString("ReleaseDate"))
-						);
-
-						//print tracks for each album, if any are present
-						queryTracksByAlbumID(rs.getInt("AlbumID"), count);
-					} while(rs.next());
-				}
+			//make query, albums and their tracks are passed on as the rows stream in
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				count = AlbumReader.read(rs, sink);
 			}
 		}
 		catch (Exception exc){
-			System.out.println("Error when searching for media type \"" + mediaType + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for media type \"" + mediaType + "\": " + exc.getMessage());
 		}
+		return finish(sink, count, "No results found for media type: " + mediaType);
+	}
+
+	/**
+	 * One page of queryByMediaType, in AlbumID order, read with an index seek past the last album of the previous page.
+	 * @param mediaType e.g. Music or Podcast
+	 * @param pageSize Most albums per page, from 1 to MAX_PAGE_SIZE.
+	 * @param after Token the sink was given by the previous page, or null for the first page.
+	 * @throws NumberFormatException if after is not a token of a paged search
+	 * @return number of albums passed, or -1 on error
+	 */
+	public int queryByMediaType(String mediaType, int pageSize, String after, ResultSink sink) {
+		int start = pageStart(after);
+		int limit = checkPageSize(pageSize) + 1;
+		Integer cached = replay(sink, "queryByMediaType", mediaType, pageSize, start);
+		if (cached != null) return cached;
+		sink = record(sink, ALBUM_TABLES, "queryByMediaType", mediaType, pageSize, start);
+		sink.begin(ResultSink.Search.MEDIA, mediaType);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.queryByMediaType(mediaType, pageSize, start, sink), "No results found for media type: " + mediaType);
+		int count;
+		//create statement using try-with-resources block to ensure close regardless of success
+		try (Connection conn = connect();
+			 PreparedStatement pstmt = conn.prepareStatement(MEDIA_PAGE_SQL))
+		{
+			pstmt.setString(1, mediaType);
+			pstmt.setInt(2, start);
+			pstmt.setInt(3, limit);
+			try (ResultSet rs = streaming(pstmt).executeQuery()) {
+				count = AlbumReader.read(rs, sink, pageSize);
+			}
+		}
+		catch (Exception exc){
+			return fail(sink, "Error when searching for media type \"" + mediaType + "\": " + exc.getMessage());
+		}
+		return finish(sink, count, "No results found for media type: " + mediaType);
 	}
 
 
+	static final String RATING_SQL = "SELECT " + SAMPLE_COLUMNS +
+			" FROM audiofile, createdby, creator" +
+			" WHERE audiofile.TrackID=createdby.TrackID" +
+			" AND createdby.CreatorID=creator.CreatorID" +
+			" AND audiofile.ExplicitRating=?" +
+			" ORDER BY creator.Name ASC;";
+	//only tracks with a creator, as in RATING_SQL, picked the same way as in GENRE_PAGE_SQL
+	static final String RATING_PAGE_SQL = "SELECT " + SAMPLE_COLUMNS +
+			" FROM (SELECT TrackID FROM audiofile WHERE ExplicitRating = ? AND TrackID > ?" +
+			" AND EXISTS (SELECT * FROM createdby WHERE createdby.TrackID = audiofile.TrackID) ORDER BY TrackID LIMIT ?) page" +
+			" JOIN audiofile ON audiofile.TrackID = page.TrackID" +
+			" JOIN createdby ON createdby.TrackID = audiofile.TrackID" +
+			" JOIN creator ON creator.CreatorID = createdby.CreatorID" +
+			" ORDER BY audiofile.TrackID, creator.CreatorID;";
+
 	/**
  	* Returns list of tracks with their artist based on user seeking explicit or not rating
  	* @param exp_num What kind of tracks to display. 1 for explicit tracks, or 0 for clean tracks.
+ 	* @return number of rows printed, or -1 on error
  	*/
-	public void getTracksByRating(int exp_num){
+	public int getTracksByRating(int exp_num){
+		return getTracksByRating(exp_num, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Passes every explicit or every clean track to the sink, once per artist, ordered by artist
+	 * @param exp_num 1 for explicit tracks, or 0 for clean tracks.
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int getTracksByRating(int exp_num, ResultSink sink){
+		Integer cached = replay(sink, "getTracksByRating", exp_num);
+		if (cached != null) return cached;
+		sink = record(sink, RATING_TABLES, "getTracksByRating", exp_num);
+		sink.begin(ResultSink.Search.RATING, String.valueOf(exp_num));
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.getTracksByRating(exp_num, sink), "Error: broken query or erroneous value passed!");
+		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
 		//setup rs and p_stmt
-		try (PreparedStatement p_stmt = conn.prepareStatement("SELECT audiofile.TrackID, audiofile.ReleaseName, audiofile.Duration, creator.Name AS Artist, creator.CreatorID" +
-        	" FROM audiofile, createdby, creator" +
-        	" WHERE audiofile.TrackID=createdby.TrackID" +
-        	" AND createdby.CreatorID=creator.CreatorID" +
-        	" AND audiofile.ExplicitRating=?" +
-        	" ORDER BY creator.Name ASC;"))
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(RATING_SQL))
 		{
-        	p_stmt.setInt(1, exp_num);
-        	try (ResultSet rs = p_stmt.executeQuery()) {
-				//check for empty/broken result
-				if (!rs.next()) {
-					System.out.println("Error: broken query or erroneous value passed!");
-				} else {
-					//produce result
-					//System.out.println("TrackID:\tReleaseName:\tDuration:\tArtist:\tCreatorID:");
-					System.out.printf("%15s   %41s   %5s   %-20s   %15s\n", "TrackID", "Track Name", "Drtn.", "Artist", "ArtistID");
-					do {
-						//System.out.println(rs.getInt(1) + "\t" + rs.getString(2) + "\t" + rs.getInt(3) + "\t" + rs.getString(4) + "\t" + rs.getInt(5));
-						String tID = rs.getString("TrackId");
-						String t = abbreviate(rs.getString("ReleaseName"), 40);
-						String d = rs.getString("Duration");
-						String a = abbreviate(rs.getString ("Artist"), 19);
-						String aID = rs.getString("CreatorID");
-						System.out.printf("%15s │ %-41s │ %5s │ %-20s │ %15s\n", tID, t, d, a, aID); 
-					} while(rs.next());
+        	//ExplicitRating is a VARCHAR, an int would make MySQL cast every row instead of using the index
+        	p_stmt.setString(1, String.valueOf(exp_num));
+        	try (ResultSet rs = streaming(p_stmt).executeQuery()) {
+				while (rs.next()) {
+					sink.track(track(rs));
+					count++;
 				}
 			}
     	} catch(Exception exc){
-			System.out.println("Error when searching for rating \"" + exp_num + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for rating \"" + exp_num + "\": " + exc.getMessage());
     	}
+		//check for empty/broken result
+		return finish(sink, count, "Error: broken query or erroneous value passed!");
+	}
+
+	/**
+	 * One page of getTracksByRating, in TrackID order, read with an index seek past the last track of the previous page.
+	 * @param exp_num 1 for explicit tracks, or 0 for clean tracks.
+	 * @param pageSize Most tracks per page, from 1 to MAX_PAGE_SIZE. A track with several creators counts once.
+	 * @param after Token the sink was given by the previous page, or null for the first page.
+	 * @throws NumberFormatException if after is not a token of a paged search
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int getTracksByRating(int exp_num, int pageSize, String after, ResultSink sink){
+		int start = pageStart(after);
+		int limit = checkPageSize(pageSize) + 1;
+		Integer cached = replay(sink, "getTracksByRating", exp_num, pageSize, start);
+		if (cached != null) return cached;
+		sink = record(sink, RATING_TABLES, "getTracksByRating", exp_num, pageSize, start);
+		sink.begin(ResultSink.Search.RATING, String.valueOf(exp_num));
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.getTracksByRating(exp_num, pageSize, start, sink), "Error: broken query or erroneous value passed!");
+		int count;
+		//create statement using try-with-resources block to ensure close regardless of success
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(RATING_PAGE_SQL))
+		{
+			//compared as a string so the seek can use the (ExplicitRating, TrackID) index
+			p_stmt.setString(1, String.valueOf(exp_num));
+			p_stmt.setInt(2, start);
+			p_stmt.setInt(3, limit);
+			count = trackPage(p_stmt, pageSize, null, sink);
+		} catch(Exception exc){
+			return fail(sink, "Error when searching for rating \"" + exp_num + "\": " + exc.getMessage());
+		}
+		return finish(sink, count, "Error: broken query or erroneous value passed!");
 	}
 
 
+	static final String COUNTRY_SQL = "SELECT af.TrackID, af.ReleaseName AS Title, Duration, ExplicitRating AS Explicit, cr.CreatorID, cr.Name AS Creator," +
+			" al.AlbumID, al.AlbumName AS Album, date(al.ReleaseDate) AS ReleaseDate" +
+			" FROM audiofile AS af" +
+			" LEFT JOIN createdby AS cb" +
+			" ON cb.TrackID = af.TrackID" +
+			" LEFT JOIN creator AS cr" +
+			" ON cb.CreatorID = cr.CreatorID" +
+			" LEFT JOIN country AS co" +
+			" ON af.CountryID = co.CountryID" +
+			" LEFT JOIN album AS al" +
+			" ON al.AlbumID = af.AlbumID" +
+			" WHERE co.Name= ?" +
+			" ORDER BY Creator DESC, Album DESC;";
+	static final String COUNTRY_PAGE_SQL = "SELECT " + TRACK_COLUMNS +
+			" FROM (SELECT af.TrackID FROM audiofile AS af JOIN country AS co ON af.CountryID = co.CountryID" +
+			" WHERE co.Name = ? AND af.TrackID > ? ORDER BY af.TrackID LIMIT ?) page" +
+			" JOIN audiofile ON audiofile.TrackID = page.TrackID" +
+			" LEFT JOIN album ON album.AlbumID = audiofile.AlbumID" +
+			" LEFT JOIN createdby ON createdby.TrackID = audiofile.TrackID" +
+			" LEFT JOIN creator ON creator.CreatorID = createdby.CreatorID" +
+			" ORDER BY audiofile.TrackID, creator.CreatorID;";
+
 	/**
 	 * Gets lists of songs based on country.  Includes artist information.
      *
 	 * @param country - country name
+	 * @return number of rows printed, or -1 on error
 	 */
-	public void getTracksByCountry(String country){
+	public int getTracksByCountry(String country){
+		return getTracksByCountry(country, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Passes every track from the country to the sink, once per artist.
+	 * @param country - country name
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int getTracksByCountry(String country, ResultSink sink){
+		Integer cached = replay(sink, "getTracksByCountry", country);
+		if (cached != null) return cached;
+		sink = record(sink, COUNTRY_TABLES, "getTracksByCountry", country);
+		sink.begin(ResultSink.Search.COUNTRY, country);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.getTracksByCountry(country, sink), "No results found for country " + country);
+		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
 		//setup rs and p_stmt
-		try (PreparedStatement p_stmt = conn.prepareStatement(
-                "SELECT af.ReleaseName, year(al.ReleaseDate) AS Year, trim(LEADING ':' FROM (trim(LEADING '0' FROM (sec_to_time(Duration))))) AS Duration, cr.Name AS Artist, al.AlbumName" +
-				" FROM audiofile AS af" +
-				" LEFT JOIN createdby AS cb" +
-				" ON cb.TrackID = af.TrackID" +
-				" LEFT JOIN creator AS cr" +
-				" ON cb.CreatorID = cr.CreatorID" +
-				" LEFT JOIN country AS co" +
-				" ON af.CountryID = co.CountryID" +
-				" LEFT JOIN album AS al" +
-				" ON al.AlbumID = af.AlbumID" +
-				" WHERE co.Name= ?" +
-				" ORDER BY Artist DESC, AlbumName DESC;"))
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(COUNTRY_SQL))
 		{
             p_stmt.setString(1, country);
-            try (ResultSet rs = p_stmt.executeQuery()) {
-				//check for empty/broken result
-				if(!rs.next()) {
-					System.out.println("No results found for country " + country);
-				} else {
-					//produce result
-					System.out.printf("%4s   %-20s   %5s   %-20s   %-20s\n", "Year", "Track Name", "Drtn.", "Creator", "Album");
-					do {
-						System.out.printf("%4s | %-20s | %5s | %-20s | %-20s\n",
-							nullable(rs.getString("Year")),
-							abbreviate(rs.getString("ReleaseName"), 20),
-							rs.getString("Duration"),
-							abbreviate(rs.getString ("Artist"), 20),
-							abbreviate(rs.getString("AlbumName"), 20)
-						);
-					} while(rs.next());
+            try (ResultSet rs = streaming(p_stmt).executeQuery()) {
+				while (rs.next()) {
+					sink.track(track(rs));
+					count++;
 				}
 			}
         } catch(Exception exc){
-			System.out.println("Error when searching for country \"" + country + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for country \"" + country + "\": " + exc.getMessage());
         }
+		return finish(sink, count, "No results found for country " + country);
     }
 
+	/**
+	 * One page of getTracksByCountry, in TrackID order, read with an index seek past the last track of the previous page.
+	 * @param country - country name
+	 * @param pageSize Most tracks per page, from 1 to MAX_PAGE_SIZE. A track with several creators counts once.
+	 * @param after Token the sink was given by the previous page, or null for the first page.
+	 * @throws NumberFormatException if after is not a token of a paged search
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int getTracksByCountry(String country, int pageSize, String after, ResultSink sink){
+		int start = pageStart(after);
+		int limit = checkPageSize(pageSize) + 1;
+		Integer cached = replay(sink, "getTracksByCountry", country, pageSize, start);
+		if (cached != null) return cached;
+		sink = record(sink, COUNTRY_TABLES, "getTracksByCountry", country, pageSize, start);
+		sink.begin(ResultSink.Search.COUNTRY, country);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.getTracksByCountry(country, pageSize, start, sink), "No results found for country " + country);
+		int count;
+		//create statement using try-with-resources block to ensure close regardless of success
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(COUNTRY_PAGE_SQL))
+		{
+			p_stmt.setString(1, country);
+			p_stmt.setInt(2, start);
+			p_stmt.setInt(3, limit);
+			count = trackPage(p_stmt, pageSize, null, sink);
+		} catch(Exception exc){
+			return fail(sink, "Error when searching for country \"" + country + "\": " + exc.getMessage());
+		}
+		return finish(sink, count, "No results found for country " + country);
+	}
+
+
+	static final String LABEL_SQL = "SELECT a.AlbumID AS AlbumID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate, r.Name AS Label," +
+			" af.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit, cr.Name AS Creator" +
+			" FROM recordlabel AS r" +
+			" JOIN album AS a" +
+			" ON r.LabelID = a.LabelID" +
+			" LEFT JOIN audiofile AS af" +
+			" ON af.AlbumID = a.AlbumID" +
+			" LEFT JOIN createdby AS cb" +
+			" ON cb.TrackID = af.TrackID" +
+			" LEFT JOIN creator AS cr" +
+			" ON cb.CreatorID = cr.CreatorID" +
+			" WHERE r.Name = ?" +
+			" ORDER BY a.AlbumID, af.TrackID;";
 
     /**
      * Get list of tracks under specified record label.  Includes some artist info.
-     * 
+     *
      * @param label_name Name of label to search for.
+     * @return number of albums printed, or -1 on error
      */
-    public void getTracksLabel(String label_name){
+    public int getTracksLabel(String label_name){
+		return getTracksLabel(label_name, new ConsoleSink(out, false));
+    }
+
+    /**
+     * Passes every album under the record label, with its tracks, to the sink.
+     *
+     * @param label_name Name of label to search for.
+     * @return number of albums passed, or -1 on error
+     */
+    public int getTracksLabel(String label_name, ResultSink sink){
+		Integer cached = replay(sink, "getTracksLabel", label_name);
+		if (cached != null) return cached;
+		sink = record(sink, ALBUM_TABLES, "getTracksLabel", label_name);
+		sink.begin(ResultSink.Search.LABEL, label_name);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.getTracksLabel(label_name, sink), "No albums found under label " + label_name);
+		int count;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement p_stmt = conn.prepareStatement(
-                "SELECT AlbumName, date(ReleaseDate) AS ReleaseDate, MediaType, a.AlbumID AS AlbumID, r.Name AS Label, count(af.TrackID) AS Count, trim(LEADING ':' FROM (trim(LEADING '0' FROM (sec_to_time(SUM(Duration)))))) AS Duration\n" +
-				" FROM recordlabel AS r" +
-				" JOIN album AS a" +
-				" LEFT JOIN audiofile AS af" +
-				" ON af.AlbumID = a.AlbumID" +
-				" WHERE r.Name = ?" +
-				" AND r.LabelID = a.LabelID" +
-				" GROUP BY a.AlbumID;"))
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(LABEL_SQL))
 		{
             p_stmt.setString(1, label_name);
-			try (ResultSet rs = p_stmt.executeQuery()) {
-				//check for empty/broken result
-				if(!rs.next()) {
-					System.out.println("No albums found under label " + label_name);
-				} else {
-					//produce result
-					do {
-						int count = rs.getInt("Count");
-						String boxString = (count > 0) ? "┌─" : "  ";
-						System.out.printf("Album: %2s%-20s | %7s | %8s | %10s\n",
-								boxString,
-								rs.getString("AlbumName"),
-								nullable(rs.getString("Duration")),
-								rs.getString("MediaType"),
-								nullable(rs.getString("ReleaseDate"))
-						);
-
-						//print tracks for each album, if any are present
-						queryTracksByAlbumID(rs.getInt("AlbumID"), count);
-					} while(rs.next());
-				}
+			//albums and their tracks are passed on as the rows stream in
+			try (ResultSet rs = streaming(p_stmt).executeQuery()) {
+				count = AlbumReader.read(rs, sink);
 			}
         } catch(Exception exc) {
-			System.out.println("Error when searching for label \"" + label_name + "\": " + exc.getMessage());
+			return fail(sink, "Error when searching for label \"" + label_name + "\": " + exc.getMessage());
         }
+		//check for empty/broken result
+		return finish(sink, count, "No albums found under label " + label_name);
     }
 
 	/**
 	 * Prints a list of all country names and the associated countryID
+	 * @return number of countries printed, or -1 on error
 	 */
-	public void printCountryCodes() {
+	public int printCountryCodes() {
+		return printCountryCodes(new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Passes every country and its ID to the sink.
+	 * @return number of countries passed, or -1 on error
+	 */
+	public int printCountryCodes(ResultSink sink) {
+		Integer cached = replay(sink, "printCountryCodes");
+		if (cached != null) return cached;
+		sink = record(sink, COUNTRY_CODE_TABLES, "printCountryCodes");
+		sink.begin(ResultSink.Search.COUNTRY_CODES, null);
+		CatalogSnapshot snap = snapshot();
+		if (snap != null) return finish(sink, snap.printCountryCodes(sink), "No countries found in database");
+		int count = 0;
 		//create statement using try-with-resources block to ensure close regardless of success
-    	try (Statement statement = conn.createStatement()) {
+    	try (Connection conn = connect();
+			 Statement statement = conn.createStatement()) {
 			try (ResultSet rs = statement.executeQuery("SELECT country.Name, CountryID FROM country")) {
-				if (!rs.next()) {
-					System.out.println("No countries found in database");
-				} else {
-					System.out.print("ID# | Country\n");
-					do {
-						System.out.printf("%3d | %s\n", rs.getInt("CountryID"), rs.getString("country.Name"));
-					} while (rs.next());
+				while (rs.next()) {
+					sink.country(rs.getInt("CountryID"), rs.getString("country.Name"));
+					count++;
 				}
 			}
 		} catch (SQLException e) {
-			System.out.println("Error when attempting to print country codes: " + e.getMessage());
+			return fail(sink, "Error when attempting to print country codes: " + e.getMessage());
 		}
+		return finish(sink, count, "No countries found in database");
 	}
 
+	static final String AVG_DURATION_SQL = "SELECT AVG(audiofile.Duration)" +
+			" FROM audiofile, album WHERE audiofile.AlbumID=album.AlbumID" +
+			" AND album.AlbumName=? GROUP BY album.AlbumName;";
+	static final String AVG_DURATION_SUMMARY_SQL = "SELECT SUM(s.TotalDuration) DIV SUM(s.TrackCount)" +
+			" FROM albumsummary AS s, album WHERE s.AlbumID=album.AlbumID" +
+			" AND album.AlbumName=? GROUP BY album.AlbumName HAVING SUM(s.TrackCount) > 0;";
+
 	/**
 	 * Get the average track duration for all tracks in a user specified album
 	 *
 	 * @param alb Name of album to get info for
+	 * @return 1 if the album was found, 0 if not, -1 on error
 	 */
-	public void getAvgTrackDurationAlbum(String alb){
+	public int getAvgTrackDurationAlbum(String alb){
+		int count = 0;
 		//setup rs and p_stmt
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement p_stmt = conn.prepareStatement(
-					"SELECT AVG(audiofile.Duration)" +
-					" FROM audiofile, album WHERE audiofile.AlbumID=album.AlbumID" +
-					" AND album.AlbumName='?';"))
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement((summaries != null) ? AVG_DURATION_SUMMARY_SQL : AVG_DURATION_SQL))
 		{
 			p_stmt.setString(1, alb);
 
 			try (ResultSet rs = p_stmt.executeQuery()) {
 				if(rs.next()){
+					count = 1;
 					System.out.println("The average track duration for album '" + alb +"' is: " + rs.getInt(1));
 				} else {
 					System.out.println("~~ERROR: Album '" + alb + "' returned no result ~~");
@@ -471,26 +956,36 @@ public class Queries {
 
 		} catch(Exception exc){
 			System.out.println("Error getting average track duration: " + exc.getMessage());
+			count = -1;
 		}
+		return count;
 	}
 
 
+	static final String TRACK_COUNT_SQL = "SELECT COUNT(audiofile.TrackID)" +
+			" FROM audiofile, album WHERE audiofile.AlbumID=album.AlbumID" +
+			" AND album.AlbumName=? GROUP BY album.AlbumName;";
+	static final String TRACK_COUNT_SUMMARY_SQL = "SELECT SUM(s.TrackCount)" +
+			" FROM albumsummary AS s, album WHERE s.AlbumID=album.AlbumID" +
+			" AND album.AlbumName=? GROUP BY album.AlbumName;";
+
 	/**
 	 * Get total number of tracks in a user specified album
 	 *
 	 * @param alb Name of album to get info for
+	 * @return 1 if the album was found, 0 if not, -1 on error
 	 */
-	public void numTracksInAlbum(String alb){
+	public int numTracksInAlbum(String alb){
+		int count = 0;
 		//setup rs and p_stmt
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement p_stmt = conn.prepareStatement(
-					"SELECT COUNT(audiofile.TrackID)" +
-					" FROM audiofile, album WHERE audiofile.AlbumID=album.AlbumID" +
-					" AND album.AlbumName='?';"))
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement((summaries != null) ? TRACK_COUNT_SUMMARY_SQL : TRACK_COUNT_SQL))
 		{
 			p_stmt.setString(1, alb);
 			try (ResultSet rs = p_stmt.executeQuery()) {
 				if(rs.next()) {
+					count = 1;
 					System.out.println("Total track count for '" + alb + "' is: " + rs.getInt(1));
 				}
 				else{
@@ -499,20 +994,198 @@ public class Queries {
 			}
 		} catch(Exception exc){
 			System.out.println("Error getting track count for album " + alb + ": " + exc.getMessage());
+			count = -1;
+		}
+		return count;
+	}
+
+
+	static final String CREATOR_SUMMARY_SQL = "SELECT creator.CreatorID, COUNT(audiofile.TrackID) AS Tracks, COALESCE(SUM(audiofile.Duration), 0) AS Seconds," +
+			" date(MIN(album.ReleaseDate)) AS FirstRelease, date(MAX(album.ReleaseDate)) AS LastRelease" +
+			" FROM creator LEFT JOIN createdby ON createdby.CreatorID = creator.CreatorID" +
+			" LEFT JOIN audiofile ON audiofile.TrackID = createdby.TrackID" +
+			" LEFT JOIN album ON album.AlbumID = audiofile.AlbumID" +
+			" WHERE creator.Name = ? GROUP BY creator.CreatorID ORDER BY creator.CreatorID;";
+	static final String CREATOR_SUMMARY_ROW_SQL = "SELECT creator.CreatorID, COALESCE(s.TrackCount, 0) AS Tracks, COALESCE(s.TotalDuration, 0) AS Seconds," +
+			" date(s.FirstRelease) AS FirstRelease, date(s.LastRelease) AS LastRelease" +
+			" FROM creator LEFT JOIN creatorsummary AS s ON s.CreatorID = creator.CreatorID" +
+			" WHERE creator.Name = ? ORDER BY creator.CreatorID;";
+
+	/**
+	 * Prints the number of tracks, total and average track duration and the first and last release date of
+	 * every creator with the name
+	 *
+	 * @param creator Name of creator to get info for
+	 * @return number of creators printed, 0 if none has the name, -1 on error
+	 */
+	public int getCreatorSummary(String creator){
+		int count = 0;
+		//create statement using try-with-resources block to ensure close regardless of success
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement((summaries != null) ? CREATOR_SUMMARY_ROW_SQL : CREATOR_SUMMARY_SQL))
+		{
+			p_stmt.setString(1, creator);
+			try (ResultSet rs = p_stmt.executeQuery()) {
+				while (rs.next()) {
+					count++;
+					int tracks = rs.getInt("Tracks");
+					long seconds = rs.getLong("Seconds");
+					System.out.print(creator + " (ID " + rs.getInt("CreatorID") + "): " + tracks + " tracks");
+					if (tracks > 0) {
+						System.out.print(", " + ConsoleSink.formatDuration(seconds) + " in total, "
+								+ ConsoleSink.formatDuration(seconds / tracks) + " on average");
+					}
+					String first = rs.getString("FirstRelease");
+					if (first != null) System.out.print(", released " + first + " to " + rs.getString("LastRelease"));
+					System.out.println();
+				}
+			}
+			if (count == 0) System.out.println("~~ERROR: Creator '" + creator + "' returned no result ~~");
+		} catch(Exception exc){
+			System.out.println("Error getting summary for creator " + creator + ": " + exc.getMessage());
+			count = -1;
 		}
+		return count;
 	}
 
 
+	static final String RANDOM_TRACKS_SQL = "SELECT " + SAMPLE_COLUMNS
+			+ " FROM audiofile"
+			+ " LEFT JOIN createdby ON audiofile.TrackID=createdby.TrackID"
+			+ " LEFT JOIN creator ON createdby.CreatorID=creator.CreatorID"
+			+ " WHERE audiofile.TrackID IN " + SEARCH_IDS + ";";
+
 	/**
 	 * Returns a random list of tracks of size given by user.
 	 * 
 	 * @param list_size Maximum number of tracks to print
+	 * @return number of tracks printed, or -1 on error
+	 */
+	public int getRandomTracks(int list_size){
+		return getRandomTracks(list_size, null, null);
+	}
+
+	/**
+	 * Returns a random list of tracks of size given by user, optionally limited to a genre and/or country.
+	 * Tracks are drawn from the in-memory TrackSampler and then read by primary key, so the cost does not
+	 * grow with the size of the catalog the way ORDER BY RAND() does.
+	 *
+	 * @param list_size Maximum number of tracks to print
+	 * @param genre Only pick tracks in this genre. Can be null.
+	 * @param country Only pick tracks from this country name. Can be null.
+	 * @return number of tracks printed, or -1 on error
+	 */
+	public int getRandomTracks(int list_size, String genre, String country){
+		return getRandomTracks(list_size, genre, country, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * getRandomTracks passing the tracks to the sink, once per creator, in the order they were drawn.
+	 * @throws IllegalArgumentException if list_size is negative
+	 * @return number of tracks passed, or -1 on error
+	 */
+	public int getRandomTracks(int list_size, String genre, String country, ResultSink sink){
+		if (list_size < 0) throw new IllegalArgumentException("list size must not be negative");
+		sink.begin(ResultSink.Search.RANDOM, String.valueOf(list_size));
+		if (!sampler.isLoaded() && buildTrackSampler() < 0) return fail(sink, "Error getting random tracks: track list could not be loaded");
+		int count = 0;
+		CatalogSnapshot snap = snapshot();
+		try (Connection conn = (snap == null) ? connect() : null) {
+			Integer countryID = null;
+			if (country != null) {
+				countryID = (snap != null) ? snap.getCountryID(country) : getCountryID(conn, country);
+				if (countryID <= 0) return finish(sink, 0, "No results found for country " + country);
+			}
+			int[] ids = sampler.sample(list_size, genre, countryID);
+
+			//read the picked tracks SEARCH_LIMIT at a time, keeping the random order
+			Map<Integer, List<Track>> rows = new HashMap<>();
+			if (snap != null) {
+				for (int id : ids) {
+					List<Track> tracks = snap.sampleTracks(id);
+					if (tracks != null) rows.put(id, tracks);
+				}
+			} else {
+				try (PreparedStatement p_stmt = conn.prepareStatement(RANDOM_TRACKS_SQL))
+				{
+					for (int start = 0; start < ids.length; start += SEARCH_LIMIT) {
+						for (int i = 0; i < SEARCH_LIMIT; i++)
+							p_stmt.setInt(i + 1, (start + i < ids.length) ? ids[start + i] : -1);
+						try (ResultSet rs = p_stmt.executeQuery()) {
+							while (rs.next()) {
+								Track t = track(rs);
+								rows.computeIfAbsent(t.trackID, k -> new ArrayList<>()).add(t);
+							}
+						}
+					}
+				}
+			}
+
+			for (int id : ids) {
+				List<Track> tracks = rows.get(id);
+				//tracks removed by an album or creator cascade are only noticed here
+				if (tracks == null) sampler.removeTrack(id);
+				else {
+					count++;
+					for (Track t : tracks) sink.track(t);
+				}
+			}
+		} catch(SQLException exc) {
+			return fail(sink, "Error getting random tracks: " + exc.getMessage());
+		}
+		return finish(sink, count, "Error: broken query or erroneous value passed!");
+	}
+
+	/**
+	 * Loads every TrackID, with its country and genres, into the sampler used by getRandomTracks.
+	 * @return number of tracks loaded, or -1 if loading failed
+	 */
+	public int buildTrackSampler() {
+		TrackSampler fresh = new TrackSampler();
+		try (Connection conn = connect();
+			 Statement stmt = conn.createStatement())
+		{
+			try (ResultSet rs = stmt.executeQuery("SELECT TrackID, CountryID FROM audiofile ORDER BY TrackID;")) {
+				while (rs.next()) {
+					int countryID = rs.getInt(2);
+					fresh.addTrack(rs.getInt(1), rs.wasNull() ? null : countryID);
+				}
+			}
+			try (ResultSet rs = stmt.executeQuery("SELECT TrackID, GenreID FROM ingenre ORDER BY TrackID;")) {
+				while (rs.next()) fresh.addGenre(rs.getInt(1), rs.getString(2));
+			}
+		} catch (SQLException e) {
+			System.out.println("Error when loading track list: " + e.getMessage());
+			return -1;
+		}
+		fresh.markLoaded();
+		sampler = fresh;
+		return fresh.size();
+	}
+
+	/**
+	 * The original random track query, which sorts the whole joined table with ORDER BY RAND().
+	 * Kept for comparison with the sampler in benchmarks.
+	 *
+	 * @param list_size Maximum number of tracks to print
+	 * @return number of rows printed, or -1 on error
 	 */
-	public void getRandomTracks(int list_size){
+	public int getRandomTracksOrderByRand(int list_size){
+		return getRandomTracksOrderByRand(list_size, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * getRandomTracksOrderByRand passing the rows to the sink.
+	 * @return number of rows passed, or -1 on error
+	 */
+	public int getRandomTracksOrderByRand(int list_size, ResultSink sink){
+		sink.begin(ResultSink.Search.RANDOM, String.valueOf(list_size));
+		int count = 0;
 		//setup rs and p_stmt
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement p_stmt = conn.prepareStatement(
-					"SELECT audiofile.TrackID, audiofile.ReleaseName, audiofile.Duration, creator.Name AS Artist, creator.CreatorID"
+		try (Connection conn = connect();
+			 PreparedStatement p_stmt = conn.prepareStatement(
+					"SELECT " + SAMPLE_COLUMNS
 					+ " FROM audiofile, createdby, creator"
 					+ " WHERE audiofile.TrackID=createdby.TrackID"
 					+ " AND createdby.CreatorID=creator.CreatorID"
@@ -520,32 +1193,21 @@ public class Queries {
 					+ " LIMIT ?"
 					))
 		{
-			
+
 			p_stmt.setInt(1, list_size);
-	
-			try (ResultSet rs = p_stmt.executeQuery()) {
-				//check for empty/broken result
-				if (!rs.next()) {
-					System.out.println("Error: broken query or erroneous value passed!");
-				} else {
-					//produce result
-					//System.out.println("TrackID:\tReleaseName:\tDuration:\tArtist:\tCreatorID:");
-					System.out.printf("%15s   %-41s   %5s   %-20s   %15s\n", "TrackID", "Track Name", "Drtn.", "Artist", "ArtistID");
-					do {
-						//System.out.println(rs.getInt(1) + "\t" + rs.getString(2) + "\t" + rs.getInt(3) + "\t" + rs.getString(4) + "\t" + rs.getInt(5));
-						String tID = rs.getString("TrackId");
-						String t = abbreviate(rs.getString("ReleaseName"), 40);
-						String d = rs.getString("Duration");
-						String a = abbreviate(rs.getString ("Artist"), 19);
-						String aID = rs.getString("CreatorID");
-						System.out.printf("%15s │ %-41s │ %5s │ %-20s │ %15s\n", tID, t, d, a, aID); 
-					} while(rs.next());
+
+			try (ResultSet rs = streaming(p_stmt).executeQuery()) {
+				while (rs.next()) {
+					sink.track(track(rs));
+					count++;
 				}
 			}
-	
+
 		} catch(Exception exc) {
-			System.out.println("Error getting random tracks: " + exc.getMessage());
+			return fail(sink, "Error getting random tracks: " + exc.getMessage());
 		}
+		//check for empty/broken result
+		return finish(sink, count, "Error: broken query or erroneous value passed!");
 	}
 
 
@@ -556,15 +1218,16 @@ public class Queries {
 	 * @return the albumID of the inserted album. -1 if insert failed.
 	 */
 	public int insertAlbum(String albumName, String date, String label, String mediaType) {
-		int albumID;
 		int labelID = 0;
 		if (label != null) labelID = insertRecordLabel(label, null, 0);
+		int albumID = getID("album");
+		if (albumID < 0) return -1;
 		//create statement using try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pStatement = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.ALBUM);
+			 PreparedStatement pStatement = conn.prepareStatement(
 					"INSERT INTO adb.album (AlbumID, AlbumName, MediaType, ReleaseDate, LabelID) " +
 					" VALUES (?, ?, ?, ?, ?);"))
 		{
-			albumID = getID(albumName);
 			pStatement.setInt(1, albumID);
 			pStatement.setString(2, albumName);
 			pStatement.setString(3, mediaType);
@@ -574,7 +1237,9 @@ public class Queries {
 			else pStatement.setNull(5, Types.INTEGER);
 
 			pStatement.execute();
+			if (summaries != null) summaries.refreshAlbums(conn, Collections.singleton(albumID));
 			conn.commit();
+			index.add(SearchIndex.Field.ALBUM, albumID, albumName);
 			System.out.println("Successfully inserted new album with ID: " + albumID);
 		} catch (SQLException e) {
 			System.out.println("Error when inserting album \"" + albumName + "\": " + e.getMessage());
@@ -593,12 +1258,14 @@ public class Queries {
 	public int insertRecordLabel(String label, String date, int countryID) {
 		int labelID = getRecordLabelID(label);
 		if (labelID == 0) {
+			labelID = getID("recordlabel");
+			if (labelID < 0) return -1;
 			//use try-with-resources block to ensure close regardless of success
-			try (PreparedStatement pStatement = conn.prepareStatement(
+			try (Connection conn = connectPrimary(CatalogTable.RECORDLABEL);
+				 PreparedStatement pStatement = conn.prepareStatement(
 						"INSERT INTO adb.recordlabel (LabelID, Name, FoundingDate, CountryID)" +
 						" VALUES (?, ?, ?, ?);"))
 			{
-				labelID = getID(label);
 				pStatement.setInt(1, labelID);
 				pStatement.setString(2, label);
 				if (date != null) pStatement.setString(3, date);
@@ -608,6 +1275,7 @@ public class Queries {
 
 				pStatement.execute();
 				conn.commit();
+				names.put(NameCache.Kind.LABEL, label, labelID);
 				System.out.println("Successfully inserted new record label with ID: " + labelID);
 			} catch (SQLException e) {
 				System.out.println("Error when inserting label \"" + label + "\": " + e.getMessage());
@@ -618,25 +1286,38 @@ public class Queries {
 	}
 
 
+	static final String LABEL_ID_SQL = "SELECT LabelID " +
+			" FROM recordlabel" +
+			" WHERE recordlabel.Name = ?" +
+			" LIMIT 1;";
+
 	/** Searches for a label by name and returns the labelID for the first one found.
 	 *
 	 * @param label Label name to search for
 	 * @return the first labelID matching the label name. 0 if not present, or -1 if error encountered.
 	 */
 	public int getRecordLabelID(String label) {
+		try (Connection conn = connect()) {
+			return getRecordLabelID(conn, label);
+		} catch (SQLException e) {
+			System.out.println("Error getting record label ID: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	//label lookup on a connection the caller already holds, answered from the name cache when possible
+	private int getRecordLabelID(Connection conn, String label) {
+		Integer cached = names.get(NameCache.Kind.LABEL, label);
+		if (cached != null) return cached;
 		//use try-with-resources block to ensure close regardless of success
 		int labelID;
-		try (PreparedStatement pStatement = conn.prepareStatement(
-					"SELECT LabelID " +
-					" FROM recordlabel" +
-					" WHERE recordlabel.Name" +
-					" LIKE ?" +
-					" LIMIT 1;"))
+		try (PreparedStatement pStatement = conn.prepareStatement(LABEL_ID_SQL))
 		{
 			pStatement.setString(1, label);
 			ResultSet rs = pStatement.executeQuery();
 			if (rs.next()) labelID = rs.getInt("LabelID");
 			else labelID = 0;
+			names.put(NameCache.Kind.LABEL, label, labelID);
 		} catch (SQLException e) {
 			System.out.println("Error getting record label ID: " + e.getMessage());
 			labelID = -1;
@@ -645,7 +1326,7 @@ public class Queries {
 	}
 
 	/**
-	 * Insert a new audio file into the db.
+	 * Insert a new audio file into the db, in one transaction with its createdby row (see insertTrack()).
 	 *
 	 * @param name Name of the audio file
 	 * @param rating Explicit rating of the file. 1 for explicit, 0 for clean.
@@ -656,64 +1337,140 @@ public class Queries {
 	 * @return trackID File code for the inserted track.
 	 */
 	public int insertAudiofile(String name, Integer rating, Integer duration, Integer countryID, Integer albID, String creator){
-		int trackID = getID(name);
+		List<String> creators = (creator != null && creator.length() > 0) ? Collections.singletonList(creator) : Collections.<String>emptyList();
+		return writeTrack(new TrackSpec(name, rating, duration, countryID, albID, creators, Collections.<String>emptyList()));
+	}
+
+	/**
+	 * Insert a new track with its creators and genres in a single transaction. Creators that are not in the
+	 * database yet are added as the missing creator policy allows (see setMissingCreator()); the new creators,
+	 * createdby and ingenre rows are sent as batches, and everything is committed once. If any part fails
+	 * nothing is written.
+	 *
+	 * @param track The track to insert. Its genres must exist.
+	 * @return trackID File code for the inserted track, or -1 if it was not inserted
+	 */
+	public int insertTrack(TrackSpec track) {
+		return writeTrack(track);
+	}
+
+	//insertTrack(), also behind insertAudiofile()
+	private int writeTrack(TrackSpec track) {
+		//we can choose a different default here, but 0 could be bad
+		int duration = Objects.requireNonNullElse(track.duration, 999);
+		Map<String, Integer> creatorIDs = new LinkedHashMap<>();
+		Map<String, Integer> newCreators = new LinkedHashMap<>();
+		//creators are looked up and IDs reserved before the write connection is borrowed: BlockIdAllocator borrows
+		//a connection of its own, and waiting for it while holding one starves the pool once every thread writes
+		if (!track.creators.isEmpty()) try (Connection conn = connectPrimary()) {
+			for (String creator : track.creators) creatorIDs.put(creator, getCreatorID(conn, creator));
+		} catch (SQLException e) {
+			System.out.println("Error inserting track: " + e.getMessage());
+			return -1;
+		}
+		for (Map.Entry<String, Integer> c : creatorIDs.entrySet()) {
+			if (c.getValue() != 0) continue;
+			if (!createMissingCreator(c.getKey())) return -1;
+			int crtID = getID("creator");
+			if (crtID < 0) return -1;
+			c.setValue(crtID);
+			newCreators.put(c.getKey(), crtID);
+		}
+		int trackID = getID("audiofile");
+		if (trackID < 0) return -1;
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement p_stmt = conn.prepareStatement("INSERT INTO adb.audiofile "
-            + "(TrackID, ReleaseName, ExplicitRating, Duration, CountryID, AlbumID) "
-            + " VALUES (?, ?, ?, ?, ?, ?);"))
-		{
-            //set vals
-            p_stmt.setInt(1, trackID);
-            p_stmt.setString(2, name);
-			p_stmt.setInt(3, Objects.requireNonNullElse(rating, 0));
-			//we can choose a different default here, but 0 could be bad
-			p_stmt.setInt(4, Objects.requireNonNullElse(duration, 999));
-			if (countryID == null) p_stmt.setNull(5, Types.INTEGER);
-			else p_stmt.setInt(5, countryID);
-            p_stmt.setInt(6, albID);
-
-            //excute insert statement and commit result
-            p_stmt.execute();
-            conn.commit();
-
-            if (creator != null && creator.length() > 0) {
-				int crtID = 0;
-				//insert trackID and creatorID into createdby table
-				try (PreparedStatement pstmt = conn.prepareStatement(
-						"SELECT CreatorID " +
-								"FROM creator " +
-								"WHERE Name = ?;")){
-					pstmt.setString(1, creator);
-					try (ResultSet rs = pstmt.executeQuery()) {
-						if(!rs.next()) {
-							System.out.print("That creator was not found. Would you like to add new creator: " + creator + "? (q to quit, or y to add new creator: ");
-							String answer = in.nextLine();
-							if(answer.equals("y"))
-								crtID = insertCreator(creator);
-							else
-								trackID = -1;
-						}
-						else
-							crtID = rs.getInt(1);
-					}
+		try (Connection conn = connectPrimary(CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.CREATOR, CatalogTable.INGENRE)) {
+			if (!newCreators.isEmpty()) try (PreparedStatement creatorInsert = conn.prepareStatement(
+					"INSERT INTO adb.creator (CreatorID, Name) VALUES (?, ?);")) {
+				for (Map.Entry<String, Integer> c : newCreators.entrySet()) {
+					creatorInsert.setInt(1, c.getValue());
+					creatorInsert.setString(2, c.getKey());
+					creatorInsert.addBatch();
 				}
-				try (PreparedStatement pstmt2 = conn.prepareStatement("INSERT INTO adb.createdby "
-						+ "(TrackID, CreatorID) "
-						+ " VALUES (?, ?);")){
-					pstmt2.setInt(1, trackID);
-					pstmt2.setInt(2, crtID);
-					//execute
-					pstmt2.execute();
-					conn.commit();
+				creatorInsert.executeBatch();
+			}
+			try (PreparedStatement trackInsert = conn.prepareStatement("INSERT INTO adb.audiofile "
+					+ "(TrackID, ReleaseName, ExplicitRating, Duration, CountryID, AlbumID) "
+					+ " VALUES (?, ?, ?, ?, ?, ?);")) {
+				trackInsert.setInt(1, trackID);
+				trackInsert.setString(2, track.name);
+				trackInsert.setInt(3, Objects.requireNonNullElse(track.rating, 0));
+				trackInsert.setInt(4, duration);
+				if (track.countryID == null) trackInsert.setNull(5, Types.INTEGER);
+				else trackInsert.setInt(5, track.countryID);
+				trackInsert.setInt(6, track.albumID);
+				trackInsert.execute();
+			}
+			if (!creatorIDs.isEmpty()) try (PreparedStatement createdByInsert = conn.prepareStatement(
+					"INSERT INTO adb.createdby (TrackID, CreatorID) VALUES (?, ?);")) {
+				for (int crtID : creatorIDs.values()) {
+					createdByInsert.setInt(1, trackID);
+					createdByInsert.setInt(2, crtID);
+					createdByInsert.addBatch();
+				}
+				createdByInsert.executeBatch();
+			}
+			if (!track.genres.isEmpty()) try (PreparedStatement inGenreInsert = conn.prepareStatement(
+					"INSERT INTO adb.ingenre (TrackID, GenreID) VALUES (?, ?);")) {
+				for (String genre : track.genres) {
+					inGenreInsert.setInt(1, trackID);
+					inGenreInsert.setString(2, genre);
+					inGenreInsert.addBatch();
 				}
+				inGenreInsert.executeBatch();
 			}
-            System.out.println("New Track " + name + " added successfully with ID: " + trackID);
+			if (summaries != null) summaries.trackAdded(conn, new CatalogSummary.TrackRow(track.albumID, duration, creatorIDs.values()));
+			conn.commit();
+		} catch (SQLException e) {
+			//the pool rolls the uncommitted rows back when the connection is released
+			System.out.println("Error inserting track: " + e.getMessage());
+			return -1;
+		}
 
-        } catch(SQLException sexc) {
-			System.out.println("Error inserting track: " + sexc.getMessage());
-            trackID = -1;
-    	}
-    	return trackID;
+		//the caches only learn about the rows once they are committed
+		for (Map.Entry<String, Integer> c : newCreators.entrySet()) {
+			names.put(NameCache.Kind.CREATOR, c.getKey(), c.getValue());
+			index.add(SearchIndex.Field.CREATOR, c.getValue(), c.getKey());
+			System.out.println("Successfully inserted new creator with ID: " + c.getValue());
+		}
+		index.add(SearchIndex.Field.TRACK, trackID, track.name);
+		sampler.addTrack(trackID, track.countryID);
+		for (String genre : track.genres) sampler.addGenre(trackID, genre);
+		System.out.println("New Track " + track.name + " added successfully with ID: " + trackID);
+		return trackID;
+	}
+
+	//applies the missing creator policy, only prompting in ASK mode
+	private boolean createMissingCreator(String creator) {
+		switch (missingCreator) {
+			case CREATE:
+				return true;
+			case REJECT:
+				System.out.println("Creator " + creator + " was not found, track not added.");
+				return false;
+			default:
+				System.out.print("That creator was not found. Would you like to add new creator: " + creator + "? (q to quit, or y to add new creator: ");
+				return in.nextLine().equals("y");
+		}
+	}
+
+	static final String CREATOR_ID_SQL = "SELECT CreatorID " +
+			"FROM creator " +
+			"WHERE Name = ?;";
+
+	//creator lookup on a connection the caller already holds. returns 0 if no creator has that name
+	private int getCreatorID(Connection conn, String creator) throws SQLException {
+		Integer cached = names.get(NameCache.Kind.CREATOR, creator);
+		if (cached != null) return cached;
+		try (PreparedStatement pstmt = conn.prepareStatement(CREATOR_ID_SQL)){
+			pstmt.setString(1, creator);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				if (!rs.next()) return 0;
+				int crtID = rs.getInt(1);
+				names.put(NameCache.Kind.CREATOR, creator, crtID);
+				return crtID;
+			}
+		}
 	}
 
 	/** Associates the specified genre with the specified track.
@@ -725,7 +1482,8 @@ public class Queries {
 	public boolean addGenreToTrack(int trackID, String genre) {
 		//use try-with-resources block to ensure close regardless of success
 		boolean success;
-		try (PreparedStatement pStatement = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.INGENRE);
+			 PreparedStatement pStatement = conn.prepareStatement(
 					"INSERT INTO adb.ingenre (TrackID, GenreID)" +
 					" VALUES (?, ?);"))
 		{
@@ -733,6 +1491,7 @@ public class Queries {
 			pStatement.setString(2, genre);
 			pStatement.execute();
 			conn.commit();
+			sampler.addGenre(trackID, genre);
 			success = true;
 		} catch (SQLException e) {
 			System.out.println("Error adding Genre " + genre + " to trackID " + trackID + ": " + e.getMessage());
@@ -746,9 +1505,12 @@ public class Queries {
 	 * @param name Name of creator.
 	 */
 	public int insertCreator(String name) {
-		int creatorID = getID(name);
+		//reserved before the connection is borrowed, BlockIdAllocator may need to borrow one itself
+		int creatorID = getID("creator");
+		if (creatorID < 0) return -1;
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pStatement = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.CREATOR);
+			 PreparedStatement pStatement = conn.prepareStatement(
 				"INSERT INTO adb.creator (CreatorID, Name)" +
 				" VALUES (?, ?);"))
 		{
@@ -756,7 +1518,10 @@ public class Queries {
 			pStatement.setInt(1, creatorID);
 			pStatement.setString(2, name);
 			pStatement.execute();
+			if (summaries != null) summaries.refreshCreators(conn, Collections.singleton(creatorID));
 			conn.commit();
+			names.put(NameCache.Kind.CREATOR, name, creatorID);
+			index.add(SearchIndex.Field.CREATOR, creatorID, name);
 			System.out.println("Successfully inserted new creator with ID: " + creatorID);
 		} catch (SQLException e) {
 			System.out.println("Error when inserting creator \"" + name + "\": " + e.getMessage());
@@ -769,10 +1534,12 @@ public class Queries {
 	 * insert genre inserts a genre with name as ID and optional description
 	 * @param genreID Name of genre.
 	 * @param descrip Description of genre.
+	 * @return 1 if the genre was added, 0 if it already exists, -1 on error
 	 */
-	public void insertGenre(String genreID, String descrip) {
+	public int insertGenre(String genreID, String descrip) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pStatement = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.GENRE);
+			 PreparedStatement pStatement = conn.prepareStatement(
 						"INSERT INTO genre (GenreID, Description)" +
 						" VALUES (?, ?);"))
 		{
@@ -783,10 +1550,13 @@ public class Queries {
 			pStatement.execute();
 			conn.commit();
 			System.out.println("Successfully inserted new genre: " + genreID);
+			return 1;
 		} catch(SQLIntegrityConstraintViolationException e) {
 			System.out.println("Genre already exists in the database.");
+			return 0;
 		} catch (SQLException e) {
 			System.out.println("Error when inserting genre \"" + genreID + "\": " + e.getMessage());
+			return -1;
 		}
 	}
 
@@ -795,9 +1565,11 @@ public class Queries {
 	 * @param name Name of country
 	 */
 	public int insertCountry(String name) {
-		int countryID = getID(name);
+		int countryID = getID("country");
+		if (countryID < 0) return -1;
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pStatement = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.COUNTRY);
+			 PreparedStatement pStatement = conn.prepareStatement(
 				"INSERT INTO adb.country (CountryID, Name)" +
 				" VALUES (?, ?);"))
 		{
@@ -806,6 +1578,7 @@ public class Queries {
 			pStatement.setString(2, name);
 			pStatement.execute();
 			conn.commit();
+			names.put(NameCache.Kind.COUNTRY, name, countryID);
 			System.out.println("Successfully inserted new country with ID: " + countryID);
 		} catch(SQLIntegrityConstraintViolationException e) {
 			System.out.println("Country already exists in the database.");
@@ -820,10 +1593,12 @@ public class Queries {
 	 * updateGenre allows for changing the description of an existing genre
 	 * @param genre name of genre to update
 	 * @param descrip new description of genre
+	 * @return number of genres updated, 0 if not found, -1 on error
 	 */
-	public void updateGenre(String genre, String descrip) {
+	public int updateGenre(String genre, String descrip) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.GENRE);
+			 PreparedStatement pstmt = conn.prepareStatement(
 				"SELECT GenreID, Description " +
 				"FROM genre " +
 				"WHERE GenreID = ?;"))
@@ -833,7 +1608,7 @@ public class Queries {
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if(!rs.next()) {
 					System.out.println("That genre does not exist yet.");
-					return;
+					return 0;
 				}
 				oldDescrip = rs.getString(2);
 			}
@@ -846,104 +1621,118 @@ public class Queries {
 				if (descrip != null) pStatement.setString(1, descrip);
 				else pStatement.setNull(1, Types.VARCHAR);
 				pStatement.setString(2, genre);
-				pStatement.executeUpdate();
+				int count = pStatement.executeUpdate();
 				conn.commit();
 				System.out.println("Successfully updated new genre description: " + genre);
 				System.out.println("Description " + oldDescrip +" is now: " + descrip);
+				return count;
 			}
 		}catch(SQLException e) {
 			System.out.println("Error when updating genre: " + genre + ": " + e.getMessage());
-		} 
+			return -1;
+		}
 	}
 	
+	static final String LABEL_COUNTRY_SQL = "SELECT LabelID, CountryID " +
+			"FROM recordlabel " +
+			"WHERE Name = ?;";
+	static final String UPDATE_LABEL_COUNTRY_SQL = "UPDATE adb.recordlabel "+
+			"SET CountryID = ? " +
+			"WHERE Name = ?;";
+
 	/**
 	 * updateLabelCountry allows for changing the country of an existing label
 	 * @param label name of label to update
 	 * @param country new country of label
+	 * @return number of labels updated, 0 if not found, -1 on error
 	 */
-	public void updateLabelCountry(String label, Integer country) {
+	public int updateLabelCountry(String label, Integer country) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT LabelID, CountryID " +
-				"FROM recordlabel " +
-				"WHERE Name = ?;"))
+		try (Connection conn = connectPrimary(CatalogTable.RECORDLABEL);
+			 PreparedStatement pstmt = conn.prepareStatement(LABEL_COUNTRY_SQL))
 		{
 			String oldCountry;
 			pstmt.setString(1, label);
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if(!rs.next()) {
 					System.out.println("That label does not exist yet.");
-					return;
+					return 0;
 				}
 				oldCountry = rs.getString(2);
 			}
-			try (PreparedStatement pStatement = conn.prepareStatement(
-					"UPDATE adb.recordlabel "+ 
-					"SET CountryID = ? " +
-					"WHERE Name = ?;"))
+			try (PreparedStatement pStatement = conn.prepareStatement(UPDATE_LABEL_COUNTRY_SQL))
 			{
 				//set values to insert
 				//int cID = getCountryID(country);
 				if (country != null) pStatement.setInt(1, country);
 				else pStatement.setNull(1, Types.INTEGER);
 				pStatement.setString(2, label);
-				pStatement.executeUpdate();
+				int count = pStatement.executeUpdate();
 				conn.commit();
 				System.out.println("Successfully updated new country for Record Label: " + label);
 				System.out.println("CountryID " + oldCountry +" of " + label + " is now: " + country);
+				return count;
 			}
 		}catch(SQLException e) {
 			System.out.println("Error when updating label: " + label + ": " + e.getMessage());
-		} 
+			return -1;
+		}
 	}
 	
+	static final String LABEL_DATE_SQL = "SELECT LabelID, FoundingDate " +
+			"FROM recordlabel " +
+			"WHERE Name = ?;";
+	static final String UPDATE_LABEL_DATE_SQL = "UPDATE adb.recordlabel "+
+			"SET FoundingDate = ? " +
+			"WHERE Name = ?;";
+
 	/**
 	 * updateLabelDate allows for changing the founding date of an existing label
 	 * @param label name of label to update
 	 * @param date new founding date of label
+	 * @return number of labels updated, 0 if not found, -1 on error
 	 */
-	public void updateLabelDate(String label, String date) {
+	public int updateLabelDate(String label, String date) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT LabelID, FoundingDate " +
-				"FROM recordlabel " +
-				"WHERE Name = ?;"))
+		try (Connection conn = connectPrimary(CatalogTable.RECORDLABEL);
+			 PreparedStatement pstmt = conn.prepareStatement(LABEL_DATE_SQL))
 		{
 			String oldDate = null;
 			pstmt.setString(1, label);
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if(!rs.next()) {
 					System.out.println("That label does not exist yet.");
-					return;
+					return 0;
 				}
 				oldDate = rs.getString(2);
 			}
-			try (PreparedStatement pStatement = conn.prepareStatement(
-					"UPDATE adb.recordlabel "+ 
-					"SET FoundingDate = ? " +
-					"WHERE Name = ?;"))
+			try (PreparedStatement pStatement = conn.prepareStatement(UPDATE_LABEL_DATE_SQL))
 			{
 				//set values to insert
 				if (date != null) pStatement.setString(1, date);
 				else pStatement.setNull(1, Types.DATE);
 				pStatement.setString(2, label);
-				pStatement.executeUpdate();
+				int count = pStatement.executeUpdate();
 				conn.commit();
 				System.out.println("Success. Founding date of " + label +" is now: " + date);
+				return count;
 			}
 		}catch(SQLException e) {
 			System.out.println("Error when updating label: " + label + ": " + e.getMessage());
-		} 
+			return -1;
+		}
 	}
 
 	/**
 	 * updateAlbumRD allows for changing the release date of an existing album
 	 * @param albumID the ID of the album to update
 	 * @param date the updated release date
+	 * @return number of albums updated, 0 if not found, -1 on error
 	 */
-	public void updateAlbumRD(int albumID, String date) {
+	public int updateAlbumRD(int albumID, String date) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.ALBUM);
+			 PreparedStatement pstmt = conn.prepareStatement(
 				"SELECT ReleaseDate, AlbumName " +
 				" FROM album " +
 				" WHERE AlbumID = ?;"))
@@ -954,7 +1743,7 @@ public class Queries {
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if(!rs.next()) {
 					System.out.println("That album does not exist yet.");
-					return;
+					return 0;
 				}
 				oldDate = rs.getString("ReleaseDate");
 				album = rs.getString("AlbumName");
@@ -968,84 +1757,109 @@ public class Queries {
 				if (date != null) pStatement.setString(1, date);
 				else pStatement.setNull(1, Types.DATE);
 				pStatement.setInt(2, albumID);
-				pStatement.executeUpdate();
+				int count = pStatement.executeUpdate();
+				//the album's creators may have their first or last release on it
+				if (summaries != null) summaries.refreshCreators(conn, summaries.creatorsOfAlbum(conn, albumID));
 				conn.commit();
 				System.out.println("Success. Release date of " + album +" is now: " + date);
+				return count;
 			}
 		}catch(SQLException e) {
 			System.out.println("Error when updating release date for albumID " + albumID + ": " + e.getMessage());
-		} 
+			return -1;
+		}
 	}
 
+	static final String ALBUM_LABEL_SQL = "SELECT AlbumID, LabelID " +
+			"FROM album " +
+			"WHERE AlbumName = ?;";
+	static final String UPDATE_ALBUM_LABEL_SQL = "UPDATE adb.album "+
+			"SET LabelID = ? " +
+			"WHERE AlbumName = ?;";
+
 	/**
 	 * updateAlbumRL allows for changing the record label of an existing album
 	 * @param album name of album to be updated
 	 * @param label name of new label for album
+	 * @return number of albums updated, 0 if not found, -1 on error
 	 */
-	public void updateAlbumRL(String album, String label) {
+	public int updateAlbumRL(String album, String label) {
 		//use try-with-resources block to ensure close regardless of success
-		try (PreparedStatement pstmt = conn.prepareStatement(
-				"SELECT AlbumID, LabelID " +
-				"FROM album " +
-				"WHERE AlbumName = ?;"))
+		try (Connection conn = connectPrimary(CatalogTable.ALBUM, CatalogTable.RECORDLABEL);
+			 PreparedStatement pstmt = conn.prepareStatement(ALBUM_LABEL_SQL))
 		{
 			String oldLabel;
 			pstmt.setString(1, album);
 			try (ResultSet rs = pstmt.executeQuery()) {
 				if(!rs.next()) {
 					System.out.println("That album does not exist yet.");
-					return;
+					return 0;
 				}
 				oldLabel = rs.getString(2);
 			}
-			try (PreparedStatement pStatement = conn.prepareStatement(
-					"UPDATE adb.album "+ 
-					"SET LabelID = ? " +
-					"WHERE AlbumName = ?;"))
+			try (PreparedStatement pStatement = conn.prepareStatement(UPDATE_ALBUM_LABEL_SQL))
 			{
 				//set values to insert
 				if (label != null) { 
-					int rlID = getRecordLabelID(label);
+					int rlID = getRecordLabelID(conn, label);
 					if (rlID == 0 || rlID == -1) {
 						System.out.println("There was an error finding the specified Record Label");
-						return;
+						return -1;
 					}
 					pStatement.setInt(1, rlID);
 				}
 				else pStatement.setNull(1, Types.INTEGER);
 				pStatement.setString(2, album);
-				pStatement.executeUpdate();
+				int count = pStatement.executeUpdate();
 				conn.commit();
 				System.out.println("Success. Record LabelID (" + oldLabel +") of " + album + " is now: " + label);
+				return count;
 			}
 		}catch(SQLException e) {
 			System.out.println("Error when updating label: " + album + ": " + e.getMessage());
-		} 
+			return -1;
+		}
 	}
 	
+	static final String UPDATE_TRACK_COUNTRY_SQL = "UPDATE adb.audiofile SET CountryID=? WHERE audiofile.ReleaseName=?;";
+	//the updated tracks, for the sampler
+	static final String TRACK_IDS_SQL = "SELECT TrackID FROM audiofile WHERE ReleaseName = ?;";
+
 	/**
 	 * Allows user to change country associated with track
 	 * 
 	 * @param track_name Name of track to update
 	 * @param c_name New country name
+	 * @return number of tracks updated, or -1 on error
 	 */
-	public void updateCountryIDaf(String track_name, String c_name){
+	public int updateCountryIDaf(String track_name, String c_name){
 	
-		try(PreparedStatement p_stmt = conn.prepareStatement(
-			"UPDATE adb.audiofile SET CountryID=? WHERE audiofile.ReleaseName=?;"
-		)){
-			int c_id = getCountryID(c_name);
+		try (Connection conn = connectPrimary(CatalogTable.AUDIOFILE);
+			 PreparedStatement p_stmt = conn.prepareStatement(UPDATE_TRACK_COUNTRY_SQL)){
+			int c_id = getCountryID(conn, c_name);
 			p_stmt.setInt(1, c_id);
 			p_stmt.setString(2, track_name);
-			p_stmt.executeUpdate();
+			int count = p_stmt.executeUpdate();
 			conn.commit();
+			if (sampler.isLoaded()) {
+				try (PreparedStatement ids = conn.prepareStatement(TRACK_IDS_SQL)) {
+					ids.setString(1, track_name);
+					try (ResultSet rs = ids.executeQuery()) {
+						while (rs.next()) sampler.setCountry(rs.getInt(1), c_id);
+					}
+				}
+			}
 			System.out.println("Successfully updated country for " + track_name + " to: " + c_name);
+			return count;
 	
 		}catch(Exception exc){
 			System.out.println("Error updating country " + c_name + "'s ID: " + exc.getMessage());
+			return -1;
 		}
 	} 
 	
+	static final String COUNTRY_ID_SQL = "SELECT country.CountryID FROM country WHERE country.Name=?;";
+
 	/**
 	 * Helper method returns countryID given a country name
 	 * 
@@ -1053,15 +1867,26 @@ public class Queries {
 	 * @return ID for requested country, or -1 if not present.
 	 */
 	public int getCountryID(String c_name){
+		try (Connection conn = connect()) {
+			return getCountryID(conn, c_name);
+		} catch(SQLException exc) {
+			System.out.println("Error getting country ID for " + c_name + ": " + exc.getMessage());
+			return 0;
+		}
+	}
+
+	//country lookup on a connection the caller already holds
+	private int getCountryID(Connection conn, String c_name){
 		int result = 0;
-		try(PreparedStatement p_stmt = conn.prepareStatement(
-			"SELECT country.CountryID FROM country WHERE country.Name=?;"
-		)) {
+		Integer cached = names.get(NameCache.Kind.COUNTRY, c_name);
+		if (cached != null) return cached;
+		try(PreparedStatement p_stmt = conn.prepareStatement(COUNTRY_ID_SQL)) {
 			p_stmt.setString(1, c_name);
 			try (ResultSet rs = p_stmt.executeQuery()) {
 				if (rs.next()) result = rs.getInt(1);
 				else result = -1;
 			}
+			names.put(NameCache.Kind.COUNTRY, c_name, result);
 		} catch(Exception exc) {
 			System.out.println("Error getting country ID for " + c_name + ": " + exc.getMessage());
 		}
@@ -1076,7 +1901,8 @@ public class Queries {
 	 */
 	public int deleteCreator(int creatorID) {
 		int count;
-		try(PreparedStatement p_stmt = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.CREATOR, CatalogTable.CREATEDBY);
+			 PreparedStatement p_stmt = conn.prepareStatement(
 				"DELETE" +
 				" FROM creator" +
 				" WHERE CreatorID = ?;"))
@@ -1084,6 +1910,8 @@ public class Queries {
 			p_stmt.setInt(1, creatorID);
 			count = p_stmt.executeUpdate();
 			conn.commit();
+			names.invalidateID(NameCache.Kind.CREATOR, creatorID);
+			index.remove(SearchIndex.Field.CREATOR, creatorID);
 		} catch(SQLException e){
 			System.out.println("Error deleting creatorID " + creatorID + ": " + e.getMessage());
 			count = -1;
@@ -1099,13 +1927,19 @@ public class Queries {
 	 */
 	public int deleteAlbum(int albumID) {
 		int items;
-		try (PreparedStatement p_stmt = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.ALBUM, CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.INGENRE);
+			 PreparedStatement p_stmt = conn.prepareStatement(
 				"DELETE" +
 				" FROM album" +
 				" WHERE AlbumID = ?;")) {
 			p_stmt.setInt(1, albumID);
+			//the album's summary row goes with it, its creators' rows are recomputed without its tracks
+			Set<Integer> creatorIDs = (summaries != null) ? summaries.creatorsOfAlbum(conn, albumID) : Collections.<Integer>emptySet();
 			items = p_stmt.executeUpdate();
+			if (summaries != null) summaries.refreshCreators(conn, creatorIDs);
 			conn.commit();
+			//the album's tracks are deleted by cascade and leave the index the next time a search finds them
+			index.remove(SearchIndex.Field.ALBUM, albumID);
 		} catch (Exception exc) {
 			System.out.println("Error when deleting albumID \"" + albumID + "\": " + exc.getMessage());
 			items = -1;
@@ -1122,14 +1956,19 @@ public class Queries {
 	 */
 	public int deleteTrack(int trackID) {
 		int count;
-		try(PreparedStatement preparedS = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.AUDIOFILE, CatalogTable.CREATEDBY, CatalogTable.INGENRE);
+			 PreparedStatement preparedS = conn.prepareStatement(
 				"DELETE" +
 				" FROM audiofile" +
 				" WHERE TrackID = ?;"))
 		{
 			preparedS.setInt(1, trackID);
+			CatalogSummary.TrackRow removed = (summaries != null) ? summaries.track(conn, trackID) : null;
 			count = preparedS.executeUpdate();
+			if (removed != null) summaries.trackRemoved(conn, removed);
 			conn.commit();
+			index.remove(SearchIndex.Field.TRACK, trackID);
+			sampler.removeTrack(trackID);
 		} catch(SQLException e) {
 			System.out.println("Error deleting trackID " + trackID + ": " + e.getMessage());
 			count = -1;
@@ -1145,7 +1984,8 @@ public class Queries {
 	 */
 	public int deleteGenre(String genre) {
 		int count;
-		try(PreparedStatement pstmt = conn.prepareStatement(
+		try (Connection conn = connectPrimary(CatalogTable.GENRE, CatalogTable.INGENRE);
+			 PreparedStatement pstmt = conn.prepareStatement(
 			"DELETE" +
 			" FROM genre" +
 			" WHERE GenreID = ?;"))
@@ -1153,6 +1993,7 @@ public class Queries {
 			pstmt.setString(1, genre);
 			count = pstmt.executeUpdate();
 			conn.commit();
+			sampler.removeGenre(genre);
 		} catch(SQLException e) {
 			System.out.println("Error deleting genre" + genre + ": " + e.getMessage());
 			count = -1;
@@ -1172,7 +2013,8 @@ public class Queries {
 		if(labelID == 0 || labelID == -1) {
 			System.out.println("Label " + label + " not found");
 		} else {
-			try(PreparedStatement pstmt = conn.prepareStatement(
+			try(Connection conn = connectPrimary(CatalogTable.RECORDLABEL, CatalogTable.ALBUM);
+				PreparedStatement pstmt = conn.prepareStatement(
 					"DELETE" +
 					" FROM recordlabel" +
 					" WHERE LabelID = ?;"))
@@ -1180,6 +2022,7 @@ public class Queries {
 				pstmt.setInt(1, labelID);
 				count = pstmt.executeUpdate();
 				conn.commit();
+				names.invalidateID(NameCache.Kind.LABEL, labelID);
 			} catch(SQLException e) {
 				System.out.println("Error deleting label" + label + ": " + e.getMessage());
 				count = -1;
@@ -1188,21 +2031,458 @@ public class Queries {
 		return count;
 	}
 	
-	//private helper method for returning a random ID#
-	private int getID(String s) {
-		return rand.nextInt(Integer.MAX_VALUE);
+	/**
+	 * Loads every track, album and creator name into the in-memory keyword index used by searchCatalog.
+	 * Inserts and deletes made through this class keep the index up to date afterwards.
+	 * @return number of names indexed, or -1 if loading failed
+	 */
+	public int buildSearchIndex() {
+		SearchIndex fresh = new SearchIndex();
+		try (Connection conn = connect()) {
+			loadIndex(conn, fresh, SearchIndex.Field.CREATOR, "SELECT CreatorID, Name FROM creator;");
+			loadIndex(conn, fresh, SearchIndex.Field.ALBUM, "SELECT AlbumID, AlbumName FROM album;");
+			loadIndex(conn, fresh, SearchIndex.Field.TRACK, "SELECT TrackID, ReleaseName FROM audiofile;");
+		} catch (SQLException e) {
+			System.out.println("Error when building search index: " + e.getMessage());
+			return -1;
+		}
+		index = fresh;
+		int total = 0;
+		for (SearchIndex.Field f : SearchIndex.Field.values()) total += fresh.size(f);
+		return total;
 	}
 
-	//private helper method for abbreviating strings
-	private String abbreviate(String s, int len) {
-		String result = s.substring(0, Math.min(s.length(), len));
-		if (s.length() > len && len > 4) result = result.substring(0, len - 3) + "...";
-		return result;
+	private void loadIndex(Connection conn, SearchIndex target, SearchIndex.Field field, String sql) throws SQLException {
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) target.add(field, rs.getInt(1), rs.getString(2));
+		}
+	}
+
+	/**
+	 * Loads every catalog table into memory, after which the searches are answered from the copy
+	 * (see CatalogSnapshot) instead of the database. Tables written through this Queries are read again in the
+	 * background, and the searches use the database until that is done; writes by other programs are only picked
+	 * up by calling this again.
+	 * With a snapshot file (see setSnapshotFile()) the file is mapped if its fingerprint matches the database's,
+	 * and rebuilt otherwise.
+	 * @return number of rows loaded, or -1 if loading failed
+	 */
+	public int buildSnapshot() {
+		synchronized (snapshotRefresh) {
+			synchronized (staleTables) {
+				staleTables.clear();
+			}
+			//searches use the database until the new snapshot is in place. dropping the old one also drops its
+			//mapping of the file, which Windows would not let us replace
+			snapshot = null;
+			CatalogSnapshot fresh;
+			//from the primary, so a lagging replica cannot leave out a write
+			try (Connection conn = pool.getConnection()) {
+				long version = (snapshotFile != null && catalogVersion) ? CatalogSnapshot.version(conn) : 0;
+				long fingerprint = (snapshotFile == null) ? 0 : CatalogSnapshot.fingerprint(conn, version);
+				snapshotVersion = version;
+				versionsWritten.set(0);
+				fresh = openSnapshotFile(fingerprint);
+				if (fresh == null) {
+					fresh = CatalogSnapshot.load(conn, fetchSize);
+					if (snapshotFile != null) fresh = writeSnapshotFile(fresh, fingerprint);
+				}
+			} catch (SQLException e) {
+				System.out.println("Error when loading catalog snapshot: " + e.getMessage());
+				return -1;
+			}
+			snapshot = fresh;
+			snapshotUnsaved = false;
+			return fresh.size();
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the snapshot file if it was refreshed since it was loaded or last saved, so the next
+	 * buildSnapshot() can map it instead of reading every table. Zene calls this when it exits.
+	 * With the change counter (see setCatalogVersion()) the file is left alone if anything but this Queries wrote
+	 * since the snapshot was loaded: the snapshot may miss that write, and the old file's fingerprint no longer
+	 * matches, so the next buildSnapshot() reads the tables again.
+	 * @return 1 if the file was written, 0 if there was nothing to write, -1 on error
+	 */
+	public int saveSnapshotFile() {
+		synchronized (snapshotRefresh) {
+			if (snapshotFile == null || snapshot == null) return 0;
+			EnumSet<CatalogTable> tables;
+			synchronized (staleTables) {
+				tables = EnumSet.copyOf(staleTables);
+				staleTables.clear();
+			}
+			if (tables.isEmpty() && !snapshotUnsaved) return 0;
+			//the fingerprint is read in the same transaction as the last tables written through here
+			try (Connection conn = pool.getConnection()) {
+				long version = catalogVersion ? CatalogSnapshot.version(conn) : 0;
+				if (catalogVersion && version != snapshotVersion + versionsWritten.get()) {
+					System.out.println("Catalog snapshot " + snapshotFile + " not saved, the catalog was changed elsewhere since it was loaded");
+					return 0;
+				}
+				long fingerprint = CatalogSnapshot.fingerprint(conn, version);
+				if (!tables.isEmpty()) snapshot = snapshot.refresh(conn, fetchSize, tables);
+				snapshot.write(snapshotFile, fingerprint);
+				snapshotVersion = version;
+				versionsWritten.set(0);
+			} catch (SQLException | IOException e) {
+				synchronized (staleTables) {
+					staleTables.addAll(tables);
+				}
+				System.out.println("Error when writing catalog snapshot " + snapshotFile + ": " + e.getMessage());
+				return -1;
+			}
+			snapshotUnsaved = false;
+			return 1;
+		}
+	}
+
+	//the snapshot file mapped, or null if there is none, or it is unusable or has another fingerprint than the
+	//database. the fingerprint is checked before mapping, so a stale file is never left mapped
+	private CatalogSnapshot openSnapshotFile(long fingerprint) {
+		if (snapshotFile == null) return null;
+		try {
+			if (SnapshotFile.fingerprint(snapshotFile) != fingerprint) {
+				System.out.println("Catalog snapshot " + snapshotFile + " is out of date, rebuilding it");
+				return null;
+			}
+			return CatalogSnapshot.open(snapshotFile);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			System.out.println("Catalog snapshot " + snapshotFile + " is unusable, rebuilding it: " + e.getMessage());
+			return null;
+		}
+	}
+
+	//writes snap to the snapshot file and returns it mapped from there, which moves its columns off the heap.
+	//if writing fails the snapshot stays in memory
+	private CatalogSnapshot writeSnapshotFile(CatalogSnapshot snap, long fingerprint) {
+		try {
+			snap.write(snapshotFile, fingerprint);
+			//the new file can still be waiting next to an old one another snapshot has mapped, see SnapshotFile
+			if (SnapshotFile.fingerprint(snapshotFile) != fingerprint) return snap;
+			return CatalogSnapshot.open(snapshotFile);
+		} catch (IOException e) {
+			System.out.println("Error when writing catalog snapshot " + snapshotFile + ": " + e.getMessage());
+			return snap;
+		}
+	}
+
+	//the snapshot the calling search should read, or null to use the database. scripts do not use it, their
+	//searches have to see the writes they have not committed yet. after a write the database answers, so the
+	//search sees it, while the background thread reads the written tables again; no search waits for the reload
+	private CatalogSnapshot snapshot() {
+		CatalogSnapshot snap = snapshot;
+		if (snap == null || pinned.get() != null) return null;
+		synchronized (staleTables) {
+			if (staleTables.isEmpty() && refreshingTables.isEmpty()) return snap;
+			if (!staleTables.isEmpty() && !refreshQueued) {
+				refreshQueued = true;
+				snapshotRefresher.execute(this::refreshSnapshot);
+			}
+		}
+		return null;
+	}
+
+	//reads the stale tables again and puts the new snapshot in place. the reloaded tables stay in memory, the
+	//snapshot file is only written again by saveSnapshotFile()
+	private void refreshSnapshot() {
+		//one reload at a time. tables written while it runs stay stale for the next one
+		synchronized (snapshotRefresh) {
+			EnumSet<CatalogTable> tables;
+			synchronized (staleTables) {
+				refreshQueued = false;
+				if (snapshot == null || staleTables.isEmpty()) return;
+				tables = EnumSet.copyOf(staleTables);
+				staleTables.clear();
+				refreshingTables.addAll(tables);
+			}
+			try (Connection conn = pool.getConnection()) {
+				snapshot = snapshot.refresh(conn, fetchSize, tables);
+				snapshotUnsaved = true;
+			} catch (SQLException e) {
+				synchronized (staleTables) {
+					staleTables.addAll(tables);
+				}
+				//the database answers until a reload succeeds
+				System.out.println("Error when refreshing catalog snapshot: " + e.getMessage());
+			} finally {
+				synchronized (staleTables) {
+					refreshingTables.clear();
+				}
+			}
+		}
+	}
+
+	//searchCatalog reads its matches by primary key, SEARCH_LIMIT at a time
+	static final String KEYWORD_CREATORS_SQL = "SELECT CreatorID AS ID, Name FROM creator WHERE CreatorID IN " + SEARCH_IDS + ";";
+	static final String KEYWORD_ALBUMS_SQL = "SELECT AlbumID AS ID, AlbumName, MediaType, date(ReleaseDate) AS ReleaseDate FROM album WHERE AlbumID IN " + SEARCH_IDS + ";";
+	static final String KEYWORD_TRACKS_SQL = "SELECT audiofile.TrackID AS ID, audiofile.TrackID, ReleaseName AS Title, Duration, ExplicitRating AS Explicit, NULL AS CreatorID," +
+			" (SELECT creator.Name FROM createdby, creator WHERE createdby.TrackID = audiofile.TrackID AND createdby.CreatorID = creator.CreatorID LIMIT 1) AS Creator," +
+			" album.AlbumID, AlbumName AS Album, date(ReleaseDate) AS ReleaseDate" +
+			" FROM audiofile, album" +
+			" WHERE album.AlbumID = audiofile.AlbumID" +
+			" AND audiofile.TrackID IN " + SEARCH_IDS + ";";
+
+	/**
+	 * Keyword search over creator, album and track names. Every word typed has to match the start of a word
+	 * in the name (or any part of it for words of three letters or more), ignoring case and accents.
+	 * Matches come from the in-memory index; only their rows are read from the database, by primary key.
+	 * @param text Words to search for.
+	 * @return total number of matches printed
+	 */
+	public int searchCatalog(String text) {
+		return searchCatalog(text, new ConsoleSink(out, false));
+	}
+
+	/**
+	 * Keyword search passing the matching creators, then albums (without tracks), then tracks to the sink,
+	 * each in the order the index ranked them.
+	 * @param text Words to search for.
+	 * @return total number of matches passed, or -1 on error
+	 */
+	public int searchCatalog(String text, ResultSink sink) {
+		Integer cached = replay(sink, "searchCatalog", text);
+		if (cached != null) return cached;
+		sink = record(sink, TRACK_TABLES, "searchCatalog", text);
+		sink.begin(ResultSink.Search.KEYWORD, text);
+		int count = 0;
+		//the snapshot needs no connection, a null resource is skipped when closing
+		CatalogSnapshot snap = snapshot();
+		try (Connection conn = (snap == null) ? connect() : null) {
+			List<Integer> creatorIDs = index.search(SearchIndex.Field.CREATOR, text, SEARCH_LIMIT);
+			if (!creatorIDs.isEmpty()) {
+				Map<Integer, Creator> rows = (snap != null) ? fetchByID(SearchIndex.Field.CREATOR, creatorIDs, snap::creator)
+						: fetchByID(conn, SearchIndex.Field.CREATOR, creatorIDs,
+						KEYWORD_CREATORS_SQL,
+						rs -> new Creator(rs.getInt("ID"), rs.getString("Name")));
+				count += passRanked(creatorIDs, rows, sink::creator);
+			}
+
+			List<Integer> albumIDs = index.search(SearchIndex.Field.ALBUM, text, SEARCH_LIMIT);
+			if (!albumIDs.isEmpty()) {
+				Map<Integer, Album> rows = (snap != null) ? fetchByID(SearchIndex.Field.ALBUM, albumIDs, snap::album)
+						: fetchByID(conn, SearchIndex.Field.ALBUM, albumIDs,
+						KEYWORD_ALBUMS_SQL,
+						rs -> new Album(rs.getInt("ID"), rs.getString("AlbumName"), rs.getString("MediaType"),
+								rs.getString("ReleaseDate"), null, 0, null, Collections.<Track>emptyList()));
+				count += passRanked(albumIDs, rows, sink::album);
+			}
+
+			List<Integer> trackIDs = index.search(SearchIndex.Field.TRACK, text, SEARCH_LIMIT);
+			if (!trackIDs.isEmpty()) {
+				Map<Integer, Track> rows = (snap != null) ? fetchByID(SearchIndex.Field.TRACK, trackIDs, snap::track)
+						: fetchByID(conn, SearchIndex.Field.TRACK, trackIDs,
+						KEYWORD_TRACKS_SQL,
+						Queries::track);
+				count += passRanked(trackIDs, rows, sink::track);
+			}
+		} catch (SQLException e) {
+			return fail(sink, "Error when searching for \"" + text + "\": " + e.getMessage());
+		}
+		return finish(sink, count, "No results found for " + text);
+	}
+
+	//reads one searchCatalog detail row
+	private interface RowReader<T> {
+		T read(ResultSet rs) throws SQLException;
+	}
+
+	//reads rows for the IDs by primary key. IDs the index still had but the database no longer does are dropped from the index
+	private <T> Map<Integer, T> fetchByID(Connection conn, SearchIndex.Field field, List<Integer> ids, String sql, RowReader<T> reader) throws SQLException {
+		Map<Integer, T> rows = new HashMap<>();
+		try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			for (int i = 0; i < SEARCH_LIMIT; i++) pstmt.setInt(i + 1, (i < ids.size()) ? ids.get(i) : -1);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) rows.put(rs.getInt("ID"), reader.read(rs));
+			}
+		}
+		for (int id : ids) if (!rows.containsKey(id)) index.remove(field, id);
+		return rows;
+	}
+
+	//fetchByID() reading the rows from the snapshot
+	private <T> Map<Integer, T> fetchByID(SearchIndex.Field field, List<Integer> ids, IntFunction<T> snapshotRow) {
+		Map<Integer, T> rows = new HashMap<>();
+		for (int id : ids) {
+			T row = snapshotRow.apply(id);
+			if (row != null) rows.put(id, row);
+			else index.remove(field, id);
+		}
+		return rows;
+	}
+
+	//passes rows on in the order the index ranked them
+	private static <T> int passRanked(List<Integer> ids, Map<Integer, T> rows, Consumer<T> sink) {
+		int count = 0;
+		for (int id : ids) {
+			T row = rows.get(id);
+			if (row == null) continue;
+			sink.accept(row);
+			count++;
+		}
+		return count;
+	}
+
+	//the pinned connection while a script runs, otherwise one borrowed from a replica or the pool. timed if slow queries are logged
+	private Connection connect() throws SQLException {
+		Connection conn = pinned.get();
+		if (conn == null) {
+			ReplicaRouter router = replicas;
+			conn = (router != null) ? router.getReadConnection() : pool.getConnection();
+		}
+		SlowQueryLog log = slowLog;
+		return (log != null) ? log.wrap(conn) : conn;
+	}
+
+	//connect() for inserts, updates and deletes, which always run on the primary. once the connection is closed,
+	//after the commit, the result cache and the snapshot drop what they hold of the touched tables. a script's
+	//pinned connection only collects them, until flushWrites()
+	private Connection connectPrimary(CatalogTable... touched) throws SQLException {
+		Connection conn = pinned.get();
+		if (conn != null) {
+			Collections.addAll(pinnedWrites.get(), touched);
+		} else {
+			ReplicaRouter router = replicas;
+			conn = (router != null) ? router.getWriteConnection() : pool.getConnection();
+			if (touched.length > 0) conn = writtenOnClose(conn, EnumSet.of(touched[0], touched));
+		}
+		SlowQueryLog log = slowLog;
+		return (log != null) ? log.wrap(conn) : conn;
+	}
+
+	//conn, which increments the change counter in each transaction it commits and reports the tables as written
+	//when it is closed
+	private Connection writtenOnClose(Connection conn, EnumSet<CatalogTable> tables) {
+		boolean counting = catalogVersion;
+		int[] commits = {0};
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					if (counting && method.getName().equals("commit")) CatalogSnapshot.countWrite(conn);
+					try {
+						Object result = method.invoke(conn, args);
+						if (counting && method.getName().equals("commit")) commits[0]++;
+						return result;
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					} finally {
+						if (method.getName().equals("close")) {
+							written(tables);
+							//counted once the tables are stale, so saveSnapshotFile() cannot save without the write
+							versionsWritten.addAndGet(commits[0]);
+						}
+					}
+				});
+	}
+
+	//drops the cached results that read the tables, and has the snapshot reload them before its next search
+	private void written(EnumSet<CatalogTable> tables) {
+		ReplicaRouter router = replicas;
+		if (router != null) router.wrote();
+		ResultCache cache = results;
+		if (cache != null) cache.invalidate(tables);
+		synchronized (staleTables) {
+			staleTables.addAll(tables);
+		}
+	}
+
+	//the cached result of a search replayed into sink, or null if the search has to run. scripts skip the
+	//cache, their searches may see writes that are not committed yet
+	private Integer replay(ResultSink sink, Object... key) {
+		ResultCache cache = results;
+		if (cache == null || pinned.get() != null) return null;
+		return cache.replay(Arrays.asList(key), sink);
+	}
+
+	//sink, with the search's result stored in the cache once it ends
+	private ResultSink record(ResultSink sink, EnumSet<CatalogTable> tables, Object... key) {
+		ResultCache cache = results;
+		if (cache == null || pinned.get() != null) return sink;
+		return cache.record(Arrays.asList(key), tables, sink);
+	}
+
+	//private helper method for returning an unused ID# for the given table, or -1 if none could be reserved
+	private int getID(String table) {
+		try {
+			return ids.nextID(table);
+		} catch (SQLException e) {
+			System.out.println("Error reserving a new " + table + " ID: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	//applies the configured fetch size to a search statement before it is executed
+	private PreparedStatement streaming(PreparedStatement pstmt) throws SQLException {
+		pstmt.setFetchDirection(ResultSet.FETCH_FORWARD);
+		pstmt.setFetchSize(fetchSize);
+		return pstmt;
+	}
+
+	//reads a track row of a search that selected TRACK_COLUMNS, SAMPLE_COLUMNS or the same aliases
+	private static Track track(ResultSet rs) throws SQLException {
+		Integer explicit = integer(rs, "Explicit");
+		return new Track(rs.getInt("TrackID"), rs.getString("Title"), integer(rs, "Duration"),
+				(explicit == null) ? null : explicit != 0, integer(rs, "CreatorID"), rs.getString("Creator"),
+				integer(rs, "AlbumID"), rs.getString("Album"), rs.getString("ReleaseDate"));
+	}
+
+	//getInt that keeps SQL NULL as null
+	private static Integer integer(ResultSet rs, String column) throws SQLException {
+		int value = rs.getInt(column);
+		return rs.wasNull() ? null : value;
+	}
+
+	//passes the rows of a page of tracks to the sink. the query selects one track more than pageSize,
+	//whose rows are not passed but tell the sink another page follows. gnr is given for genre searches
+	private int trackPage(PreparedStatement pstmt, int pageSize, String gnr, ResultSink sink) throws SQLException {
+		int count = 0;
+		int tracks = 0;
+		int lastTrackID = 0;
+		try (ResultSet rs = streaming(pstmt).executeQuery()) {
+			while (rs.next()) {
+				if (count == 0 && gnr != null) sink.genre(gnr, rs.getString("Description"));
+				Track t = track(rs);
+				if (tracks == 0 || t.trackID != lastTrackID) {
+					if (tracks == pageSize) {
+						sink.next(String.valueOf(lastTrackID));
+						break;
+					}
+					tracks++;
+					lastTrackID = t.trackID;
+				}
+				sink.track(t);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	//the key a page starts after: the last TrackID or AlbumID of the previous page, which is its token
+	private static int pageStart(String after) {
+		return (after == null) ? Integer.MIN_VALUE : Integer.parseInt(after);
+	}
+
+	private static int checkPageSize(int pageSize) {
+		if (pageSize <= 0) throw new IllegalArgumentException("page size must be more than 0");
+		//callers ask for one row more than the page, which has to fit the LIMIT
+		if (pageSize > MAX_PAGE_SIZE) throw new IllegalArgumentException("page size must be at most " + MAX_PAGE_SIZE);
+		return pageSize;
+	}
+
+	//ends a search that read count records, telling the sink if there were none
+	private static int finish(ResultSink sink, int count, String emptyMessage) {
+		if (count == 0) sink.empty(emptyMessage);
+		sink.end(count);
+		return count;
 	}
 
-	//private helper method for casting null strings as blank
-	private String nullable(String s) {
-		if (s == null) return "-";
-		return s;
+	//ends a search that failed
+	private static int fail(ResultSink sink, String message) {
+		sink.error(message);
+		sink.end(-1);
+		return -1;
 	}
 }
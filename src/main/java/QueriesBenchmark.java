@@ -0,0 +1,400 @@
+package main.java;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency benchmark for the public Queries operations.
+ * Creates the schema from the setup script in an empty database, fills it with a generated catalog and times
+ * every operation against it, then grows the catalog to the next size and repeats.
+ * Each operation is warmed up before it is measured; rows written by the insert and delete benchmarks are
+ * created and removed outside the timed call, so the catalog size stays the same throughout a round.
+ * After the last round, concurrentInserts runs inserts from as many threads as the pool has connections and
+ * fails the run if any of them could not get a connection or an ID.
+ * <pre>
+ *   java main.java.QueriesBenchmark url username password driver [--sizes 1000,10000,100000]
+ *       [--warmup seconds] [--time seconds] [--only name,name] [--schema file]
+ * </pre>
+ * Only point it at a scratch database: the adb schema must not contain any tables yet.
+ */
+public class QueriesBenchmark {
+	private static final int[] DEFAULT_SIZES = {1000, 10000, 100000};
+	private static final String DEFAULT_SCHEMA = "ser322 - group 17 - database setup.sql";
+
+	//catalog shape: tracks per album, albums per creator, and the number of genres, countries and labels
+	private static final int TRACKS_PER_ALBUM = 10;
+	private static final int ALBUMS_PER_CREATOR = 5;
+	private static final int GENRES = 20;
+	private static final int COUNTRIES = 10;
+	private static final int LABELS = 20;
+	private static final String[] MEDIA_TYPES = {"Music", "Podcast", "Audiobook"};
+	//name of the concurrent insert check for --only
+	private static final String CONCURRENT_INSERTS = "concurrentInserts";
+
+	private final ConnectionPool pool;
+	private final IdAllocator ids;
+	private final Queries query;
+	private final Random rand = new Random(17);
+	private final PrintStream report;
+
+	//names and IDs generated so far, used to pick arguments that exist
+	private final List<String> creators = new ArrayList<>();
+	private final List<String> albums = new ArrayList<>();
+	private final List<String> titles = new ArrayList<>();
+	private final List<Integer> albumIDs = new ArrayList<>();
+	private int tracks = 0;
+
+	//one timed call. i counts the calls made so far, so arguments can vary between calls
+	private interface Call {
+		void run(int i) throws Exception;
+	}
+
+	//a benchmarked operation, with optional untimed steps before and after each call
+	private static class Case {
+		final String name;
+		final Call before, call, after;
+
+		Case(String name, Call before, Call call, Call after) {
+			this.name = name;
+			this.before = before;
+			this.call = call;
+			this.after = after;
+		}
+	}
+
+	QueriesBenchmark(ConnectionPool pool, PrintStream report) {
+		this.pool = pool;
+		this.ids = new BlockIdAllocator(pool, 1000);
+		this.query = new Queries(pool, new Scanner(""), ids);
+		this.query.setMissingCreator(Queries.MissingCreator.CREATE);
+		this.report = report;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.out.println("usage: QueriesBenchmark <url> <username> <password> <driver> [--sizes n,n] [--warmup s] [--time s] [--only name,name] [--schema file]");
+			System.exit(1);
+		}
+		int[] sizes = DEFAULT_SIZES;
+		double warmup = 2, time = 5;
+		Set<String> only = null;
+		String schema = DEFAULT_SCHEMA;
+		for (int i = 4; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--sizes": sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).sorted().toArray(); break;
+				case "--warmup": warmup = Double.parseDouble(args[i + 1]); break;
+				case "--time": time = Double.parseDouble(args[i + 1]); break;
+				case "--only": only = new HashSet<>(Arrays.asList(args[i + 1].split(","))); break;
+				case "--schema": schema = args[i + 1]; break;
+				default: throw new IllegalArgumentException("unrecognized option " + args[i]);
+			}
+		}
+		Class.forName(args[3]);
+
+		//Queries prints every result, which would only measure the console. results go to the saved stdout instead
+		PrintStream report = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		}));
+		int failed = 0;
+		try (ConnectionPool pool = new ConnectionPool(args[0], args[1], args[2])) {
+			QueriesBenchmark bench = new QueriesBenchmark(pool, report);
+			bench.createSchema(Paths.get(schema));
+			for (int size : sizes) {
+				bench.grow(size);
+				report.printf("\n%d tracks, %d albums, %d creators\n", bench.tracks, bench.albums.size(), bench.creators.size());
+				report.printf("%-28s %10s %10s %10s %10s %10s\n", "operation", "ops/sec", "p50 us", "p90 us", "p99 us", "max us");
+				for (Case c : bench.cases()) {
+					if (only == null || only.contains(c.name)) bench.measure(c, warmup, time);
+				}
+			}
+			if (only == null || only.contains(CONCURRENT_INSERTS)) failed = bench.concurrentInserts(time);
+		} finally {
+			System.setOut(report);
+		}
+		if (failed > 0) System.exit(1);
+	}
+
+	//every public operation, with arguments picked from the generated catalog
+	private List<Case> cases() {
+		List<Case> cases = new ArrayList<>();
+		read(cases, "queryByCreator", i -> query.queryByCreator(pick(creators), false));
+		read(cases, "queryByAudioTitle", i -> query.queryByAudioTitle(pick(titles), false));
+		read(cases, "queryByAlbumTitle", i -> query.queryByAlbumTitle(pick(albums), true));
+		read(cases, "queryByGenre", i -> query.queryByGenre(genre(rand.nextInt(GENRES))));
+		read(cases, "queryByMediaType", i -> query.queryByMediaType(MEDIA_TYPES[i % MEDIA_TYPES.length]));
+		read(cases, "getTracksByRating", i -> query.getTracksByRating(i % 2));
+		read(cases, "getTracksByCountry", i -> query.getTracksByCountry(country(rand.nextInt(COUNTRIES))));
+		read(cases, "getTracksLabel", i -> query.getTracksLabel(label(rand.nextInt(LABELS))));
+		read(cases, "getAvgTrackDurationAlbum", i -> query.getAvgTrackDurationAlbum(pick(albums)));
+		read(cases, "numTracksInAlbum", i -> query.numTracksInAlbum(pick(albums)));
+		read(cases, "getCreatorSummary", i -> query.getCreatorSummary(pick(creators)));
+		read(cases, "getRandomTracks", i -> query.getRandomTracks(10));
+		read(cases, "getRandomTracks(genre)", i -> query.getRandomTracks(10, genre(rand.nextInt(GENRES)), null));
+		read(cases, "getRandomTracksOrderByRand", i -> query.getRandomTracksOrderByRand(10));
+		read(cases, "searchCatalog", i -> query.searchCatalog(pick(titles).substring(0, 7)));
+		read(cases, "getRecordLabelID", i -> query.getRecordLabelID(label(rand.nextInt(LABELS))));
+		read(cases, "getCountryID", i -> query.getCountryID(country(rand.nextInt(COUNTRIES))));
+		read(cases, "printCountryCodes", i -> query.printCountryCodes());
+
+		//writes restore the catalog outside the timed call
+		int[] row = new int[1];
+		cases.add(new Case("insertAudiofile",
+				null,
+				i -> row[0] = query.insertAudiofile("Bench track " + i, 0, 200, 1, pick(albumIDs), pick(creators)),
+				i -> query.deleteTrack(row[0])));
+		cases.add(new Case("addGenreToTrack",
+				i -> row[0] = query.insertAudiofile("Bench track " + i, 0, 200, 1, pick(albumIDs), null),
+				i -> query.addGenreToTrack(row[0], genre(i % GENRES)),
+				i -> query.deleteTrack(row[0])));
+		cases.add(new Case("insertTrack",
+				null,
+				i -> row[0] = query.insertTrack(new TrackSpec("Bench track " + i, 0, 200, 1, pick(albumIDs),
+						Collections.singletonList(pick(creators)), Collections.singletonList(genre(i % GENRES)))),
+				i -> query.deleteTrack(row[0])));
+		cases.add(new Case("deleteTrack",
+				i -> row[0] = query.insertAudiofile("Bench track " + i, 0, 200, 1, pick(albumIDs), null),
+				i -> query.deleteTrack(row[0]),
+				null));
+		cases.add(new Case("insertAlbum",
+				null,
+				i -> row[0] = query.insertAlbum("Bench album " + i, "20200101", label(i % LABELS), "Music"),
+				i -> query.deleteAlbum(row[0])));
+		cases.add(new Case("deleteAlbum",
+				i -> {
+					row[0] = query.insertAlbum("Bench album " + i, "20200101", null, "Music");
+					for (int t = 0; t < TRACKS_PER_ALBUM; t++)
+						query.insertAudiofile("Bench track " + t, 0, 200, 1, row[0], null);
+				},
+				i -> query.deleteAlbum(row[0]),
+				null));
+		cases.add(new Case("insertCreator+deleteCreator",
+				null,
+				i -> query.deleteCreator(query.insertCreator("Bench creator " + i)),
+				null));
+		cases.add(new Case("updateGenre",
+				null,
+				i -> query.updateGenre(genre(i % GENRES), "description " + i),
+				null));
+		cases.add(new Case("updateAlbumRD",
+				null,
+				i -> query.updateAlbumRD(pick(albumIDs), "2019010" + (1 + i % 9)),
+				null));
+		cases.add(new Case("updateLabelDate",
+				null,
+				i -> query.updateLabelDate(label(i % LABELS), "1999010" + (1 + i % 9)),
+				null));
+		return cases;
+	}
+
+	//inserts from one thread per pool connection for the given time, with an ID block of 1 so every insert reserves
+	//its IDs from the database. A writer that held its connection while the allocator waited for another would
+	//starve the pool here. Its rows stay in the catalog. Returns the number of failed inserts
+	private int concurrentInserts(double seconds) throws Exception {
+		int threads = pool.getMaxSize();
+		Queries writer = new Queries(pool, new Scanner(""), new BlockIdAllocator(pool, 1));
+		writer.setMissingCreator(Queries.MissingCreator.CREATE);
+		AtomicInteger calls = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		long end = System.nanoTime() + (long) (seconds * 1e9);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> done = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				done.add(workers.submit(() -> {
+					for (int i = 0; System.nanoTime() < end; i++) {
+						String name = "Bench " + thread + "-" + i;
+						//a new creator with every track, so the insert reserves a CreatorID as well as a TrackID
+						if (writer.insertTrack(new TrackSpec(name, 0, 200, 1, albumIDs.get((thread + i) % albumIDs.size()),
+								Collections.singletonList(name), Collections.<String>emptyList())) < 0) failed.incrementAndGet();
+						if (writer.insertCreator(name + " solo") < 0) failed.incrementAndGet();
+						calls.addAndGet(2);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> f : done) f.get();
+		} finally {
+			workers.shutdown();
+		}
+		report.printf("\n%s: %d threads, %.0f inserts/sec, %d of %d failed\n", CONCURRENT_INSERTS, threads,
+				calls.get() / seconds, failed.get(), calls.get());
+		return failed.get();
+	}
+
+	private static void read(List<Case> cases, String name, Call call) {
+		cases.add(new Case(name, null, call, null));
+	}
+
+	//runs the case for the warmup time, then records the latency of every call for the measurement time
+	private void measure(Case c, double warmupSeconds, double seconds) throws Exception {
+		int i = 0;
+		long end = System.nanoTime() + (long) (warmupSeconds * 1e9);
+		while (System.nanoTime() < end) {
+			time(c, i++);
+		}
+
+		long[] latencies = new long[1024];
+		int n = 0;
+		long busy = 0;
+		end = System.nanoTime() + (long) (seconds * 1e9);
+		while (System.nanoTime() < end) {
+			long nanos = time(c, i++);
+			if (n == latencies.length) latencies = Arrays.copyOf(latencies, n * 2);
+			latencies[n++] = nanos;
+			busy += nanos;
+		}
+		Arrays.sort(latencies, 0, n);
+		report.printf("%-28s %10.0f %10.1f %10.1f %10.1f %10.1f\n", c.name, n / Math.max(busy / 1e9, 1e-9),
+				percentile(latencies, n, 0.50), percentile(latencies, n, 0.90), percentile(latencies, n, 0.99),
+				(n == 0) ? 0 : latencies[n - 1] / 1e3);
+	}
+
+	//one call of the case, returning the nanoseconds spent in the timed part
+	private static long time(Case c, int i) throws Exception {
+		if (c.before != null) c.before.run(i);
+		long start = System.nanoTime();
+		c.call.run(i);
+		long nanos = System.nanoTime() - start;
+		if (c.after != null) c.after.run(i);
+		return nanos;
+	}
+
+	//percentile in microseconds
+	private static double percentile(long[] sorted, int n, double p) {
+		if (n == 0) return 0;
+		return sorted[Math.min(n - 1, (int) Math.ceil(p * n) - 1)] / 1e3;
+	}
+
+	//runs the setup script statement by statement. CREATE SCHEMA may fail if the url already selects the schema
+	private void createSchema(Path script) throws Exception {
+		String sql = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+		try (Connection conn = pool.getConnection(); Statement stmt = conn.createStatement()) {
+			for (String s : sql.split(";")) {
+				s = s.trim();
+				if (s.isEmpty()) continue;
+				try {
+					stmt.execute(s);
+				} catch (SQLException e) {
+					if (!s.toUpperCase().startsWith("CREATE SCHEMA")) throw e;
+				}
+			}
+			conn.commit();
+		}
+	}
+
+	//adds generated rows until the catalog has the given number of tracks
+	private void grow(int size) throws SQLException {
+		try (Connection conn = pool.getConnection();
+			 PreparedStatement country = conn.prepareStatement("INSERT INTO adb.country (CountryID, Name) VALUES (?, ?);");
+			 PreparedStatement label = conn.prepareStatement("INSERT INTO adb.recordlabel (LabelID, Name, FoundingDate, CountryID) VALUES (?, ?, ?, ?);");
+			 PreparedStatement genre = conn.prepareStatement("INSERT INTO adb.genre (GenreID, Description) VALUES (?, ?);");
+			 PreparedStatement creator = conn.prepareStatement("INSERT INTO adb.creator (CreatorID, Name) VALUES (?, ?);");
+			 PreparedStatement album = conn.prepareStatement("INSERT INTO adb.album (AlbumID, AlbumName, MediaType, ReleaseDate, LabelID) VALUES (?, ?, ?, ?, ?);");
+			 PreparedStatement track = conn.prepareStatement("INSERT INTO adb.audiofile (TrackID, ReleaseName, ExplicitRating, Duration, CountryID, AlbumID) VALUES (?, ?, ?, ?, ?, ?);");
+			 PreparedStatement createdBy = conn.prepareStatement("INSERT INTO adb.createdby (TrackID, CreatorID) VALUES (?, ?);");
+			 PreparedStatement inGenre = conn.prepareStatement("INSERT INTO adb.ingenre (TrackID, GenreID) VALUES (?, ?);"))
+		{
+			//reference tables are only filled on the first round
+			if (tracks == 0) {
+				for (int c = 1; c <= COUNTRIES; c++) {
+					country.setInt(1, c);
+					country.setString(2, country(c - 1));
+					country.executeUpdate();
+				}
+				for (int l = 1; l <= LABELS; l++) {
+					label.setInt(1, l);
+					label.setString(2, label(l - 1));
+					label.setString(3, "19900101");
+					label.setInt(4, 1 + l % COUNTRIES);
+					label.executeUpdate();
+				}
+				for (int g = 0; g < GENRES; g++) {
+					genre.setString(1, genre(g));
+					genre.setString(2, "generated genre " + g);
+					genre.executeUpdate();
+				}
+				conn.commit();
+			}
+
+			int creatorID = 0, albumID = 0;
+			while (tracks < size) {
+				if (tracks % (TRACKS_PER_ALBUM * ALBUMS_PER_CREATOR) == 0) {
+					creatorID = ids.nextID("creator");
+					String name = "Creator " + creators.size();
+					creator.setInt(1, creatorID);
+					creator.setString(2, name);
+					creator.executeUpdate();
+					creators.add(name);
+				}
+				if (tracks % TRACKS_PER_ALBUM == 0) {
+					albumID = ids.nextID("album");
+					String name = "Album " + albums.size();
+					album.setInt(1, albumID);
+					album.setString(2, name);
+					album.setString(3, MEDIA_TYPES[albums.size() % MEDIA_TYPES.length]);
+					album.setString(4, (1970 + rand.nextInt(50)) + "0101");
+					album.setInt(5, 1 + rand.nextInt(LABELS));
+					album.executeUpdate();
+					albums.add(name);
+					albumIDs.add(albumID);
+				}
+				int trackID = ids.nextID("audiofile");
+				String title = "Track " + tracks;
+				track.setInt(1, trackID);
+				track.setString(2, title);
+				track.setInt(3, rand.nextInt(2));
+				track.setInt(4, 60 + rand.nextInt(540));
+				track.setInt(5, 1 + rand.nextInt(COUNTRIES));
+				track.setInt(6, albumID);
+				track.addBatch();
+				createdBy.setInt(1, trackID);
+				createdBy.setInt(2, creatorID);
+				createdBy.addBatch();
+				inGenre.setInt(1, trackID);
+				inGenre.setString(2, genre(rand.nextInt(GENRES)));
+				inGenre.addBatch();
+				titles.add(title);
+				//album and creator rows above were written right away, so the batches only need flushing in order
+				if (++tracks % 1000 == 0 || tracks == size) {
+					track.executeBatch();
+					createdBy.executeBatch();
+					inGenre.executeBatch();
+					conn.commit();
+				}
+			}
+		}
+		//the in-memory structures are read from the database, so they are rebuilt for the new size
+		query.buildSearchIndex();
+		query.buildTrackSampler();
+	}
+
+	private <T> T pick(List<T> list) {
+		return list.get(rand.nextInt(list.size()));
+	}
+
+	private static String genre(int g) {
+		return "Genre " + g;
+	}
+
+	private static String country(int c) {
+		return "Country " + c;
+	}
+
+	private static String label(int l) {
+		return "Label " + l;
+	}
+}
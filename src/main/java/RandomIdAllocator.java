@@ -0,0 +1,16 @@
+package main.java;
+
+import java.util.Random;
+
+/**
+ * The original ID scheme: a random non-negative int per insert.
+ * Needs no database support, but IDs can collide and scatter inserts across the primary key index.
+ */
+public class RandomIdAllocator implements IdAllocator {
+	private final Random rand = new Random();
+
+	@Override
+	public int nextID(String table) {
+		return rand.nextInt(Integer.MAX_VALUE);
+	}
+}
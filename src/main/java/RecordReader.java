@@ -0,0 +1,224 @@
+package main.java;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reads flat records from a CSV file (first line is the header) or a JSONL file (one object per line).
+ * Every record comes back as a field name to value map. JSON arrays of strings are joined with ';'
+ * so multi-valued fields look the same in both formats.
+ * A record that cannot be parsed is reported with a MalformedRecordException; the next call to next()
+ * continues with the following record.
+ */
+class RecordReader implements Closeable {
+	/** Thrown for one record that cannot be parsed. The message does not include the position. */
+	static class MalformedRecordException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		MalformedRecordException(String message) {
+			super(message);
+		}
+	}
+
+	private final BufferedReader reader;
+	private final boolean json;
+	private final String source;
+	private List<String> header;
+	private int lineNumber = 0;
+
+	RecordReader(Path file) throws IOException {
+		this.reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		this.source = file.getFileName().toString();
+		this.json = source.toLowerCase().endsWith(".jsonl") || source.toLowerCase().endsWith(".json");
+		if (!json) {
+			String line = nextLine();
+			if (line == null) throw new IOException(source + " is empty");
+			header = parseCsvLine(stripBom(line));
+		}
+	}
+
+	/**
+	 * @return the next record, or null at end of file
+	 * @throws MalformedRecordException if the record cannot be parsed. The reader stays usable.
+	 */
+	Map<String, String> next() throws IOException {
+		String line;
+		do {
+			line = nextLine();
+			if (line == null) return null;
+		} while (line.trim().isEmpty());
+		return json ? parseJsonLine(line) : toRecord(parseCsvLine(line));
+	}
+
+	/** @return file name and line of the last record read, for error messages */
+	String position() {
+		return source + ":" + lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private String nextLine() throws IOException {
+		String line = reader.readLine();
+		if (line != null) lineNumber++;
+		return line;
+	}
+
+	private Map<String, String> toRecord(List<String> values) throws IOException {
+		if (values.size() > header.size())
+			throw new MalformedRecordException(values.size() + " fields but the header has " + header.size());
+		Map<String, String> record = new HashMap<>();
+		for (int i = 0; i < values.size(); i++) {
+			String v = values.get(i);
+			record.put(header.get(i), v.isEmpty() ? null : v);
+		}
+		return record;
+	}
+
+	//splits one CSV line, honouring double quoted fields and "" escapes. quoted fields may span lines
+	private List<String> parseCsvLine(String line) throws IOException {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (true) {
+			if (i == line.length()) {
+				if (!quoted) break;
+				String more = nextLine();
+				if (more == null) throw new MalformedRecordException("unterminated quoted field");
+				field.append('\n');
+				line = more;
+				i = 0;
+				continue;
+			}
+			char c = line.charAt(i++);
+			if (quoted) {
+				if (c == '"' && i < line.length() && line.charAt(i) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString().trim());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString().trim());
+		return fields;
+	}
+
+	//minimal parser for one flat JSON object: string, number, boolean and null values, and arrays of those
+	private Map<String, String> parseJsonLine(String line) throws IOException {
+		JsonCursor cur = new JsonCursor(stripBom(line));
+		Map<String, String> record = new HashMap<>();
+		cur.expect('{');
+		if (cur.peek() == '}') return record;
+		do {
+			String key = cur.string();
+			cur.expect(':');
+			String value;
+			if (cur.peek() == '[') {
+				cur.expect('[');
+				StringJoiner joined = new StringJoiner(";");
+				if (cur.peek() != ']') {
+					do {
+						String item = cur.scalar();
+						if (item != null) joined.add(item);
+					} while (cur.comma());
+				}
+				cur.expect(']');
+				value = (joined.length() == 0) ? null : joined.toString();
+			} else {
+				value = cur.scalar();
+			}
+			record.put(key, value);
+		} while (cur.comma());
+		cur.expect('}');
+		return record;
+	}
+
+	private static String stripBom(String s) {
+		return (!s.isEmpty() && s.charAt(0) == '\uFEFF') ? s.substring(1) : s;
+	}
+
+	private class JsonCursor {
+		private final String s;
+		private int i = 0;
+
+		JsonCursor(String s) {
+			this.s = s;
+		}
+
+		char peek() throws IOException {
+			while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+			if (i == s.length()) throw new MalformedRecordException("unexpected end of JSON");
+			return s.charAt(i);
+		}
+
+		void expect(char c) throws IOException {
+			if (peek() != c) throw new MalformedRecordException("expected '" + c + "' at column " + (i + 1));
+			i++;
+		}
+
+		boolean comma() throws IOException {
+			if (peek() != ',') return false;
+			i++;
+			return true;
+		}
+
+		String string() throws IOException {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (i == s.length()) throw new MalformedRecordException("unterminated JSON string");
+				char c = s.charAt(i++);
+				if (c == '"') return sb.toString();
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (i == s.length()) throw new MalformedRecordException("unterminated JSON string");
+				char e = s.charAt(i++);
+				switch (e) {
+					case 'n': sb.append('\n'); break;
+					case 't': sb.append('\t'); break;
+					case 'r': sb.append('\r'); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'u':
+						if (i + 4 > s.length()) throw new MalformedRecordException("truncated \\u escape at column " + i);
+						int code = 0;
+						for (int end = i + 4; i < end; i++) {
+							int digit = Character.digit(s.charAt(i), 16);
+							if (digit < 0) throw new MalformedRecordException("bad \\u escape at column " + (i + 1));
+							code = code * 16 + digit;
+						}
+						sb.append((char) code);
+						break;
+					default: sb.append(e); break;
+				}
+			}
+		}
+
+		//returns strings unquoted, numbers and booleans as written, and null as null
+		String scalar() throws IOException {
+			if (peek() == '"') return string();
+			int start = i;
+			while (i < s.length() && ",]} \t".indexOf(s.charAt(i)) < 0) i++;
+			String raw = s.substring(start, i);
+			if (raw.isEmpty()) throw new MalformedRecordException("expected a value at column " + (i + 1));
+			return raw.equals("null") ? null : raw;
+		}
+	}
+}
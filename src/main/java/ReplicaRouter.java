@@ -0,0 +1,174 @@
+package main.java;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the searches and lookups of Queries to read replicas, while inserts, updates and deletes stay on the
+ * primary (see Queries.setReplicas()). A background check borrows a connection from every replica at a fixed
+ * interval; a replica that fails it, or fails to hand out a connection, gets no reads until it passes again.
+ * With no healthy replica, reads go to the primary.
+ * After any write, every read goes to the primary for the read-your-writes window, so a change is not missing
+ * from the next search because a replica has not applied it yet. The window is shared by all threads: a write
+ * made through AsyncQueries or by one HTTP worker is usually followed by a read on another thread.
+ */
+public class ReplicaRouter implements AutoCloseable {
+	/** How reads are spread over the healthy replicas. */
+	public enum Routing {
+		//each read goes to the next replica in turn
+		ROUND_ROBIN,
+		//each read goes to the replica with the fastest recent health checks
+		LEAST_LATENCY
+	}
+
+	public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 5_000;
+	public static final long DEFAULT_READ_YOUR_WRITES_MILLIS = 2_000;
+
+	//seconds passed to Connection.isValid() by the health check
+	private static final int CHECK_TIMEOUT = 2;
+	//weight of the newest health check in a replica's latency average
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	private final ConnectionPool primary;
+	private final List<Replica> replicas = new ArrayList<>();
+	private final Routing routing;
+	private final long readYourWritesMillis;
+	private final AtomicInteger next = new AtomicInteger();
+	//until when reads stay on the primary, in System.currentTimeMillis() time
+	private final AtomicLong primaryUntil = new AtomicLong();
+	private final ScheduledExecutorService checker;
+
+	//one replica pool and what the health checks found out about it
+	private static class Replica {
+		final ConnectionPool pool;
+		final String name;
+		volatile boolean healthy = true;
+		//average health check time, in nanoseconds
+		volatile double latency = 0;
+
+		Replica(ConnectionPool pool, String name) {
+			this.pool = pool;
+			this.name = name;
+		}
+	}
+
+	public ReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicas) {
+		this(primary, replicas, Routing.ROUND_ROBIN, DEFAULT_CHECK_INTERVAL_MILLIS, DEFAULT_READ_YOUR_WRITES_MILLIS);
+	}
+
+	/**
+	 * @param primary Pool of the database every write goes to.
+	 * @param replicas Pools of the read replicas. close() closes them.
+	 * @param routing How reads are spread over the healthy replicas.
+	 * @param checkIntervalMillis Time between health checks of each replica.
+	 * @param readYourWritesMillis How long reads stay on the primary after a write. 0 to never stay.
+	 */
+	public ReplicaRouter(ConnectionPool primary, List<ConnectionPool> replicas, Routing routing,
+						 long checkIntervalMillis, long readYourWritesMillis) {
+		this.primary = primary;
+		this.routing = routing;
+		this.readYourWritesMillis = readYourWritesMillis;
+		for (int i = 0; i < replicas.size(); i++) this.replicas.add(new Replica(replicas.get(i), "replica " + (i + 1)));
+
+		//daemon thread so an unclosed router never keeps the JVM alive
+		checker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "zene-replica-check");
+			t.setDaemon(true);
+			return t;
+		});
+		checker.scheduleWithFixedDelay(this::checkAll, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection for a read: from a healthy replica, or from the primary if there is none or a write
+	 * happened within the read-your-writes window.
+	 */
+	public Connection getReadConnection() throws SQLException {
+		if (System.currentTimeMillis() < primaryUntil.get()) return primary.getConnection();
+		//a replica failing to hand out a connection is taken out of rotation and the next one tried
+		for (int attempt = 0; attempt < replicas.size(); attempt++) {
+			Replica replica = pick();
+			if (replica == null) break;
+			try {
+				return replica.pool.getConnection();
+			} catch (SQLException e) {
+				markDown(replica, e);
+			}
+		}
+		return primary.getConnection();
+	}
+
+	/** Borrows a connection for a write from the primary, and keeps all reads there for a while. */
+	public Connection getWriteConnection() throws SQLException {
+		wrote();
+		return primary.getConnection();
+	}
+
+	/**
+	 * Restarts the read-your-writes window. Queries calls this again when a write connection is closed, so a
+	 * write that took longer than the window is still read back from the primary.
+	 */
+	public void wrote() {
+		if (readYourWritesMillis <= 0) return;
+		long until = System.currentTimeMillis() + readYourWritesMillis;
+		primaryUntil.accumulateAndGet(until, Math::max);
+	}
+
+	/** @return number of replicas currently receiving reads */
+	public int getHealthyCount() {
+		int count = 0;
+		for (Replica r : replicas) if (r.healthy) count++;
+		return count;
+	}
+
+	//the replica the next read goes to, null if none is healthy
+	private Replica pick() {
+		Replica best = null;
+		if (routing == Routing.LEAST_LATENCY) {
+			for (Replica r : replicas)
+				if (r.healthy && (best == null || r.latency < best.latency)) best = r;
+			return best;
+		}
+		int n = replicas.size();
+		int start = Math.floorMod(next.getAndIncrement(), n);
+		for (int i = 0; i < n; i++) {
+			Replica r = replicas.get((start + i) % n);
+			if (r.healthy) return r;
+		}
+		return null;
+	}
+
+	private void checkAll() {
+		for (Replica replica : replicas) {
+			long start = System.nanoTime();
+			try (Connection conn = replica.pool.getConnection()) {
+				if (!conn.isValid(CHECK_TIMEOUT)) throw new SQLException("connection is not valid");
+			} catch (SQLException e) {
+				markDown(replica, e);
+				continue;
+			}
+			long took = System.nanoTime() - start;
+			replica.latency = (replica.latency == 0) ? took : (1 - LATENCY_WEIGHT) * replica.latency + LATENCY_WEIGHT * took;
+			if (!replica.healthy) {
+				replica.healthy = true;
+				System.err.println(replica.name + " is back, sending reads to it again");
+			}
+		}
+	}
+
+	private static void markDown(Replica replica, SQLException e) {
+		if (!replica.healthy) return;
+		replica.healthy = false;
+		System.err.println(replica.name + " failed, reading from the other databases: " + e.getMessage());
+	}
+
+	/** Stops the health checks and closes the replica pools. The primary is left open. */
+	@Override
+	public void close() {
+		checker.shutdownNow();
+		for (Replica r : replicas) r.pool.close();
+	}
+}
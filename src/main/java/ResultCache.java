@@ -0,0 +1,285 @@
+package main.java;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Results of the Queries searches, kept as the sink calls that delivered them so a hit is replayed into any
+ * sink (console or JSON) without touching the database. Keyed by operation and parameters.
+ * Entries expire after the TTL and the least recently used ones are evicted to stay under the size limit,
+ * measured as an estimate of the memory the records take. A single result larger than an eighth of the
+ * limit is not cached, so one huge genre listing cannot flush everything else.
+ * Every entry remembers the tables its search read. Queries drops the entries of the tables a write changed once
+ * it has committed (invalidate()); a search that was running meanwhile is not stored, since it may have read the old rows.
+ * Writes made outside this process are only seen once the TTL runs out.
+ */
+public class ResultCache implements ResultCacheMBean {
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+	public static final long DEFAULT_TTL_MILLIS = 60_000;
+
+	//rough per-object costs used by the size estimate
+	private static final int OBJECT = 16;
+	private static final int REFERENCE = 8;
+
+	private final long maxBytes;
+	private final long ttlNanos;
+	private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long bytes = 0;
+	//bumped by every write to a table, so a search can tell whether one happened while it ran
+	private final AtomicLongArray generations = new AtomicLongArray(CatalogTable.values().length);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	//one cached result
+	private static class Entry {
+		final List<Consumer<ResultSink>> calls;
+		final int count;
+		final EnumSet<CatalogTable> tables;
+		final long bytes;
+		final long expires;
+
+		Entry(List<Consumer<ResultSink>> calls, int count, EnumSet<CatalogTable> tables, long bytes, long expires) {
+			this.calls = calls;
+			this.count = count;
+			this.tables = tables;
+			this.bytes = bytes;
+			this.expires = expires;
+		}
+	}
+
+	public ResultCache() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_TTL_MILLIS);
+	}
+
+	/**
+	 * @param maxBytes Estimated memory all entries may take together.
+	 * @param ttlMillis How long an entry is served after the search that filled it.
+	 */
+	public ResultCache(long maxBytes, long ttlMillis) {
+		this.maxBytes = maxBytes;
+		this.ttlNanos = ttlMillis * 1_000_000;
+	}
+
+	/**
+	 * Replays the cached result of a search into the sink, from begin() to end().
+	 * @param key operation name followed by its parameters
+	 * @return the count the search returned, or null if it is not cached
+	 */
+	Integer replay(List<Object> key, ResultSink sink) {
+		Entry e;
+		synchronized (this) {
+			e = entries.get(key);
+			if (e != null && System.nanoTime() - e.expires > 0) {
+				remove(key);
+				e = null;
+			}
+		}
+		if (e == null) {
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		for (Consumer<ResultSink> call : e.calls) call.accept(sink);
+		return e.count;
+	}
+
+	/**
+	 * @param key operation name followed by its parameters
+	 * @param tables the tables the search reads
+	 * @return a sink passing everything on to sink, which stores the result once the search ends without error
+	 */
+	ResultSink record(List<Object> key, EnumSet<CatalogTable> tables, ResultSink sink) {
+		return new Recorder(key, tables, sink);
+	}
+
+	/** Drops the entries that read any of the tables. */
+	void invalidate(EnumSet<CatalogTable> tables) {
+		for (CatalogTable t : tables) generations.incrementAndGet(t.ordinal());
+		synchronized (this) {
+			Iterator<Map.Entry<List<Object>, Entry>> it = entries.entrySet().iterator();
+			while (it.hasNext()) {
+				Entry e = it.next().getValue();
+				if (Collections.disjoint(e.tables, tables)) continue;
+				it.remove();
+				bytes -= e.bytes;
+				invalidations.increment();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (CatalogTable t : CatalogTable.values()) generations.incrementAndGet(t.ordinal());
+		entries.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long h = hits.sum(), total = h + misses.sum();
+		return (total == 0) ? 0 : (double) h / total;
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	@Override
+	public synchronized long getEstimatedBytes() {
+		return bytes;
+	}
+
+	private synchronized void put(List<Object> key, Entry e, long[] startGenerations) {
+		int i = 0;
+		for (CatalogTable t : e.tables)
+			if (generations.get(t.ordinal()) != startGenerations[i++]) return;
+		remove(key);
+		entries.put(key, e);
+		bytes += e.bytes;
+		Iterator<Entry> lru = entries.values().iterator();
+		while (bytes > maxBytes && lru.hasNext()) {
+			bytes -= lru.next().bytes;
+			lru.remove();
+			evictions.increment();
+		}
+	}
+
+	private void remove(List<Object> key) {
+		Entry old = entries.remove(key);
+		if (old != null) bytes -= old.bytes;
+	}
+
+	//records the calls of one search as they are passed on
+	private class Recorder implements ResultSink {
+		private final List<Object> key;
+		private final EnumSet<CatalogTable> tables;
+		private final ResultSink target;
+		private final long[] startGenerations;
+		private final List<Consumer<ResultSink>> calls = new ArrayList<>();
+		private long size;
+		//stops recording, once the result failed or grew too large to cache
+		private boolean abandoned = false;
+
+		Recorder(List<Object> key, EnumSet<CatalogTable> tables, ResultSink target) {
+			this.key = key;
+			this.tables = tables;
+			this.target = target;
+			this.startGenerations = new long[tables.size()];
+			int i = 0;
+			for (CatalogTable t : tables) startGenerations[i++] = generations.get(t.ordinal());
+			this.size = OBJECT * 4 + REFERENCE * key.size();
+			for (Object o : key) size += (o instanceof String) ? size((String) o) : OBJECT;
+		}
+
+		private void add(Consumer<ResultSink> call, long callSize) {
+			if (abandoned) return;
+			size += callSize + OBJECT + REFERENCE;
+			if (size > maxBytes / 8) {
+				abandoned = true;
+				calls.clear();
+				return;
+			}
+			calls.add(call);
+		}
+
+		@Override
+		public void begin(Search search, String text) {
+			add(s -> s.begin(search, text), size(text));
+			target.begin(search, text);
+		}
+
+		@Override
+		public void genre(String genreID, String description) {
+			add(s -> s.genre(genreID, description), size(genreID) + size(description));
+			target.genre(genreID, description);
+		}
+
+		@Override
+		public void track(Track track) {
+			add(s -> s.track(track), size(track));
+			target.track(track);
+		}
+
+		@Override
+		public void album(Album album) {
+			long albumSize = OBJECT + REFERENCE * 7 + size(album.name) + size(album.mediaType) + size(album.releaseDate)
+					+ size(album.label) + OBJECT * 2 + REFERENCE * album.tracks.size();
+			for (Track t : album.tracks) albumSize += size(t);
+			add(s -> s.album(album), albumSize);
+			target.album(album);
+		}
+
+		@Override
+		public void creator(Creator creator) {
+			add(s -> s.creator(creator), OBJECT + REFERENCE + size(creator.name));
+			target.creator(creator);
+		}
+
+		@Override
+		public void country(int countryID, String name) {
+			add(s -> s.country(countryID, name), size(name));
+			target.country(countryID, name);
+		}
+
+		@Override
+		public void next(String token) {
+			add(s -> s.next(token), size(token));
+			target.next(token);
+		}
+
+		@Override
+		public void empty(String message) {
+			add(s -> s.empty(message), size(message));
+			target.empty(message);
+		}
+
+		@Override
+		public void error(String message) {
+			abandoned = true;
+			target.error(message);
+		}
+
+		@Override
+		public void end(int count) {
+			if (!abandoned && count >= 0) {
+				calls.add(s -> s.end(count));
+				put(key, new Entry(calls, count, tables, size, System.nanoTime() + ttlNanos), startGenerations);
+			}
+			target.end(count);
+		}
+	}
+
+	private static long size(String s) {
+		return (s == null) ? 0 : OBJECT * 2 + 2L * s.length();
+	}
+
+	private static long size(Track t) {
+		return OBJECT + REFERENCE * 9 + OBJECT * 5 + size(t.title) + size(t.creator) + size(t.album) + size(t.releaseDate);
+	}
+}
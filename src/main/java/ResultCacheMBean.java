@@ -0,0 +1,27 @@
+package main.java;
+
+/**
+ * JMX view of the search result cache, registered as main.java:type=ResultCache.
+ */
+public interface ResultCacheMBean {
+	long getHits();
+
+	long getMisses();
+
+	/** hits / (hits + misses), 0 before the first search */
+	double getHitRatio();
+
+	/** entries dropped to stay under the size limit */
+	long getEvictions();
+
+	/** entries dropped because a write changed a table they read */
+	long getInvalidations();
+
+	int getEntries();
+
+	/** estimated memory taken by the cached results, in bytes */
+	long getEstimatedBytes();
+
+	/** drops every cached result */
+	void clear();
+}
@@ -0,0 +1,66 @@
+package main.java;
+
+import java.io.PrintStream;
+import java.util.Formatter;
+
+/**
+ * Buffered replacement for System.out in the search methods.
+ * Rows are formatted into a reused per-thread buffer and handed to the underlying stream in large chunks,
+ * instead of one synchronized console write (and one new Formatter) per printf.
+ * Callers must flush() once they are done printing, before prompting the user.
+ */
+class ResultPrinter {
+	//chunk size handed to the stream at once
+	private static final int FLUSH_AT = 16 * 1024;
+
+	private final PrintStream target;
+	private final ThreadLocal<Buffer> buffers = ThreadLocal.withInitial(Buffer::new);
+
+	ResultPrinter(PrintStream target) {
+		this.target = target;
+	}
+
+	void printf(String format, Object... args) {
+		Buffer b = buffers.get();
+		b.formatter.format(format, args);
+		drainIfFull(b);
+	}
+
+	void print(String s) {
+		Buffer b = buffers.get();
+		b.text.append(s);
+		drainIfFull(b);
+	}
+
+	void println(String s) {
+		Buffer b = buffers.get();
+		b.text.append(s).append('\n');
+		drainIfFull(b);
+	}
+
+	void println() {
+		println("");
+	}
+
+	//writes out everything printed on this thread so far
+	void flush() {
+		Buffer b = buffers.get();
+		if (b.text.length() > 0) {
+			target.print(b.text);
+			b.text.setLength(0);
+		}
+		target.flush();
+	}
+
+	private void drainIfFull(Buffer b) {
+		if (b.text.length() >= FLUSH_AT) {
+			target.print(b.text);
+			b.text.setLength(0);
+		}
+	}
+
+	private static class Buffer {
+		final StringBuilder text = new StringBuilder(FLUSH_AT * 2);
+		final Formatter formatter = new Formatter(text);
+	}
+}
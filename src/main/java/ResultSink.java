@@ -0,0 +1,51 @@
+package main.java;
+
+/**
+ * Receives the results of a Queries search as they are read, so large results are never held in memory.
+ * A search calls begin() first and end() last. In between it passes its records in order, or calls empty()
+ * if nothing matched, or error() if the search failed. The console is one sink (ConsoleSink), the HTTP mode
+ * another (JsonSink); a caller that only wants the data implements the methods it needs.
+ */
+public interface ResultSink {
+	/** The searches, each rendered with its own console layout. */
+	enum Search { CREATOR, TITLE, ALBUM, ALBUM_TRACKS, GENRE, MEDIA, RATING, COUNTRY, LABEL, RANDOM, KEYWORD, COUNTRY_CODES }
+
+	/** @param text what was searched for, as given */
+	void begin(Search search, String text);
+
+	/** Genre searches only: the genre and its description, before its first track. */
+	default void genre(String genreID, String description) {
+	}
+
+	default void track(Track track) {
+	}
+
+	/** Called once the album and all of its listed tracks have been read. */
+	default void album(Album album) {
+	}
+
+	default void creator(Creator creator) {
+	}
+
+	/** Country code listing only: one country. */
+	default void country(int countryID, String name) {
+	}
+
+	/** Nothing matched. message says what was looked for. */
+	default void empty(String message) {
+	}
+
+	default void error(String message) {
+	}
+
+	/**
+	 * Paged searches only: more records follow this page. Passing token as the after argument of the same
+	 * search returns the next page.
+	 */
+	default void next(String token) {
+	}
+
+	/** @param count number of records passed, or -1 after an error */
+	default void end(int count) {
+	}
+}
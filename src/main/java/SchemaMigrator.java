@@ -0,0 +1,336 @@
+package main.java;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Versioned schema changes applied on top of the setup script, recorded in adb.schemaversion.
+ * Each version is applied once, in order, and its steps are written so that re-running a version that was
+ * interrupted part way is safe (MySQL commits every DDL statement on its own, so a failed version cannot
+ * be rolled back as a whole).
+ * Version 2 is the index plan: one index per lookup column Queries filters or joins on. verify() runs EXPLAIN
+ * on the statements of Queries that use them and reports the ones that still read a whole table.
+ * Version 4 adds the album and creator summary tables CatalogSummary maintains, and fills them.
+ * Version 5 adds the catalog change counter that the snapshot file fingerprint includes.
+ */
+public class SchemaMigrator {
+	private final ConnectionPool pool;
+
+	//one step of a migration
+	private interface Step {
+		void apply(Connection conn) throws SQLException;
+	}
+
+	//a schema version and the steps that bring the schema to it
+	private static class Migration {
+		final int version;
+		final String description;
+		final List<Step> steps;
+
+		Migration(int version, String description, Step... steps) {
+			this.version = version;
+			this.description = description;
+			this.steps = Arrays.asList(steps);
+		}
+	}
+
+	private static final List<Migration> MIGRATIONS = Arrays.asList(
+			//databases created before BlockIdAllocator was added lack its table
+			new Migration(1, "idsequence table for BlockIdAllocator",
+					sql("CREATE TABLE IF NOT EXISTS adb.idsequence ("
+							+ " TableName VARCHAR(20) NOT NULL UNIQUE,"
+							+ " NextID int NOT NULL,"
+							+ " PRIMARY KEY(TableName));")),
+			new Migration(2, "index plan for the Queries lookups",
+					//queryByCreator, getCreatorID
+					index("creator", "creator_name", "Name"),
+					//queryByAlbumTitle, updateAlbumRL
+					index("album", "album_name", "AlbumName"),
+					//queryByMediaType
+					index("album", "album_mediatype", "MediaType"),
+					//queryByAudioTitle, updateCountryIDaf
+					index("audiofile", "audiofile_name", "ReleaseName"),
+					//join columns. InnoDB already indexes foreign key columns, so on MySQL these are skipped,
+					//other databases need them for getTracksLabel, getTracksByCountry and the album joins
+					index("album", "album_label", "LabelID"),
+					index("audiofile", "audiofile_album", "AlbumID"),
+					index("audiofile", "audiofile_country", "CountryID"),
+					//queryByCreator and queryByGenre, and the cascades when a creator or genre is deleted.
+					//the primary keys start with TrackID, and a secondary index carries the key columns anyway
+					index("createdby", "createdby_creator", "CreatorID"),
+					index("ingenre", "ingenre_genre", "GenreID")),
+			//the paged searches seek on (filter column, TrackID or AlbumID). InnoDB secondary indexes end with the
+			//primary key, so the genre, country and media type indexes above already serve them
+			new Migration(3, "index for the paged rating search",
+					index("audiofile", "audiofile_rating", "ExplicitRating", "TrackID")),
+			//rows go away with their album or creator, so only track writes have to maintain them
+			new Migration(CatalogSummary.SCHEMA_VERSION, "album and creator summary tables",
+					sql("CREATE TABLE IF NOT EXISTS adb.albumsummary ("
+							+ " AlbumID int NOT NULL,"
+							+ " TrackCount int NOT NULL,"
+							+ " TotalDuration bigint NOT NULL,"
+							+ " PRIMARY KEY(AlbumID),"
+							+ " FOREIGN KEY (AlbumID) REFERENCES adb.album(AlbumID) ON DELETE CASCADE);"),
+					sql("CREATE TABLE IF NOT EXISTS adb.creatorsummary ("
+							+ " CreatorID int NOT NULL,"
+							+ " TrackCount int NOT NULL,"
+							+ " TotalDuration bigint NOT NULL,"
+							+ " FirstRelease datetime,"
+							+ " LastRelease datetime,"
+							+ " PRIMARY KEY(CreatorID),"
+							+ " FOREIGN KEY (CreatorID) REFERENCES adb.creator(CreatorID) ON DELETE CASCADE);"),
+					CatalogSummary::rebuild),
+			//one row, incremented in every write transaction of Queries, see CatalogSnapshot.fingerprint()
+			new Migration(CatalogSnapshot.SCHEMA_VERSION, "catalog change counter",
+					sql("CREATE TABLE IF NOT EXISTS adb.catalogversion ("
+							+ " Version bigint NOT NULL);"),
+					sql("INSERT INTO adb.catalogversion (Version) SELECT 0 FROM DUAL"
+							+ " WHERE NOT EXISTS (SELECT * FROM adb.catalogversion);")));
+
+	//a statement Queries runs, the parameters to EXPLAIN it with, and the tables it may legitimately read in full
+	private static class AccessPath {
+		final String name;
+		final String sql;
+		final Set<String> allowedScans;
+		final Object[] params;
+
+		AccessPath(String name, String sql, String allowedScans, Object... params) {
+			this.name = name;
+			this.sql = sql;
+			this.allowedScans = new HashSet<>(Arrays.asList(allowedScans.split(",")));
+			this.params = params;
+		}
+	}
+
+	//the statements of Queries that filter on something other than a primary key, and the reads of the cascades
+	//the database runs when a creator or genre is deleted. The parameters only have to be of the right type
+	private static final List<AccessPath> ACCESS_PATHS = Arrays.asList(
+			path("queryByCreator", Queries.CREATOR_SQL, "x"),
+			path("queryByAudioTitle", Queries.TITLE_SQL, "x"),
+			path("queryByAlbumTitle", Queries.ALBUM_SQL, "x"),
+			path("queryByAlbumTitle (summary)", Queries.ALBUM_SUMMARY_SQL, "x"),
+			path("queryByAlbumTitle (tracks)", Queries.ALBUM_TRACKS_SQL, "x"),
+			path("queryByGenre", Queries.GENRE_SQL, "x"),
+			path("queryByGenre (paged)", Queries.GENRE_PAGE_SQL, "x", 100, 101, "x"),
+			path("queryByMediaType", Queries.MEDIA_SQL, "x"),
+			path("queryByMediaType (paged)", Queries.MEDIA_PAGE_SQL, "x", 100, 101),
+			//lists half the catalog, a scan is the right plan
+			new AccessPath("getTracksByRating", Queries.RATING_SQL, "audiofile", "1"),
+			path("getTracksByRating (paged)", Queries.RATING_PAGE_SQL, "1", 100, 101),
+			path("getTracksByCountry", Queries.COUNTRY_SQL, "x"),
+			path("getTracksByCountry (paged)", Queries.COUNTRY_PAGE_SQL, "x", 100, 101),
+			path("getTracksLabel", Queries.LABEL_SQL, "x"),
+			path("getAvgTrackDurationAlbum", Queries.AVG_DURATION_SQL, "x"),
+			path("getAvgTrackDurationAlbum (summary)", Queries.AVG_DURATION_SUMMARY_SQL, "x"),
+			path("numTracksInAlbum", Queries.TRACK_COUNT_SQL, "x"),
+			path("numTracksInAlbum (summary)", Queries.TRACK_COUNT_SUMMARY_SQL, "x"),
+			path("getCreatorSummary", Queries.CREATOR_SUMMARY_SQL, "x"),
+			path("getCreatorSummary (summary)", Queries.CREATOR_SUMMARY_ROW_SQL, "x"),
+			path("getRandomTracks", Queries.RANDOM_TRACKS_SQL, ids()),
+			path("searchCatalog (creators)", Queries.KEYWORD_CREATORS_SQL, ids()),
+			path("searchCatalog (albums)", Queries.KEYWORD_ALBUMS_SQL, ids()),
+			path("searchCatalog (tracks)", Queries.KEYWORD_TRACKS_SQL, ids()),
+			path("getCreatorID", Queries.CREATOR_ID_SQL, "x"),
+			path("getRecordLabelID", Queries.LABEL_ID_SQL, "x"),
+			path("getCountryID", Queries.COUNTRY_ID_SQL, "x"),
+			path("updateLabelCountry (read)", Queries.LABEL_COUNTRY_SQL, "x"),
+			path("updateLabelCountry", Queries.UPDATE_LABEL_COUNTRY_SQL, 1, "x"),
+			path("updateLabelDate (read)", Queries.LABEL_DATE_SQL, "x"),
+			path("updateLabelDate", Queries.UPDATE_LABEL_DATE_SQL, "2000-01-01", "x"),
+			path("updateAlbumRL (read)", Queries.ALBUM_LABEL_SQL, "x"),
+			path("updateAlbumRL", Queries.UPDATE_ALBUM_LABEL_SQL, 1, "x"),
+			path("updateCountryIDaf", Queries.UPDATE_TRACK_COUNTRY_SQL, 1, "x"),
+			path("updateCountryIDaf (read)", Queries.TRACK_IDS_SQL, "x"),
+			path("deleteCreator (cascade)", "SELECT TrackID FROM createdby WHERE CreatorID = ?", 1),
+			path("deleteGenre (cascade)", "SELECT TrackID FROM ingenre WHERE GenreID = ?", "x"));
+
+	public SchemaMigrator(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @return number of versions not applied to the database yet, or -1 on error
+	 */
+	public int pendingCount() {
+		try (Connection conn = pool.getConnection()) {
+			Set<Integer> applied = appliedVersions(conn);
+			int pending = 0;
+			for (Migration m : MIGRATIONS) if (!applied.contains(m.version)) pending++;
+			return pending;
+		} catch (SQLException e) {
+			System.out.println("Error reading the schema version: " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if the version is recorded in adb.schemaversion, false if not or on error
+	 */
+	public boolean isApplied(int version) {
+		try (Connection conn = pool.getConnection()) {
+			return appliedVersions(conn).contains(version);
+		} catch (SQLException e) {
+			System.out.println("Error reading the schema version: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Applies every version that is not recorded in adb.schemaversion yet, in order.
+	 * @return number of versions applied, or -1 if one failed. Versions before the failed one stay applied.
+	 */
+	public int migrate() {
+		int count = 0;
+		try (Connection conn = pool.getConnection()) {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("CREATE TABLE IF NOT EXISTS adb.schemaversion ("
+						+ " Version int NOT NULL UNIQUE,"
+						+ " Description VARCHAR(100) NOT NULL,"
+						+ " AppliedAt datetime NOT NULL,"
+						+ " PRIMARY KEY(Version));");
+			}
+			conn.commit();
+			Set<Integer> applied = appliedVersions(conn);
+			for (Migration m : MIGRATIONS) {
+				if (applied.contains(m.version)) continue;
+				System.out.println("Applying schema version " + m.version + ": " + m.description);
+				for (Step step : m.steps) step.apply(conn);
+				try (PreparedStatement record = conn.prepareStatement(
+						"INSERT INTO adb.schemaversion (Version, Description, AppliedAt) VALUES (?, ?, ?);")) {
+					record.setInt(1, m.version);
+					record.setString(2, m.description);
+					record.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+					record.execute();
+				}
+				conn.commit();
+				count++;
+			}
+		} catch (SQLException e) {
+			System.out.println("Error applying schema migration: " + e.getMessage());
+			return -1;
+		}
+		return count;
+	}
+
+	/**
+	 * Runs EXPLAIN on every access path of the index plan, with the statements Queries actually runs, and prints
+	 * the plan chosen for each.
+	 * A table read in full with no usable index is reported as a failure; a full read although an index was
+	 * available is only a warning, since MySQL prefers scans on small tables. Meaningful results therefore need
+	 * a catalog of realistic size, e.g. one from CatalogGenerator.
+	 * @return true if no access path needs a full scan for lack of an index
+	 */
+	public boolean verify() {
+		boolean ok = true;
+		try (Connection conn = pool.getConnection()) {
+			for (AccessPath path : ACCESS_PATHS) {
+				List<String> scans = new ArrayList<>();
+				List<String> chosenScans = new ArrayList<>();
+				//EXPLAIN only plans the statement, the updates change nothing
+				try (PreparedStatement explain = conn.prepareStatement("EXPLAIN " + path.sql)) {
+					for (int i = 0; i < path.params.length; i++) explain.setObject(i + 1, path.params[i]);
+					try (ResultSet rs = explain.executeQuery()) {
+						int typeColumn = column(rs, "type"), tableColumn = column(rs, "table"), keysColumn = column(rs, "possible_keys");
+						if (typeColumn < 0 || tableColumn < 0) {
+							System.out.println("EXPLAIN output of this database is not supported, only MySQL plans can be checked.");
+							return false;
+						}
+						while (rs.next()) {
+							String type = rs.getString(typeColumn);
+							String table = rs.getString(tableColumn);
+							//ALL reads every row, index reads every entry of an index
+							if (!"ALL".equals(type) && !"index".equals(type)) continue;
+							if (table == null || path.allowedScans.contains(table) || table.startsWith("<")) continue;
+							if (keysColumn > 0 && rs.getString(keysColumn) != null) chosenScans.add(table);
+							else scans.add(table);
+						}
+					}
+				} catch (SQLException e) {
+					//e.g. the summary tables of a database not migrated yet
+					ok = false;
+					System.out.printf("%-36s EXPLAIN failed: %s\n", path.name, e.getMessage());
+					continue;
+				}
+				if (!scans.isEmpty()) {
+					ok = false;
+					System.out.printf("%-36s FULL SCAN of %s, no usable index\n", path.name, String.join(", ", scans));
+				} else if (!chosenScans.isEmpty()) {
+					System.out.printf("%-36s scan of %s chosen although an index exists\n", path.name, String.join(", ", chosenScans));
+				} else {
+					System.out.printf("%-36s ok\n", path.name);
+				}
+			}
+		} catch (SQLException e) {
+			System.out.println("Error running EXPLAIN: " + e.getMessage());
+			return false;
+		}
+		return ok;
+	}
+
+	//versions recorded so far. none if the version table does not exist yet
+	private static Set<Integer> appliedVersions(Connection conn) throws SQLException {
+		Set<Integer> versions = new HashSet<>();
+		try (ResultSet tables = conn.getMetaData().getTables("adb", null, "schemaversion", null)) {
+			if (!tables.next()) return versions;
+		}
+		try (Statement stmt = conn.createStatement();
+			 ResultSet rs = stmt.executeQuery("SELECT Version FROM adb.schemaversion;")) {
+			while (rs.next()) versions.add(rs.getInt(1));
+		}
+		return versions;
+	}
+
+	private static int column(ResultSet rs, String label) throws SQLException {
+		ResultSetMetaData md = rs.getMetaData();
+		for (int i = 1; i <= md.getColumnCount(); i++)
+			if (md.getColumnLabel(i).equalsIgnoreCase(label)) return i;
+		return -1;
+	}
+
+	private static AccessPath path(String name, String sql, Object... params) {
+		return new AccessPath(name, sql, "", params);
+	}
+
+	//a full IN list of IDs, as getRandomTracks and searchCatalog bind it
+	private static Object[] ids() {
+		return Collections.nCopies(Queries.SEARCH_LIMIT, (Object) 1).toArray();
+	}
+
+	private static Step sql(String statement) {
+		return conn -> {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute(statement);
+			}
+		};
+	}
+
+	//creates the index unless one with the same name, or one starting with the same columns, already exists
+	private static Step index(String table, String name, String... columns) {
+		return conn -> {
+			Map<String, List<String>> existing = new HashMap<>();
+			try (ResultSet rs = conn.getMetaData().getIndexInfo("adb", null, table, false, false)) {
+				while (rs.next()) {
+					String index = rs.getString("INDEX_NAME");
+					if (index == null) continue;
+					List<String> cols = existing.computeIfAbsent(index.toLowerCase(), k -> new ArrayList<>());
+					int pos = rs.getInt("ORDINAL_POSITION");
+					while (cols.size() < pos) cols.add(null);
+					cols.set(pos - 1, rs.getString("COLUMN_NAME").toLowerCase());
+				}
+			}
+			if (existing.containsKey(name.toLowerCase())) return;
+			List<String> wanted = new ArrayList<>();
+			for (String c : columns) wanted.add(c.toLowerCase());
+			for (List<String> cols : existing.values()) {
+				if (cols.size() >= wanted.size() && cols.subList(0, wanted.size()).equals(wanted)) {
+					System.out.println("  " + table + "(" + String.join(", ", columns) + ") is already indexed");
+					return;
+				}
+			}
+			System.out.println("  creating index " + name + " on " + table + "(" + String.join(", ", columns) + ")");
+			try (Statement stmt = conn.createStatement()) {
+				stmt.execute("CREATE INDEX " + name + " ON adb." + table + " (" + String.join(", ", columns) + ");");
+			}
+		};
+	}
+}
@@ -0,0 +1,312 @@
+package main.java;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Runs menu actions from a script instead of prompting for them.
+ * Each line is an action, a target and the target's fields separated by '|'. Blank fields are null,
+ * lines starting with '#' are ignored and $album stands for the ID of the last album the script inserted.
+ * <pre>
+ *   search creator|title|album|genre|label|country|media|keyword  text
+ *   search rating   mature|everyone
+ *   search random   size | genre | country
+ *   insert creator  name
+ *   insert album    mediaType | name | date | label
+ *   insert track    albumID | creator | title | duration | explicit (y/n) | countryID | genre
+ *   insert genre    name | description
+ *   insert label    name | date | countryID
+ *   insert country  name
+ *   update genre         name | description
+ *   update label-date    name | date
+ *   update label-country name | countryID
+ *   update album-date    albumID | date
+ *   update album-label   album name | label
+ *   update track-country title | country
+ *   delete creator|track|album  ID
+ *   delete genre|label          name
+ *   commit
+ * </pre>
+ * All commands run in one transaction on one connection. A command that fails is rolled back to a savepoint
+ * taken just before it, and the transaction is committed every commitEvery commands, at each 'commit' line
+ * and at the end of the script.
+ */
+public class ScriptRunner {
+	public static final int DEFAULT_COMMIT_EVERY = 100;
+
+	private final ConnectionPool pool;
+	private final Queries query;
+	private final int commitEvery;
+	private final boolean stopOnError;
+
+	//ID of the last album inserted, for $album
+	private int lastAlbumID = -1;
+	//commands run and failed per action, commits made, and commands waiting for the next commit
+	private final Map<String, int[]> counts = new LinkedHashMap<>();
+	private int commits = 0;
+	private int pending = 0;
+
+	public ScriptRunner(ConnectionPool pool, Queries query) {
+		this(pool, query, DEFAULT_COMMIT_EVERY, false);
+	}
+
+	/**
+	 * @param pool Pool to borrow the script connection from.
+	 * @param query Queries to run the commands through. Its missing creator policy should not be ASK.
+	 * @param commitEvery Number of commands per commit.
+	 * @param stopOnError Stop at the first failed command instead of skipping it.
+	 */
+	public ScriptRunner(ConnectionPool pool, Queries query, int commitEvery, boolean stopOnError) {
+		if (commitEvery < 1) throw new IllegalArgumentException("commit interval must be at least 1");
+		this.pool = pool;
+		this.query = query;
+		this.commitEvery = commitEvery;
+		this.stopOnError = stopOnError;
+		for (String action : List.of("search", "insert", "update", "delete")) counts.put(action, new int[2]);
+	}
+
+	/**
+	 * Runs every command of the script and prints a summary with the achieved commands/sec.
+	 * @param script Commands, one per line.
+	 * @return true if every command succeeded and everything was committed.
+	 */
+	public boolean run(BufferedReader script) {
+		long start = System.nanoTime();
+		boolean success = true;
+		try (Connection conn = pool.getConnection()) {
+			query.pin(deferred(conn));
+			try {
+				String line;
+				int lineNo = 0;
+				while ((line = script.readLine()) != null) {
+					lineNo++;
+					line = line.trim();
+					if (line.isEmpty() || line.startsWith("#")) continue;
+					if (line.equals("commit")) {
+						commit(conn);
+						continue;
+					}
+					if (!runCommand(conn, line, lineNo)) {
+						success = false;
+						if (stopOnError) break;
+					}
+				}
+				commit(conn);
+			} finally {
+				query.unpin();
+			}
+		} catch (SQLException e) {
+			System.out.println("Error: script stopped, " + pending + " uncommitted commands were rolled back: " + e.getMessage());
+			query.clearNameCache();
+			query.flushWrites();
+			success = false;
+		} catch (IOException e) {
+			System.out.println("Error reading script: " + e.getMessage());
+			success = false;
+		}
+		printSummary(System.nanoTime() - start);
+		return success;
+	}
+
+	//runs one command inside its own savepoint. returns false if it failed and was rolled back
+	private boolean runCommand(Connection conn, String line, int lineNo) throws SQLException {
+		String[] words = line.split("\\s+", 3);
+		String action = words[0].toLowerCase();
+		int[] count = counts.get(action);
+		if (count == null) {
+			System.out.println("line " + lineNo + ": unknown action " + words[0]);
+			count = counts.computeIfAbsent("unknown", k -> new int[2]);
+			count[0]++;
+			count[1]++;
+			return false;
+		}
+		count[0]++;
+
+		Savepoint savepoint = conn.setSavepoint();
+		String problem;
+		try {
+			String target = (words.length > 1) ? words[1].toLowerCase() : "";
+			String rest = (words.length > 2) ? words[2] : "";
+			switch (action) {
+				case "search": problem = search(target, rest); break;
+				case "insert": problem = insert(target, fields(rest)); break;
+				case "update": problem = update(target, fields(rest)); break;
+				default: problem = delete(target, rest.trim()); break;
+			}
+		} catch (IllegalArgumentException e) {
+			//bad numbers and missing fields
+			problem = e.getMessage();
+		}
+
+		if (problem == null) {
+			conn.releaseSavepoint(savepoint);
+			if (++pending >= commitEvery) commit(conn);
+			return true;
+		}
+		conn.rollback(savepoint);
+		//cached lookups may point at rows that were just rolled back
+		query.clearNameCache();
+		count[1]++;
+		System.out.println("line " + lineNo + " failed (" + problem + "): " + line);
+		return false;
+	}
+
+	//each method returns null on success or a short description of what went wrong
+	private String search(String target, String text) {
+		int rows;
+		switch (target) {
+			case "creator": rows = query.queryByCreator(text, false); break;
+			case "title": rows = query.queryByAudioTitle(text, false); break;
+			//the overload returning a count, the Map one cannot tell an error from no albums
+			case "album": rows = query.queryByAlbumTitle(text, true, query.consoleSink()); break;
+			case "genre": rows = query.queryByGenre(text); break;
+			case "label": rows = query.getTracksLabel(text); break;
+			case "country": rows = query.getTracksByCountry(text); break;
+			case "media": rows = query.queryByMediaType(text); break;
+			case "keyword": rows = query.searchCatalog(text); break;
+			case "rating":
+				rows = query.getTracksByRating(text.trim().equalsIgnoreCase("mature") ? 1 : 0);
+				break;
+			case "random":
+				List<String> f = fields(text);
+				rows = query.getRandomTracks(number(required(f, 0)), field(f, 1), field(f, 2));
+				break;
+			default:
+				return "unknown search " + target;
+		}
+		//finding nothing is not a failure
+		return (rows < 0) ? "search failed" : null;
+	}
+
+	private String insert(String target, List<String> f) {
+		switch (target) {
+			case "creator":
+				return failed(query.insertCreator(required(f, 0)));
+			case "album":
+				int albumID = query.insertAlbum(required(f, 1), field(f, 2), field(f, 3), required(f, 0));
+				if (albumID > 0) lastAlbumID = albumID;
+				return failed(albumID);
+			case "track":
+				String creator = field(f, 1), genre = field(f, 6);
+				int trackID = query.insertTrack(new TrackSpec(required(f, 2), explicit(field(f, 4)), nullableNumber(field(f, 3)),
+						nullableNumber(field(f, 5)), number(required(f, 0)),
+						(creator == null) ? Collections.<String>emptyList() : Collections.singletonList(creator),
+						(genre == null) ? Collections.<String>emptyList() : Collections.singletonList(genre)));
+				return (trackID <= 0) ? "track not inserted" : null;
+			case "genre":
+				return failed(query.insertGenre(required(f, 0), field(f, 1)));
+			case "label":
+				Integer countryID = nullableNumber(field(f, 2));
+				return failed(query.insertRecordLabel(required(f, 0), field(f, 1), (countryID == null) ? 0 : countryID));
+			case "country":
+				return failed(query.insertCountry(required(f, 0)));
+			default:
+				return "unknown insert " + target;
+		}
+	}
+
+	private String update(String target, List<String> f) {
+		int rows;
+		switch (target) {
+			case "genre": rows = query.updateGenre(required(f, 0), field(f, 1)); break;
+			case "label-date": rows = query.updateLabelDate(required(f, 0), field(f, 1)); break;
+			case "label-country": rows = query.updateLabelCountry(required(f, 0), nullableNumber(field(f, 1))); break;
+			case "album-date": rows = query.updateAlbumRD(number(required(f, 0)), field(f, 1)); break;
+			case "album-label": rows = query.updateAlbumRL(required(f, 0), field(f, 1)); break;
+			case "track-country": rows = query.updateCountryIDaf(required(f, 0), required(f, 1)); break;
+			default: return "unknown update " + target;
+		}
+		return (rows > 0) ? null : "nothing updated";
+	}
+
+	private String delete(String target, String key) {
+		int rows;
+		switch (target) {
+			case "creator": rows = query.deleteCreator(number(key)); break;
+			case "track": rows = query.deleteTrack(number(key)); break;
+			case "album": rows = query.deleteAlbum(number(key)); break;
+			case "genre": rows = query.deleteGenre(key); break;
+			case "label": rows = query.deleteLabel(key); break;
+			default: return "unknown delete " + target;
+		}
+		return (rows > 0) ? null : "nothing deleted";
+	}
+
+	private void commit(Connection conn) throws SQLException {
+		if (pending == 0) return;
+		//the result cache and the snapshot may hold rows its commands have now changed
+		query.commitPinned(conn);
+		commits++;
+		pending = 0;
+	}
+
+	private void printSummary(long elapsedNanos) {
+		int run = 0, failed = 0;
+		for (int[] c : counts.values()) {
+			run += c[0];
+			failed += c[1];
+		}
+		double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+		System.out.printf("Ran %d commands in %.2fs: %.0f commands/sec, %d failed, %d commits\n",
+				run, seconds, run / seconds, failed, commits);
+		for (Map.Entry<String, int[]> e : counts.entrySet())
+			if (e.getValue()[0] > 0)
+				System.out.printf("%12s: %d (%d failed)\n", e.getKey(), e.getValue()[0], e.getValue()[1]);
+	}
+
+	//splits the fields of a command, blank fields become null
+	private static List<String> fields(String rest) {
+		List<String> f = new ArrayList<>();
+		for (String s : rest.split("\\|", -1)) f.add(s.trim().isEmpty() ? null : s.trim());
+		return f;
+	}
+
+	private static String required(List<String> f, int i) {
+		String value = field(f, i);
+		if (value == null) throw new IllegalArgumentException("missing field " + (i + 1));
+		return value;
+	}
+
+	//optional field, null if blank or left off the end of the line
+	private static String field(List<String> f, int i) {
+		return (i < f.size()) ? f.get(i) : null;
+	}
+
+	private int number(String s) {
+		if (s.equals("$album")) return lastAlbumID;
+		return Integer.parseInt(s.trim());
+	}
+
+	private Integer nullableNumber(String s) {
+		return (s == null) ? null : number(s);
+	}
+
+	private static Integer explicit(String s) {
+		return (s != null && (s.equalsIgnoreCase("y") || s.equals("1"))) ? 1 : 0;
+	}
+
+	private static String failed(int id) {
+		return (id < 0) ? "database error" : null;
+	}
+
+	//view of the script connection that ignores the commit() and close() calls Queries makes after each operation
+	private static Connection deferred(Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "commit":
+						case "close":
+							return null;
+					}
+					try {
+						return method.invoke(conn, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+}
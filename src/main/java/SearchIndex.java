@@ -0,0 +1,203 @@
+package main.java;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory keyword index over track, album and creator names.
+ * Names are case folded and stripped of accents, then indexed two ways: by word (sorted, so any word
+ * prefix can be looked up) and by trigram of the whole name (so a fragment from the middle of a word
+ * still matches). A search returns IDs only; callers fetch the rows by primary key.
+ */
+class SearchIndex {
+	enum Field { TRACK, ALBUM, CREATOR }
+
+	private final Map<Field, FieldIndex> fields = new EnumMap<>(Field.class);
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	SearchIndex() {
+		for (Field f : Field.values()) fields.put(f, new FieldIndex());
+	}
+
+	void add(Field field, int id, String name) {
+		if (name == null) return;
+		lock.writeLock().lock();
+		try {
+			fields.get(field).add(id, name);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void remove(Field field, int id) {
+		lock.writeLock().lock();
+		try {
+			fields.get(field).remove(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** @return number of names indexed for the field */
+	int size(Field field) {
+		lock.readLock().lock();
+		try {
+			return fields.get(field).names.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds names containing every word of the query. Each query word matches the start of a word in the
+	 * name, or, if it is at least three letters long and no word starts with it, any part of the name.
+	 * @param field which names to search
+	 * @param query free text
+	 * @param limit maximum number of IDs returned
+	 * @return matching IDs, exact name matches first, then shorter names first
+	 */
+	List<Integer> search(Field field, String query, int limit) {
+		List<String> words = tokenize(fold(query));
+		if (words.isEmpty()) return new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			return fields.get(field).search(fold(query).trim(), words, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	//lower case without accents, so "Beyoncé" and "beyonce" index the same
+	static String fold(String s) {
+		String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+		StringBuilder sb = new StringBuilder(decomposed.length());
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) != Character.NON_SPACING_MARK) sb.append(Character.toLowerCase(c));
+		}
+		return sb.toString();
+	}
+
+	//splits folded text into words of letters and digits
+	static List<String> tokenize(String folded) {
+		List<String> words = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= folded.length(); i++) {
+			boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+			if (wordChar && start < 0) start = i;
+			else if (!wordChar && start >= 0) {
+				words.add(folded.substring(start, i));
+				start = -1;
+			}
+		}
+		return words;
+	}
+
+	private static class FieldIndex {
+		//id -> folded name
+		final Map<Integer, String> names = new HashMap<>();
+		final TreeMap<String, Postings> words = new TreeMap<>();
+		final Map<String, Postings> trigrams = new HashMap<>();
+
+		void add(int id, String name) {
+			remove(id);
+			String folded = fold(name);
+			names.put(id, folded);
+			for (String w : new HashSet<>(tokenize(folded))) words.computeIfAbsent(w, k -> new Postings()).add(id);
+			for (String g : trigramsOf(folded)) trigrams.computeIfAbsent(g, k -> new Postings()).add(id);
+		}
+
+		void remove(int id) {
+			String folded = names.remove(id);
+			if (folded == null) return;
+			for (String w : new HashSet<>(tokenize(folded))) drop(words, w, id);
+			for (String g : trigramsOf(folded)) drop(trigrams, g, id);
+		}
+
+		List<Integer> search(String phrase, List<String> queryWords, int limit) {
+			Set<Integer> result = null;
+			for (String w : queryWords) {
+				Set<Integer> matches = prefixMatches(w);
+				if (matches.isEmpty() && w.length() >= 3) matches = substringMatches(w);
+				if (result == null) result = matches;
+				else result.retainAll(matches);
+				if (result.isEmpty()) break;
+			}
+
+			List<Integer> ids = new ArrayList<>(result);
+			ids.sort(Comparator.comparing((Integer id) -> !names.get(id).equals(phrase))
+					.thenComparingInt(id -> names.get(id).length())
+					.thenComparing(id -> id));
+			return (ids.size() > limit) ? new ArrayList<>(ids.subList(0, limit)) : ids;
+		}
+
+		//every name with a word starting with the prefix
+		private Set<Integer> prefixMatches(String prefix) {
+			Set<Integer> ids = new HashSet<>();
+			for (Postings p : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) p.addTo(ids);
+			return ids;
+		}
+
+		//every name containing the fragment, found by intersecting its trigrams and then checking the name
+		private Set<Integer> substringMatches(String fragment) {
+			Set<Integer> candidates = null;
+			for (String g : trigramsOf(fragment)) {
+				Postings p = trigrams.get(g);
+				if (p == null) return new HashSet<>();
+				if (candidates == null) {
+					candidates = new HashSet<>();
+					p.addTo(candidates);
+				} else {
+					candidates.retainAll(p.asSet());
+				}
+			}
+			if (candidates == null) return new HashSet<>();
+			candidates.removeIf(id -> !names.get(id).contains(fragment));
+			return candidates;
+		}
+
+		private static void drop(Map<String, Postings> map, String key, int id) {
+			Postings p = map.get(key);
+			if (p != null && p.remove(id) && p.size == 0) map.remove(key);
+		}
+
+		private static Set<String> trigramsOf(String s) {
+			Set<String> grams = new HashSet<>();
+			for (int i = 0; i + 3 <= s.length(); i++) grams.add(s.substring(i, i + 3));
+			return grams;
+		}
+	}
+
+	//unordered list of IDs kept in a plain int array to avoid boxing every entry
+	private static class Postings {
+		int[] ids = new int[2];
+		int size = 0;
+
+		void add(int id) {
+			if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+			ids[size++] = id;
+		}
+
+		boolean remove(int id) {
+			for (int i = 0; i < size; i++) {
+				if (ids[i] == id) {
+					ids[i] = ids[--size];
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void addTo(Set<Integer> set) {
+			for (int i = 0; i < size; i++) set.add(ids[i]);
+		}
+
+		Set<Integer> asSet() {
+			Set<Integer> set = new HashSet<>();
+			addTo(set);
+			return set;
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package main.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Headless HTTP mode: the searches of the terminal menu as GET endpoints returning JSON.
+ * <pre>
+ *   /search/creator?q=   /search/title?q=   /search/album?q=   /search/genre?q=   /search/label?q=
+ *   /search/country?q=   /search/media?q=   /search/keyword?q=   /search/rating?q=mature|everyone
+ *   /search/random?size=10&amp;genre=&amp;country=
+ * </pre>
+ * Genre, media, country and rating results come a page at a time: limit= sets the page size (default
+ * Queries.DEFAULT_PAGE_SIZE, 0 for all results at once) and after= takes the "next" token of the previous page.
+ * The response lists the tracks, albums and creators found as typed JSON objects (see JsonSink), with
+ * status 500 and an "error" message if the search failed. Every request runs on one shared Queries, so the
+ * connection pool, name cache, keyword index and track sampler stay warm across requests.
+ * Responses are sent with their length so connections are kept alive, and gzipped when the client accepts it.
+ */
+public class SearchServer implements AutoCloseable {
+	//bodies smaller than this are sent uncompressed
+	private static final int GZIP_MIN_BYTES = 1024;
+	//count returned for a search name that does not exist
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private final Queries query;
+	private final HttpServer server;
+	private final ExecutorService workers;
+
+	/**
+	 * @param query Queries shared by all requests.
+	 * @param port Port to listen on, 0 for any free port.
+	 * @param threads Number of requests handled at once, normally the pool size.
+	 */
+	public SearchServer(Queries query, int port, int threads) throws IOException {
+		this.query = query;
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		workers = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "zene-http");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(workers);
+		server.createContext("/search/", this::handle);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				send(exchange, 405, "{\"error\": \"only GET is supported\"}");
+				return;
+			}
+			String search = exchange.getRequestURI().getPath().substring("/search/".length());
+			Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+
+			JsonSink sink = new JsonSink();
+			int count = search(search, params, sink);
+			if (count == UNKNOWN) {
+				send(exchange, 404, "{\"error\": " + json("unknown search " + search) + "}");
+				return;
+			}
+			send(exchange, (count < 0) ? 500 : 200, sink.toString());
+		} catch (NumberFormatException e) {
+			send(exchange, 400, "{\"error\": " + json("bad number: " + e.getMessage()) + "}");
+		} catch (IllegalArgumentException e) {
+			//a negative size or page size
+			send(exchange, 400, "{\"error\": " + json(e.getMessage()) + "}");
+		} catch (RuntimeException e) {
+			send(exchange, 500, "{\"error\": " + json(String.valueOf(e)) + "}");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	//runs the search the way processSearch does. returns its count, or UNKNOWN
+	private int search(String search, Map<String, String> params, ResultSink sink) {
+		String q = params.getOrDefault("q", "");
+		switch (search) {
+			case "creator": return query.queryByCreator(q, sink);
+			case "title": return query.queryByAudioTitle(q, sink);
+			case "album": return query.queryByAlbumTitle(q, true, sink);
+			case "label": return query.getTracksLabel(q, sink);
+			case "keyword": return query.searchCatalog(q, sink);
+		}
+		//the paged searches
+		int limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(Queries.DEFAULT_PAGE_SIZE)));
+		String after = params.get("after");
+		int rating = q.equalsIgnoreCase("mature") ? 1 : 0;
+		switch (search) {
+			case "genre": return (limit > 0) ? query.queryByGenre(q, limit, after, sink) : query.queryByGenre(q, sink);
+			case "country": return (limit > 0) ? query.getTracksByCountry(q, limit, after, sink) : query.getTracksByCountry(q, sink);
+			case "media": return (limit > 0) ? query.queryByMediaType(q, limit, after, sink) : query.queryByMediaType(q, sink);
+			case "rating": return (limit > 0) ? query.getTracksByRating(rating, limit, after, sink) : query.getTracksByRating(rating, sink);
+			case "random":
+				return query.getRandomTracks(Integer.parseInt(params.getOrDefault("size", "10")),
+						params.get("genre"), params.get("country"), sink);
+			default:
+				return UNKNOWN;
+		}
+	}
+
+	//sends the body with its exact length, which keeps the connection open for the next request
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (bytes.length >= GZIP_MIN_BYTES && accept != null && accept.contains("gzip")) {
+			ByteArrayOutputStream zipped = new ByteArrayOutputStream(bytes.length / 4);
+			try (GZIPOutputStream gz = new GZIPOutputStream(zipped)) {
+				gz.write(bytes);
+			}
+			bytes = zipped.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private static Map<String, String> params(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+		if (rawQuery == null) return params;
+		for (String pair : rawQuery.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode((eq < 0) ? pair : pair.substring(0, eq), "UTF-8");
+			String value = (eq < 0) ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			//blank values count as not given, like blank answers in the menu
+			if (!value.trim().isEmpty()) params.put(key, value);
+		}
+		return params;
+	}
+
+	//quoted JSON string
+	static String json(String s) {
+		if (s == null) return "null";
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+					else sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/** Stops accepting requests, gives running ones up to a second to finish, then stops the workers. */
+	@Override
+	public void close() {
+		server.stop(1);
+		workers.shutdownNow();
+	}
+}
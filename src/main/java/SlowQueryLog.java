@@ -0,0 +1,274 @@
+package main.java;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Logs every statement that takes longer than a threshold, with its SQL, bound parameters, elapsed time,
+ * rows fetched and the EXPLAIN plan of the same statement with the same parameters.
+ * Queries wraps the connections it uses with wrap(); the statements and result sets they hand out are
+ * proxies that remember parameters and count rows. A query's time runs from execute until its result set is
+ * closed, so a search that streams many rows is caught even if the execute call itself returned quickly.
+ * The EXPLAIN is only run for statements over the threshold, after their result set is closed.
+ * The log file is rotated to file.1, file.2, ... when it grows past maxBytes.
+ */
+public class SlowQueryLog {
+	public static final long DEFAULT_MAX_BYTES = 10L * 1024 * 1024;
+	public static final int DEFAULT_KEEP = 5;
+
+	private final Path file;
+	private final long thresholdNanos;
+	private final long maxBytes;
+	private final int keep;
+	private long written = -1;
+
+	public SlowQueryLog(Path file, long thresholdMillis) {
+		this(file, thresholdMillis, DEFAULT_MAX_BYTES, DEFAULT_KEEP);
+	}
+
+	/**
+	 * @param file Log file. Rotated files are named file.1 (newest) to file.keep (oldest).
+	 * @param thresholdMillis Statements taking at least this long are logged. 0 logs everything.
+	 * @param maxBytes Size the log may reach before it is rotated.
+	 * @param keep Number of rotated files kept.
+	 */
+	public SlowQueryLog(Path file, long thresholdMillis, long maxBytes, int keep) {
+		if (thresholdMillis < 0) throw new IllegalArgumentException("threshold must not be negative");
+		this.file = file;
+		this.thresholdNanos = thresholdMillis * 1_000_000;
+		this.maxBytes = maxBytes;
+		this.keep = keep;
+	}
+
+	/** @return a view of conn whose statements are timed. Closing it closes conn. */
+	Connection wrap(Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+					Object result = call(conn, method, args);
+					switch (method.getName()) {
+						case "prepareStatement":
+							return statement(conn, (PreparedStatement) result, (String) args[0]);
+						case "createStatement":
+							return statement(conn, (Statement) result, null);
+						default:
+							return result;
+					}
+				});
+	}
+
+	private Statement statement(Connection conn, Statement stmt, String sql) {
+		Class<?> type = (stmt instanceof PreparedStatement) ? PreparedStatement.class : Statement.class;
+		return (Statement) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+				new StatementHandler(conn, stmt, sql));
+	}
+
+	//one statement's parameters, and the timing of its current execution
+	private class StatementHandler implements InvocationHandler {
+		final Connection conn;
+		final Statement stmt;
+		final String preparedSql;
+		final SortedMap<Integer, Object> params = new TreeMap<>();
+		int batches = 0;
+		//result set of the last query, logged here if closing the statement closes it
+		ResultSetHandler open;
+
+		StatementHandler(Connection conn, Statement stmt, String preparedSql) {
+			this.conn = conn;
+			this.stmt = stmt;
+			this.preparedSql = preparedSql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			//setInt(1, x), setString(2, s), setNull(3, type) ...
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+				return call(stmt, method, args);
+			}
+			switch (name) {
+				case "clearParameters":
+					params.clear();
+					break;
+				case "close": {
+					//closing the statement closes its result set, the plan can only be read after that
+					ResultSetHandler last = open;
+					open = null;
+					Object result = call(stmt, method, args);
+					if (last != null) last.finish();
+					return result;
+				}
+				case "addBatch":
+					batches++;
+					break;
+				case "clearBatch":
+					batches = 0;
+					break;
+				case "executeQuery": {
+					String sql = (args != null && args.length > 0) ? (String) args[0] : preparedSql;
+					Map<Integer, Object> bound = new TreeMap<>(params);
+					long start = System.nanoTime();
+					ResultSet rs = (ResultSet) call(stmt, method, args);
+					long executed = System.nanoTime() - start;
+					if (open != null) open.finish();
+					open = new ResultSetHandler(conn, rs, sql, bound, start, executed);
+					return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, open);
+				}
+				case "executeUpdate":
+				case "execute":
+				case "executeBatch":
+				case "executeLargeUpdate": {
+					String sql = (args != null && args.length > 0) ? (String) args[0] : preparedSql;
+					long start = System.nanoTime();
+					Object result = call(stmt, method, args);
+					long elapsed = System.nanoTime() - start;
+					if (elapsed >= thresholdNanos) {
+						long rows = (result instanceof Number) ? ((Number) result).longValue()
+								: (result instanceof int[]) ? Arrays.stream((int[]) result).asLongStream().sum() : -1;
+						String note = name.equals("executeBatch") ? "batch of " + batches : null;
+						log(conn, sql, new TreeMap<>(params), elapsed, elapsed, rows, note);
+					}
+					if (name.equals("executeBatch")) batches = 0;
+					return result;
+				}
+			}
+			return call(stmt, method, args);
+		}
+	}
+
+	//counts rows as they are read and logs the query when the result set is closed, if it was slow
+	private class ResultSetHandler implements InvocationHandler {
+		final Connection conn;
+		final ResultSet rs;
+		final String sql;
+		final Map<Integer, Object> params;
+		final long start;
+		final long executed;
+		long rows = 0;
+		boolean done = false;
+
+		ResultSetHandler(Connection conn, ResultSet rs, String sql, Map<Integer, Object> params, long start, long executed) {
+			this.conn = conn;
+			this.rs = rs;
+			this.sql = sql;
+			this.params = params;
+			this.start = start;
+			this.executed = executed;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = call(rs, method, args);
+			switch (method.getName()) {
+				case "next":
+					if ((Boolean) result) rows++;
+					break;
+				case "close":
+					finish();
+					break;
+			}
+			return result;
+		}
+
+		void finish() {
+			if (done) return;
+			done = true;
+			long elapsed = System.nanoTime() - start;
+			if (elapsed >= thresholdNanos) log(conn, sql, params, elapsed, executed, rows, null);
+		}
+	}
+
+	private void log(Connection conn, String sql, Map<Integer, Object> params, long elapsedNanos, long executeNanos,
+					 long rows, String note) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# ").append(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS)).append(String.format("  %.1f ms", elapsedNanos / 1e6));
+		if (executeNanos != elapsedNanos) sb.append(String.format(" (execute %.1f ms)", executeNanos / 1e6));
+		if (rows >= 0) sb.append(", ").append(rows).append(" rows");
+		if (note != null) sb.append(", ").append(note);
+		sb.append('\n').append(sql.trim()).append('\n');
+		if (!params.isEmpty()) {
+			StringJoiner p = new StringJoiner(", ", "params: ", "\n");
+			for (Map.Entry<Integer, Object> e : params.entrySet()) p.add(e.getKey() + "=" + quote(e.getValue()));
+			sb.append(p);
+		}
+		sb.append(explain(conn, sql, params)).append('\n');
+		write(sb.toString());
+	}
+
+	//the plan as a small table, or why there is none
+	private static String explain(Connection conn, String sql, Map<Integer, Object> params) {
+		String verb = sql.trim().split("\\s+", 2)[0].toUpperCase();
+		if (!verb.equals("SELECT") && !verb.equals("UPDATE") && !verb.equals("DELETE")) return "EXPLAIN: not applicable\n";
+		//not prepareStatement(), so the plan does not take a slot in the statement cache
+		try (PreparedStatement explain = conn.prepareStatement("EXPLAIN " + sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			for (Map.Entry<Integer, Object> e : params.entrySet()) explain.setObject(e.getKey(), e.getValue());
+			try (ResultSet rs = explain.executeQuery()) {
+				ResultSetMetaData md = rs.getMetaData();
+				StringJoiner header = new StringJoiner(" | ", "EXPLAIN:\n  ", "\n");
+				for (int i = 1; i <= md.getColumnCount(); i++) header.add(md.getColumnLabel(i));
+				StringBuilder sb = new StringBuilder(header.toString());
+				while (rs.next()) {
+					StringJoiner row = new StringJoiner(" | ", "  ", "\n");
+					for (int i = 1; i <= md.getColumnCount(); i++) row.add(String.valueOf(rs.getString(i)));
+					sb.append(row);
+				}
+				return sb.toString();
+			}
+		} catch (SQLException | RuntimeException e) {
+			//the log must never fail the query it describes
+			return "EXPLAIN failed: " + e + "\n";
+		}
+	}
+
+	private static String quote(Object value) {
+		if (value == null) return "NULL";
+		if (value instanceof Number || value instanceof Boolean) return value.toString();
+		return "'" + value.toString().replace("'", "''") + "'";
+	}
+
+	//appends the entry, rotating first if it would take the file past maxBytes
+	private synchronized void write(String entry) {
+		byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+		try {
+			if (written < 0) written = Files.exists(file) ? Files.size(file) : 0;
+			if (written > 0 && written + bytes.length > maxBytes) rotate();
+			Files.write(file, bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			written += bytes.length;
+		} catch (IOException e) {
+			System.err.println("Error writing slow query log " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void rotate() throws IOException {
+		if (keep < 1) {
+			Files.deleteIfExists(file);
+		} else {
+			Files.deleteIfExists(rotated(keep));
+			for (int i = keep - 1; i >= 1; i--)
+				if (Files.exists(rotated(i))) Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		}
+		written = 0;
+	}
+
+	private Path rotated(int n) {
+		return file.resolveSibling(file.getFileName() + "." + n);
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * The on-disk form of a CatalogSnapshot: a header followed by the snapshot's columns, each stored as one section
+ * of little-endian ints or raw bytes.
+ * <pre>
+ * magic "ZENESNAP" | format version (int) | section count (int) | database fingerprint (long) | CRC32C (long)
+ * section table: offset (long), length in bytes (long) per section
+ * sections, each starting at a multiple of 8
+ * </pre>
+ * The checksum covers the section table and every section. Files are written to a temporary file next to the
+ * target, flushed and renamed over it, so a reader never sees half a snapshot. Windows refuses to replace a file
+ * that is still mapped, so there the new file waits next to the old one as file.next until the next open() or
+ * fingerprint() moves it into place. Opening reads and checks the whole file before it maps every section
+ * read-only, which leaves the data in the page cache instead of the heap; a file that fails its checks is never
+ * mapped, so it can be replaced right away.
+ */
+final class SnapshotFile {
+	//bump whenever the sections a CatalogSnapshot writes change
+	static final int FORMAT_VERSION = 1;
+
+	private static final byte[] MAGIC = "ZENESNAP".getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+	private static final int HEADER = 32;
+	private static final int CHUNK = 64 * 1024;
+
+	private SnapshotFile() {
+	}
+
+	/** Collects the sections of a snapshot in the order they are written. */
+	static final class Writer {
+		private final List<Buffer> sections = new ArrayList<>();
+
+		void ints(IntBuffer ints) {
+			sections.add(ints.duplicate().rewind());
+		}
+
+		void bytes(ByteBuffer bytes) {
+			sections.add(bytes.duplicate().rewind());
+		}
+	}
+
+	/** Hands the mapped sections back in the order they were written. */
+	static final class Reader {
+		private final List<ByteBuffer> sections;
+		private int next = 0;
+
+		private Reader(List<ByteBuffer> sections) {
+			this.sections = sections;
+		}
+
+		IntBuffer ints() throws IOException {
+			return section().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		}
+
+		ByteBuffer bytes() throws IOException {
+			return section();
+		}
+
+		private ByteBuffer section() throws IOException {
+			if (next == sections.size()) throw new IOException("snapshot file has fewer sections than expected");
+			return sections.get(next++);
+		}
+
+		//the reader must have used every section, otherwise the file was written by a different layout
+		void finish() throws IOException {
+			if (next != sections.size()) throw new IOException("snapshot file has " + sections.size() + " sections, expected " + next);
+		}
+	}
+
+	/**
+	 * Writes the sections to file, replacing it atomically, or to file.next if file is mapped and cannot be replaced.
+	 * @param fingerprint CatalogSnapshot.fingerprint() of the database the sections were read from
+	 */
+	static void write(Path file, long fingerprint, Writer sections) throws IOException {
+		int count = sections.sections.size();
+		long[] offsets = new long[count];
+		long[] lengths = new long[count];
+		long position = align(HEADER + 16L * count);
+		for (int i = 0; i < count; i++) {
+			Buffer b = sections.sections.get(i);
+			lengths[i] = (b instanceof IntBuffer) ? 4L * b.remaining() : b.remaining();
+			offsets[i] = position;
+			position = align(position + lengths[i]);
+		}
+
+		ByteBuffer table = ByteBuffer.allocate(16 * count).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < count; i++) table.putLong(offsets[i]).putLong(lengths[i]);
+		table.flip();
+
+		Path dir = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			CRC32C crc = new CRC32C();
+			crc.update(table.duplicate());
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				writeFully(ch, table, HEADER);
+				ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 4).order(ByteOrder.LITTLE_ENDIAN);
+				for (int i = 0; i < count; i++) {
+					long at = offsets[i];
+					Buffer b = sections.sections.get(i);
+					if (b instanceof ByteBuffer) {
+						ByteBuffer bytes = (ByteBuffer) b;
+						crc.update(bytes.duplicate());
+						writeFully(ch, bytes.duplicate(), at);
+						continue;
+					}
+					IntBuffer ints = (IntBuffer) b;
+					while (ints.hasRemaining()) {
+						chunk.clear();
+						int n = Math.min(CHUNK, ints.remaining());
+						for (int j = 0; j < n; j++) chunk.putInt(ints.get());
+						chunk.flip();
+						crc.update(chunk.duplicate());
+						at += writeFully(ch, chunk, at);
+					}
+				}
+				ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+				header.put(MAGIC).putInt(FORMAT_VERSION).putInt(count).putLong(fingerprint).putLong(crc.getValue()).flip();
+				writeFully(ch, header, 0);
+				ch.force(true);
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (FileSystemException e) {
+				//still mapped by a snapshot of this process, see the class comment. Windows reports it as access
+				//denied or as a user-mapped section
+				if (e instanceof NoSuchFileException) throw e;
+				Files.move(tmp, pending(file), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Reads the fingerprint from the header of file without mapping it.
+	 * @throws IOException if the file cannot be read or was written by another format version
+	 */
+	static long fingerprint(Path file) throws IOException {
+		installPending(file);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return header(ch).getLong(16);
+		}
+	}
+
+	/**
+	 * Maps the sections of file.
+	 * @throws IOException if the file cannot be read, was written by another format version, or fails its checksum
+	 */
+	static Reader open(Path file) throws IOException {
+		installPending(file);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = ch.size();
+			ByteBuffer header = header(ch);
+			int count = header.getInt(12);
+			long checksum = header.getLong(24);
+			if (count < 0 || HEADER + 16L * count > size) throw new IOException("truncated section table");
+
+			ByteBuffer table = ByteBuffer.allocate(16 * count).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(ch, table, HEADER);
+			table.flip();
+			CRC32C crc = new CRC32C();
+			crc.update(table.duplicate());
+			long[] offsets = new long[count];
+			long[] lengths = new long[count];
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK * 4);
+			for (int i = 0; i < count; i++) {
+				offsets[i] = table.getLong();
+				lengths[i] = table.getLong();
+				if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > size) throw new IOException("section " + i + " lies outside the file");
+				for (long at = 0; at < lengths[i]; at += chunk.limit()) {
+					chunk.clear().limit((int) Math.min(chunk.capacity(), lengths[i] - at));
+					readFully(ch, chunk, offsets[i] + at);
+					chunk.flip();
+					crc.update(chunk);
+				}
+			}
+			if (crc.getValue() != checksum) throw new IOException("checksum mismatch");
+
+			List<ByteBuffer> sections = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) sections.add(ch.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]));
+			return new Reader(sections);
+		}
+	}
+
+	//the checked header of the file: magic, version, section count, fingerprint and checksum
+	private static ByteBuffer header(FileChannel ch) throws IOException {
+		if (ch.size() < HEADER) throw new IOException("not a snapshot file");
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(ch, header, 0);
+		header.flip();
+		byte[] magic = new byte[MAGIC.length];
+		header.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) throw new IOException("not a snapshot file");
+		int version = header.getInt();
+		if (version != FORMAT_VERSION) throw new IOException("format version " + version + ", expected " + FORMAT_VERSION);
+		return header;
+	}
+
+	//where write() leaves a file it could not put in place
+	private static Path pending(Path file) {
+		return file.resolveSibling(file.getFileName() + ".next");
+	}
+
+	//moves a file write() left pending over file, unless file is still mapped
+	private static void installPending(Path file) throws IOException {
+		Path next = pending(file);
+		if (!Files.exists(next)) return;
+		try {
+			Files.move(next, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (FileSystemException e) {
+			//still mapped: the older file is read until its mapping is gone
+		}
+	}
+
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			if (ch.read(buf, position + buf.position()) < 0) throw new IOException("snapshot file is truncated");
+		}
+	}
+
+	private static int writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+		int written = 0;
+		while (buf.hasRemaining()) written += ch.write(buf, position + written);
+		return written;
+	}
+}
@@ -0,0 +1,152 @@
+package main.java;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of prepared statements for a single physical connection.
+ * Every Queries method declares its SQL as one constant string, so the text itself is the cache key.
+ * Statements are prepared lazily on first use and stay open across calls; closing the handle
+ * given out only clears its parameters and hands it back to the cache. A handle's getConnection()
+ * returns the pool's handle it was prepared on, never the physical connection.
+ */
+class StatementCache {
+	//shared across every connection in a pool so the counters describe the whole application
+	static class Stats {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final AtomicLong evictions = new AtomicLong();
+	}
+
+	private final Connection physical;
+	private final int maxSize;
+	private final Stats stats;
+	private final LinkedHashMap<String, Entry> entries;
+
+	StatementCache(Connection physical, int maxSize, Stats stats) {
+		this.physical = physical;
+		this.maxSize = maxSize;
+		this.stats = stats;
+		//access ordered so iteration starts at the least recently used statement
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, StatementCache.Entry> eldest) {
+				if (size() <= StatementCache.this.maxSize) return false;
+				stats.evictions.incrementAndGet();
+				eldest.getValue().evict();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns a cached statement for the sql, preparing it if this connection has not seen it yet.
+	 * If the cached statement is already in use (same sql nested on one connection) an uncached one is returned.
+	 * @param owner The pool's handle the statement is prepared on, returned by getConnection().
+	 */
+	PreparedStatement prepare(Connection owner, String sql) throws SQLException {
+		Entry e = (maxSize > 0) ? entries.get(sql) : null;
+		if (maxSize <= 0 || (e != null && e.inUse)) {
+			//uncached, so it is closed when its borrower closes it
+			e = new Entry(physical.prepareStatement(sql));
+			e.evicted = true;
+		} else if (e == null) {
+			stats.misses.incrementAndGet();
+			e = new Entry(physical.prepareStatement(sql));
+			entries.put(sql, e);
+		} else {
+			stats.hits.incrementAndGet();
+		}
+		e.inUse = true;
+		return e.newHandle(owner);
+	}
+
+	//closes every cached statement, called before the physical connection is closed
+	void close() {
+		for (Entry e : entries.values()) e.evict();
+		entries.clear();
+	}
+
+	private static class Entry {
+		final PreparedStatement statement;
+		boolean inUse = false;
+		boolean evicted = false;
+
+		Entry(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		PreparedStatement newHandle(Connection owner) {
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[]{PreparedStatement.class}, new Handle(this, owner));
+		}
+
+		//a statement evicted while borrowed is closed once its borrower is done with it
+		void evict() {
+			evicted = true;
+			if (!inUse) closeQuietly(statement);
+		}
+
+		void giveBack() {
+			inUse = false;
+			if (evicted) {
+				closeQuietly(statement);
+				return;
+			}
+			try {
+				statement.clearParameters();
+			} catch (SQLException e) {
+				evicted = true;
+				closeQuietly(statement);
+			}
+		}
+	}
+
+	private static class Handle implements InvocationHandler {
+		private final Entry entry;
+		private final Connection owner;
+		private boolean returned = false;
+
+		Handle(Entry entry, Connection owner) {
+			this.entry = entry;
+			this.owner = owner;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (!returned) {
+						returned = true;
+						entry.giveBack();
+					}
+					return null;
+				case "isClosed":
+					return returned || entry.statement.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+			}
+			if (returned) throw new SQLException("Statement has already been closed");
+			if (method.getName().equals("getConnection")) return owner;
+			try {
+				return method.invoke(entry.statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static void closeQuietly(Statement s) {
+		try {
+			s.close();
+		} catch (SQLException ignored) {
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package main.java;
+
+/**
+ * One audio file as returned by the searches. A track with several creators is returned once per creator.
+ * Fields a search does not read are null.
+ */
+public final class Track {
+	public final int trackID;
+	public final String title;
+	//seconds
+	public final Integer duration;
+	public final Boolean explicit;
+	public final Integer creatorID;
+	public final String creator;
+	public final Integer albumID;
+	public final String album;
+	//of the album, yyyy-mm-dd
+	public final String releaseDate;
+
+	public Track(int trackID, String title, Integer duration, Boolean explicit, Integer creatorID, String creator,
+				 Integer albumID, String album, String releaseDate) {
+		this.trackID = trackID;
+		this.title = title;
+		this.duration = duration;
+		this.explicit = explicit;
+		this.creatorID = creatorID;
+		this.creator = creator;
+		this.albumID = albumID;
+		this.album = album;
+		this.releaseDate = releaseDate;
+	}
+}
@@ -0,0 +1,165 @@
+package main.java;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Dense in-memory lists of every TrackID, and of the TrackIDs per country and per genre, for drawing uniform
+ * random samples without asking the database to sort the whole catalog (ORDER BY RAND()).
+ * Lists are kept as sorted int arrays, so a membership test is a binary search and a combined genre and
+ * country filter only has to walk the shorter list. Genres are matched without case, like GenreID in SQL.
+ */
+class TrackSampler {
+	private final SortedIntList all = new SortedIntList();
+	private final Map<Integer, SortedIntList> byCountry = new HashMap<>();
+	//by lower case GenreID
+	private final Map<String, SortedIntList> byGenre = new HashMap<>();
+	private boolean loaded = false;
+
+	/** @return true once the lists have been filled from the database */
+	synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	synchronized void markLoaded() {
+		loaded = true;
+	}
+
+	synchronized int size() {
+		return all.size;
+	}
+
+	/** @param countryID country of the track, or null */
+	synchronized void addTrack(int trackID, Integer countryID) {
+		all.add(trackID);
+		if (countryID != null) byCountry.computeIfAbsent(countryID, k -> new SortedIntList()).add(trackID);
+	}
+
+	synchronized void addGenre(int trackID, String genre) {
+		byGenre.computeIfAbsent(key(genre), k -> new SortedIntList()).add(trackID);
+	}
+
+	synchronized void removeTrack(int trackID) {
+		all.remove(trackID);
+		for (SortedIntList l : byCountry.values()) l.remove(trackID);
+		for (SortedIntList l : byGenre.values()) l.remove(trackID);
+	}
+
+	synchronized void removeGenre(String genre) {
+		byGenre.remove(key(genre));
+	}
+
+	/** @param countryID new country of the track, or null */
+	synchronized void setCountry(int trackID, Integer countryID) {
+		for (SortedIntList l : byCountry.values()) l.remove(trackID);
+		if (countryID != null) byCountry.computeIfAbsent(countryID, k -> new SortedIntList()).add(trackID);
+	}
+
+	/**
+	 * Draws up to n distinct tracks, each matching track being equally likely.
+	 * @param n most tracks to draw, at least 0
+	 * @param genre only tracks in this genre, or null for any
+	 * @param countryID only tracks from this country, or null for any
+	 */
+	synchronized int[] sample(int n, String genre, Integer countryID) {
+		if (n < 0) throw new IllegalArgumentException("sample size must not be negative");
+		SortedIntList g = (genre == null) ? null : byGenre.getOrDefault(key(genre), SortedIntList.EMPTY);
+		SortedIntList c = (countryID == null) ? null : byCountry.getOrDefault(countryID, SortedIntList.EMPTY);
+		if (g == null && c == null) return pick(all, n);
+		if (g == null) return pick(c, n);
+		if (c == null) return pick(g, n);
+
+		//both filters: reservoir sample the shorter list, keeping only IDs that are also in the longer one
+		SortedIntList shorter = (g.size <= c.size) ? g : c;
+		SortedIntList longer = (shorter == g) ? c : g;
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		//never more than the shorter list holds, however large n is
+		int[] reservoir = new int[Math.min(n, shorter.size)];
+		int seen = 0;
+		for (int i = 0; i < shorter.size; i++) {
+			int id = shorter.ids[i];
+			if (!longer.contains(id)) continue;
+			if (seen < reservoir.length) reservoir[seen] = id;
+			else {
+				int j = rand.nextInt(seen + 1);
+				if (j < reservoir.length) reservoir[j] = id;
+			}
+			seen++;
+		}
+		return Arrays.copyOf(reservoir, Math.min(seen, reservoir.length));
+	}
+
+	//n distinct random positions of the list, using Floyd's algorithm so only n draws are needed
+	private static int[] pick(SortedIntList list, int n) {
+		int m = list.size;
+		if (n >= m) {
+			int[] everything = Arrays.copyOf(list.ids, m);
+			shuffle(everything);
+			return everything;
+		}
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		Set<Integer> chosen = new LinkedHashSet<>();
+		for (int j = m - n; j < m; j++) {
+			int t = rand.nextInt(j + 1);
+			if (!chosen.add(t)) chosen.add(j);
+		}
+		int[] result = new int[n];
+		int i = 0;
+		for (int pos : chosen) result[i++] = list.ids[pos];
+		shuffle(result);
+		return result;
+	}
+
+	private static String key(String genre) {
+		return genre.toLowerCase(Locale.ROOT);
+	}
+
+	private static void shuffle(int[] a) {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		for (int i = a.length - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int tmp = a[i];
+			a[i] = a[j];
+			a[j] = tmp;
+		}
+	}
+
+	//growable int array kept in ascending order without duplicates
+	private static class SortedIntList {
+		static final SortedIntList EMPTY = new SortedIntList();
+
+		int[] ids = new int[4];
+		int size = 0;
+
+		boolean contains(int id) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+
+		void add(int id) {
+			//ascending loads append without searching
+			if (size > 0 && ids[size - 1] < id) {
+				grow();
+				ids[size++] = id;
+				return;
+			}
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos >= 0) return;
+			pos = -pos - 1;
+			grow();
+			System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+			ids[pos] = id;
+			size++;
+		}
+
+		void remove(int id) {
+			int pos = Arrays.binarySearch(ids, 0, size, id);
+			if (pos < 0) return;
+			System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+			size--;
+		}
+
+		private void grow() {
+			if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package main.java;
+
+import java.util.*;
+
+/**
+ * A track to insert with Queries.insertTrack(): the audiofile row with the names of its creators and the
+ * GenreIDs of its genres. Duplicate names are written once.
+ */
+public final class TrackSpec {
+	public final String name;
+	//1 for explicit, 0 or null for clean
+	public final Integer rating;
+	//seconds, null for the default
+	public final Integer duration;
+	public final Integer countryID;
+	public final int albumID;
+	public final List<String> creators;
+	public final List<String> genres;
+
+	public TrackSpec(String name, Integer rating, Integer duration, Integer countryID, int albumID,
+					 List<String> creators, List<String> genres) {
+		this.name = name;
+		this.rating = rating;
+		this.duration = duration;
+		this.countryID = countryID;
+		this.albumID = albumID;
+		this.creators = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(creators)));
+		this.genres = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(genres)));
+	}
+}
@@ -1,7 +1,10 @@
 package main.java;
 
+import java.io.*;
+import java.nio.file.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Entry point and menu handler for group 17 music database application
@@ -15,6 +18,43 @@ public class Zene {
     private static String username;
     private static String password;
 
+    //optional --flags given after the connection arguments
+    private static List<String> importFiles = new ArrayList<>();
+    private static int chunkSize = CatalogImporter.DEFAULT_CHUNK_SIZE;
+    private static int fetchSize = Queries.DEFAULT_FETCH_SIZE;
+    //tracks or albums per page of the genre, media type, country and rating searches, 0 to list all at once
+    private static int pageSize = Queries.DEFAULT_PAGE_SIZE;
+    //batch mode: script file (or - for stdin) and the policies that replace its prompts
+    private static String scriptFile;
+    private static int commitEvery = ScriptRunner.DEFAULT_COMMIT_EVERY;
+    private static boolean stopOnError = false;
+    private static Queries.MissingCreator missingCreator = Queries.MissingCreator.REJECT;
+    //schema maintenance: apply pending migrations, or only check the index plan with EXPLAIN
+    private static boolean migrate = false;
+    private static boolean explain = false;
+    //album and creator summaries: recompute them from the catalog, and compare them with it
+    private static boolean rebuildSummaries = false;
+    private static boolean verifySummaries = false;
+    //seconds between metrics tables printed to stderr, 0 for none. the MBeans are registered either way
+    private static int metricsInterval = 0;
+    //statements slower than this many ms are logged with their plan, -1 for no log
+    private static long slowQueryMillis = -1;
+    private static String slowQueryFile = "slow-queries.log";
+    //headless HTTP mode: port to serve the searches on (-1 for the menu) and requests handled at once
+    private static int servePort = -1;
+    private static int serveThreads = 0;
+    //read replicas the searches are sent to, logged into with the primary's username and password
+    private static List<String> replicaUrls = new ArrayList<>();
+    private static ReplicaRouter.Routing routing = ReplicaRouter.Routing.ROUND_ROBIN;
+    private static long readYourWritesMillis = ReplicaRouter.DEFAULT_READ_YOUR_WRITES_MILLIS;
+    //search result cache size in MB, 0 for no cache, and how long a result is served
+    private static long resultCacheMB = ResultCache.DEFAULT_MAX_BYTES / (1024 * 1024);
+    private static long resultCacheSeconds = ResultCache.DEFAULT_TTL_MILLIS / 1000;
+    //answer the searches from an in-memory copy of the catalog
+    private static boolean snapshot = false;
+    //file the snapshot is mapped from and saved to, implies --snapshot
+    private static String snapshotFile;
+
     public static void main(String[] args) {
         //initialize member objects
         in = new Scanner(System.in);
@@ -50,6 +90,8 @@ public class Zene {
         searchOptions.add("y: list all albums by media type");
         searchOptions.add("e: list tracks by explicit rating");
         searchOptions.add("r: get a random track list by list size");
+        searchOptions.add("k: keyword search of creator, album and track names");
+        searchOptions.add("s: track count, durations and release span of a creator");
         searchOptions.add("b: back to main menu");
         
         updateOptions.add("a: update album");
@@ -67,11 +109,108 @@ public class Zene {
 
 
         //use try-with-resources block to ensure close regardless of success
+        //the pool opens connections on demand, so borrow one up front to check the login info
         System.out.print("connecting to db...");
-        try (Connection conn = DriverManager.getConnection(url, username, password)) {
-            System.out.println("connected!");
-            conn.setAutoCommit(false); //do we want autocommit on/off?
-            query = new Queries(conn, in);
+        try (ConnectionPool pool = new ConnectionPool(url, username, password);
+             Metrics metrics = new Metrics();
+             ReplicaRouter replicas = replicaUrls.isEmpty() ? null : new ReplicaRouter(pool, openReplicas(),
+                     routing, ReplicaRouter.DEFAULT_CHECK_INTERVAL_MILLIS, readYourWritesMillis)) {
+            try (Connection conn = pool.getConnection()) {
+                //wait at most 5 seconds for the server to answer
+                if (!conn.isValid(5)) throw new SQLException("connection is not valid");
+                System.out.println("connected!");
+            }
+            SchemaMigrator migrator = new SchemaMigrator(pool);
+            if (migrate || explain) {
+                boolean ok = !migrate || migrator.migrate() >= 0;
+                if (ok) ok = migrator.verify();
+                if (!ok) System.exit(1);
+                return;
+            }
+            int pending = migrator.pendingCount();
+            if (pending > 0) System.out.println(pending + " schema migration(s) pending, run with --migrate to apply them.");
+            CatalogSummary summaries = migrator.isApplied(CatalogSummary.SCHEMA_VERSION) ? new CatalogSummary(pool) : null;
+            if (rebuildSummaries || verifySummaries) {
+                if (summaries == null) {
+                    System.out.println("The summary tables do not exist yet, run with --migrate to create them.");
+                    System.exit(1);
+                }
+                boolean ok = true;
+                if (rebuildSummaries) {
+                    int rows = summaries.rebuild();
+                    ok = rows >= 0;
+                    if (ok) System.out.println(rows + " summary rows written");
+                }
+                if (ok && verifySummaries) ok = summaries.verify() == 0;
+                if (!ok) System.exit(1);
+                return;
+            }
+
+            IdAllocator ids = new BlockIdAllocator(pool);
+            query = new InstrumentedQueries(pool, in, ids, metrics);
+            if (metricsInterval > 0) metrics.startDump(System.err, metricsInterval);
+            if (slowQueryMillis >= 0) query.setSlowQueryLog(new SlowQueryLog(Paths.get(slowQueryFile), slowQueryMillis));
+            query.setFetchSize(fetchSize);
+            query.setReplicas(replicas);
+            query.setCatalogSummary(summaries);
+            query.setCatalogVersion(migrator.isApplied(CatalogSnapshot.SCHEMA_VERSION));
+            if (resultCacheMB > 0) {
+                ResultCache cache = new ResultCache(resultCacheMB * 1024 * 1024, resultCacheSeconds * 1000);
+                metrics.resultCache(cache);
+                query.setResultCache(cache);
+            }
+
+            //non-interactive bulk import, skips the menu entirely
+            if (!importFiles.isEmpty()) {
+                List<Path> files = new ArrayList<>();
+                for (String f : importFiles) files.add(Paths.get(f));
+                boolean ok = new CatalogImporter(pool, ids, chunkSize).importFiles(files);
+                //the importer writes around Queries, so the summaries are recomputed as a whole
+                if (ok && summaries != null) ok = summaries.rebuild() >= 0;
+                if (!ok) System.exit(1);
+                return;
+            }
+
+            System.out.print("indexing catalog...");
+            int indexed = query.buildSearchIndex();
+            if (indexed >= 0) System.out.println(indexed + " names indexed");
+            if (snapshot) {
+                if (snapshotFile != null) query.setSnapshotFile(Paths.get(snapshotFile));
+                System.out.print("loading catalog snapshot...");
+                int loaded = query.buildSnapshot();
+                if (loaded >= 0) System.out.println(loaded + " rows loaded");
+            }
+
+            //headless search service, runs until the process is stopped
+            if (servePort >= 0) {
+                SearchServer server = new SearchServer(query, servePort, (serveThreads > 0) ? serveThreads : pool.getMaxSize());
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    server.close();
+                    query.saveSnapshotFile();
+                }));
+                server.start();
+                System.out.println("serving searches on http://localhost:" + server.getPort() + "/search/");
+                new CountDownLatch(1).await();
+                return;
+            }
+
+            //non-interactive script of menu actions, skips the menu as well
+            if (scriptFile != null) {
+                query.setMissingCreator(missingCreator);
+                ScriptRunner runner = new ScriptRunner(pool, query, commitEvery, stopOnError);
+                boolean ok;
+                try (BufferedReader script = scriptFile.equals("-")
+                        ? new BufferedReader(new InputStreamReader(System.in))
+                        : Files.newBufferedReader(Paths.get(scriptFile))) {
+                    ok = runner.run(script);
+                } catch (IOException e) {
+                    System.out.println("Error: could not open script " + scriptFile + ": " + e.getMessage());
+                    ok = false;
+                }
+                query.saveSnapshotFile();
+                if (!ok) System.exit(1);
+                return;
+            }
 
             //menu loop
             char lastOption = '\0';
@@ -108,8 +247,15 @@ public class Zene {
                         break;
                 }
             }
+            //refreshes stay in memory, so the writes made this session reach the snapshot file here
+            query.saveSnapshotFile();
         } catch (SQLException e) {
             System.out.println("\nError: could not connect to database. Wrong url or login info?");
+        } catch (IOException e) {
+            System.out.println("Error: could not start the HTTP server: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -137,7 +283,9 @@ public class Zene {
                 //genre search
             case 'g':
                 System.out.print("Enter a genre name to search for: ");
-                query.queryByGenre(in.nextLine());
+                String genre = in.nextLine();
+                if (pageSize > 0) printPaged((after, sink) -> query.queryByGenre(genre, pageSize, after, sink));
+                else query.queryByGenre(genre);
                 break;
 
             case 'l':
@@ -147,32 +295,66 @@ public class Zene {
 
             case 'y':
                 System.out.print("Enter a media type to list: ");
-                query.queryByMediaType(in.nextLine());
+                String mediaType = in.nextLine();
+                if (pageSize > 0) printPaged((after, sink) -> query.queryByMediaType(mediaType, pageSize, after, sink));
+                else query.queryByMediaType(mediaType);
                 break;
 
             case 'n':
                 System.out.print("Enter country name: ");
-                query.getTracksByCountry(in.nextLine());
+                String country = in.nextLine();
+                if (pageSize > 0) printPaged((after, sink) -> query.getTracksByCountry(country, pageSize, after, sink));
+                else query.getTracksByCountry(country);
                 break;
 
             case 'e':
                 System.out.print("Enter 'mature' for explicit tracks only or 'everyone' for censored track list: ");
                 String dec = in.nextLine();
-                if(dec.compareTo("mature") == 0 || dec.compareTo("Mature") == 0 ){
-                    query.getTracksByRating(1);
-                }else{
-                    query.getTracksByRating(0);
-                }
+                int rating = (dec.compareTo("mature") == 0 || dec.compareTo("Mature") == 0) ? 1 : 0;
+                if (pageSize > 0) printPaged((after, sink) -> query.getTracksByRating(rating, pageSize, after, sink));
+                else query.getTracksByRating(rating);
                 break;
 
             case 'r':
                 System.out.print("Enter size of list to be returned: ");
                 int size = requestInt();
-                query.getRandomTracks(size);
+                System.out.print("Enter a genre to pick from or leave blank for any: ");
+                String rGenre = getNullableString();
+                System.out.print("Enter a country name to pick from or leave blank for any: ");
+                String rCountry = getNullableString();
+                query.getRandomTracks(size, rGenre, rCountry);
+                break;
+
+            //partial/keyword name search
+            case 'k':
+                System.out.print("Enter words to search for: ");
+                query.searchCatalog(in.nextLine());
+                break;
+
+            case 's':
+                System.out.print("Enter a creator name: ");
+                query.getCreatorSummary(in.nextLine());
                 break;
         }
     }
 
+    //a paged Queries search, given the token of the page to start after
+    private interface PagedSearch {
+        void page(String after, ResultSink sink);
+    }
+
+    //prints a search one page at a time, for as long as more pages follow and the user asks for them
+    private static void printPaged(PagedSearch search) {
+        String after = null;
+        do {
+            ConsoleSink sink = query.consoleSink();
+            search.page(after, sink);
+            after = sink.nextPage();
+            if (after == null) return;
+            System.out.print("Enter m for more results, anything else to return to the menu: ");
+        } while (getNullableChar() == 'm');
+    }
+
     //switch for all the various insert options that may be called
     //prompt for any extra information as needed, then call some jdbc handler method
     private static void processInsert(char lastOption) {
@@ -203,17 +385,12 @@ public class Zene {
                         Integer rating = (getNullableChar() == 'y') ? 1 : 0;
                         System.out.print("Enter country ID or leave blank for null ('?' for list of codes): ");
                         Integer countryID = getNullableInteger("country");
+                        System.out.print("Enter a genre for the new track of leave blank for null: ");
+                        String genre = getNullableString();
 
-                        //attempt adding track to db
-                        int trackID = query.insertAudiofile(track, rating, duration, countryID, albumID, trackCreator);
-                        if (trackID > 0) {
-                            successCount++;
-                            System.out.print("Enter a genre for the new track of leave blank for null: ");
-                            String genre = getNullableString();
-                            if (genre != null) {
-                                query.addGenreToTrack(trackID, genre);
-                            }
-                        }
+                        //attempt adding track to db, with its creator and genre in one transaction
+                        int trackID = query.insertTrack(trackSpec(track, rating, duration, countryID, albumID, trackCreator, genre));
+                        if (trackID > 0) successCount++;
                     }
                     if (successCount > 0) System.out.println("Successfully added " + successCount + " tracks to album " + albumName);
                     if (successCount != trackCount) System.out.println(trackCount - successCount + " tracks could not be added.");
@@ -238,14 +415,9 @@ public class Zene {
                 Integer rating = (getNullableChar() == 'y') ? 1 : 0;
                 System.out.print("Enter country ID or leave blank for null ('?' for list of codes): ");
                 Integer countryID = getNullableInteger("country");
-                int trackID = query.insertAudiofile(track, rating, duration, countryID, aID, creator);
-                if (trackID > 0) {
-                    System.out.print("Enter a genre for the new track of leave blank for no genre: ");
-                    String genre = getNullableString();
-                    if (genre != null) {
-                        query.addGenreToTrack(trackID, genre);
-                    }
-                }
+                System.out.print("Enter a genre for the new track of leave blank for no genre: ");
+                String genre = getNullableString();
+                query.insertTrack(trackSpec(track, rating, duration, countryID, aID, creator, genre));
                 break;
 
               //add new record label
@@ -288,6 +460,14 @@ public class Zene {
         }
     }
     
+    //a track typed in at the insert prompts, a blank creator or genre is left out
+    private static TrackSpec trackSpec(String name, Integer rating, Integer duration, Integer countryID, int albumID,
+                                       String creator, String genre) {
+        List<String> creators = (creator == null || creator.isEmpty()) ? Collections.<String>emptyList() : Collections.singletonList(creator);
+        List<String> genres = (genre == null) ? Collections.<String>emptyList() : Collections.singletonList(genre);
+        return new TrackSpec(name, rating, duration, countryID, albumID, creators, genres);
+    }
+
   //switch for all the various search options that may be called
     private static void processUpdate(char lastOption) {
         switch (lastOption) {
@@ -461,9 +641,16 @@ public class Zene {
 
     //called from main, verifies args are proper
     private static void verifyArgs(String[] args) {
+        //connection info comes first, any --options follow it
+        int positional = 0;
+        while (positional < args.length && !args[positional].startsWith("--")) positional++;
+        parseOptions(Arrays.copyOfRange(args, positional, args.length));
+
         //check for sufficient args, prompt for user input otherwise
         String driver;
-        if (args.length < 4) {
+        if (positional < 4 && "-".equals(scriptFile))
+            throw new IllegalArgumentException("connection arguments are required when the script is read from stdin");
+        if (positional < 4) {
             System.out.print("Please enter the database URL (e.g. jdbc:mysql://localhost:3306/world): ");
             url = in.nextLine();
             System.out.print("Please enter your database username: ");
@@ -491,6 +678,111 @@ public class Zene {
         }
     }
 
+    //handles the optional flags that follow the connection arguments
+    private static void parseOptions(String[] opts) {
+        for (int i = 0; i < opts.length; i++) {
+            switch (opts[i]) {
+                //every following argument that is not a flag is a file to import
+                case "--import":
+                    while (i + 1 < opts.length && !opts[i + 1].startsWith("--")) importFiles.add(opts[++i]);
+                    break;
+                case "--chunk-size":
+                    chunkSize = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                case "--fetch-size":
+                    fetchSize = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                case "--page-size":
+                    pageSize = Integer.parseInt(optionValue(opts, i++));
+                    if (pageSize > Queries.MAX_PAGE_SIZE) throw new IllegalArgumentException("--page-size must be at most " + Queries.MAX_PAGE_SIZE);
+                    break;
+                case "--replica":
+                    replicaUrls.add(optionValue(opts, i++));
+                    break;
+                case "--routing":
+                    String route = optionValue(opts, i++);
+                    if (route.equals("round-robin")) routing = ReplicaRouter.Routing.ROUND_ROBIN;
+                    else if (route.equals("least-latency")) routing = ReplicaRouter.Routing.LEAST_LATENCY;
+                    else throw new IllegalArgumentException("--routing must be round-robin or least-latency");
+                    break;
+                case "--read-your-writes-ms":
+                    readYourWritesMillis = Long.parseLong(optionValue(opts, i++));
+                    break;
+                case "--result-cache-mb":
+                    resultCacheMB = Long.parseLong(optionValue(opts, i++));
+                    break;
+                case "--result-cache-ttl":
+                    resultCacheSeconds = Long.parseLong(optionValue(opts, i++));
+                    break;
+                case "--snapshot":
+                    snapshot = true;
+                    break;
+                case "--snapshot-file":
+                    snapshotFile = optionValue(opts, i++);
+                    snapshot = true;
+                    break;
+                case "--script":
+                    scriptFile = optionValue(opts, i++);
+                    break;
+                case "--commit-every":
+                    commitEvery = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                case "--stop-on-error":
+                    stopOnError = true;
+                    break;
+                case "--migrate":
+                    migrate = true;
+                    break;
+                case "--explain":
+                    explain = true;
+                    break;
+                case "--rebuild-summaries":
+                    rebuildSummaries = true;
+                    break;
+                case "--verify-summaries":
+                    verifySummaries = true;
+                    break;
+                case "--metrics-interval":
+                    metricsInterval = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                case "--slow-query-ms":
+                    slowQueryMillis = Long.parseLong(optionValue(opts, i++));
+                    break;
+                case "--slow-query-log":
+                    slowQueryFile = optionValue(opts, i++);
+                    break;
+                case "--serve":
+                    servePort = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                case "--serve-threads":
+                    serveThreads = Integer.parseInt(optionValue(opts, i++));
+                    break;
+                //ask is not offered, a script cannot answer the prompt
+                case "--missing-creator":
+                    String policy = optionValue(opts, i++);
+                    if (policy.equals("create")) missingCreator = Queries.MissingCreator.CREATE;
+                    else if (policy.equals("reject")) missingCreator = Queries.MissingCreator.REJECT;
+                    else throw new IllegalArgumentException("--missing-creator must be create or reject");
+                    break;
+                default:
+                    throw new IllegalArgumentException("unrecognized option " + opts[i]);
+            }
+        }
+    }
+
+    //one pool per --replica url
+    private static List<ConnectionPool> openReplicas() {
+        List<ConnectionPool> pools = new ArrayList<>();
+        for (String replicaUrl : replicaUrls) pools.add(new ConnectionPool(replicaUrl, username, password));
+        return pools;
+    }
+
+    //returns the value following a flag
+    private static String optionValue(String[] opts, int flagIndex) {
+        if (flagIndex + 1 >= opts.length) throw new IllegalArgumentException(opts[flagIndex] + " requires a value");
+        return opts[flagIndex + 1];
+    }
+
     //formats user input as number, continually prompts if not proper int
     private static int requestInt() {
         int val = -1;